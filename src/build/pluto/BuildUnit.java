@@ -5,14 +5,17 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
 
+import build.pluto.builder.BuildManager;
 import build.pluto.builder.BuildRequest;
 import build.pluto.dependency.BuildRequirement;
 import build.pluto.dependency.FileRequirement;
@@ -21,6 +24,7 @@ import build.pluto.dependency.Requirement;
 import build.pluto.output.Output;
 import build.pluto.stamp.LastModifiedStamper;
 import build.pluto.stamp.Stamp;
+import build.pluto.util.PathTable;
 import build.pluto.util.TraceData;
 
 /**
@@ -30,7 +34,7 @@ import build.pluto.util.TraceData;
  */
 public final class BuildUnit<Out extends Output> extends PersistableEntity implements Cloneable {
 
-  public static final long serialVersionUID = -2821414386853890682L;
+  public static final long serialVersionUID = -2821414386853890683L;
 
   public static enum State {
 	  NEW, INITIALIZED, IN_PROGESS, SUCCESS, FAILURE;
@@ -44,9 +48,12 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
 	
 	private State state = State.NEW;
 
-	protected List<Requirement> requirements;
+	protected RequirementList requirements;
 	protected Set<FileRequirement> generatedFiles;
 	private transient Set<BuildUnit<?>> requiredUnits;
+	private transient Map<File, Stamp> requiredFileStamps;
+	private transient volatile Set<File> generatedFileSet;
+	private transient volatile Set<FileRequirement> requiredFileSet;
 
 	protected BuildRequest<?, Out, ?, ?> generatedBy;
 	protected Out buildResult;
@@ -73,10 +80,13 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
 	@Override
 	protected void init() {
 	  super.init();
-	  requirements = new ArrayList<>();
+	  requirements = new RequirementList();
 	  generatedFiles = new HashSet<>();
 	  
 	  requiredUnits = new HashSet<>();
+	  requiredFileStamps = new HashMap<>();
+	  generatedFileSet = null;
+	  requiredFileSet = null;
 
 		state = State.INITIALIZED;
 		generatedBy = null;
@@ -88,7 +98,19 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
 	// *******************************
 
 	public void requires(File file, Stamp stampOfFile) {
-		requirements.add(new FileRequirement(file, stampOfFile));
+	  file = PathTable.intern(file);
+	  if (requiredFileStamps == null) {
+	    requiredFileStamps = new HashMap<>();
+	    for (Requirement r : requirements)
+	      if (r instanceof FileRequirement)
+	        requiredFileStamps.put(((FileRequirement) r).file, ((FileRequirement) r).stamp);
+	  }
+	  // A file required again with the same stamp adds nothing to check
+	  Stamp known = requiredFileStamps.put(file, stampOfFile);
+	  if (known != null && known.equals(stampOfFile))
+	    return;
+		requirements.addFile(file, stampOfFile);
+		requiredFileSet = null;
 	}
 	
 	public <Out_ extends Output> void requires(BuildRequirement<Out_> req) {
@@ -106,14 +128,17 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
 	public <Out_ extends Output> void requireOther(Requirement req) {
     Objects.requireNonNull(req);
     requirements.add(req);
+    requiredFileSet = null;
   }
 
   public void generates(File file, Stamp stampOfFile) {
 	  generatedFiles.add(new FileRequirement(file, stampOfFile));
+	  generatedFileSet = null;
 	}
 	  
 	public void generates(FileRequirement req) {
 	  generatedFiles.add(req);
+	  generatedFileSet = null;
 	}
 	  
 
@@ -189,9 +214,13 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
   }
   
 	public Set<File> getGeneratedFiles() {
-	  Set<File> set = new HashSet<>();
-	  for (FileRequirement freq : generatedFiles)
-	    set.add(freq.file);
+	  Set<File> set = generatedFileSet;
+	  if (set == null) {
+	    set = new HashSet<>();
+	    for (FileRequirement freq : generatedFiles)
+	      set.add(freq.file);
+	    generatedFileSet = set = Collections.unmodifiableSet(set);
+	  }
 		return set;
 	}
 	
@@ -204,10 +233,14 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
   }
 
 	 public Set<FileRequirement> getRequiredFiles() {
-	    Set<FileRequirement> set = new HashSet<>();
-	    for (Requirement req : requirements)
-	      if (req instanceof FileRequirement)
-	        set.add((FileRequirement) req);
+	    Set<FileRequirement> set = requiredFileSet;
+	    if (set == null) {
+	      set = new HashSet<>();
+	      for (Requirement req : requirements)
+	        if (req instanceof FileRequirement)
+	          set.add((FileRequirement) req);
+	      requiredFileSet = set = Collections.unmodifiableSet(set);
+	    }
 	    return set;
 	  }	  
 
@@ -292,14 +325,16 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
         return InconsistenyReason.FILES_INCONSISTENT;
       }
 
-		for (Requirement req : requirements)
-		  if (!req.isConsistent())
-  		  if (req instanceof FileRequirement)
-  		    return InconsistenyReason.FILES_INCONSISTENT;
-  		  else if (req instanceof BuildRequirement)
-  		    return InconsistenyReason.DEPENDENCIES_INCONSISTENT;
-  		  else
-  		    return InconsistenyReason.OTHER_REQUIREMENT_INCONSISTENT;
+		int inconsistent = requirements.firstInconsistent();
+		if (inconsistent >= 0) {
+		  Requirement req = requirements.get(inconsistent);
+		  if (req instanceof FileRequirement)
+		    return InconsistenyReason.FILES_INCONSISTENT;
+		  else if (req instanceof BuildRequirement)
+		    return InconsistenyReason.DEPENDENCIES_INCONSISTENT;
+		  else
+		    return InconsistenyReason.OTHER_REQUIREMENT_INCONSISTENT;
+		}
 		
 		return InconsistenyReason.NO_REASON;
 	}
@@ -399,28 +434,52 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
 	 *  Contributed state `mode` must be read by subclass.
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	protected void readEntity(ObjectInputStream in) throws IOException, ClassNotFoundException {
-	  state = (State) in.readObject();
-	  requirements = (List<Requirement>) in.readObject();
-	  generatedFiles = (Set<FileRequirement>) in.readObject();
-	  generatedBy = (BuildRequest<?, Out, ?, ?>) in.readObject();
-	  buildResult = (Out) in.readObject();
-	  trace = (TraceData) in.readObject();
+	  byte[] summary = new byte[in.readInt()];
+	  in.readFully(summary);
+	  SummaryCodec.decode(summary, this);
+	  requirements.freeze();
+	  generatedFiles = Collections.unmodifiableSet(generatedFiles);
+	  requiredFileStamps = null;
+	  generatedFileSet = null;
+	  requiredFileSet = null;
 	}
 	
 	public void write() throws IOException {
+	  SummaryStore store = getSummaryStore();
+	  if (store instanceof WriteBehindSummaryStore)
+	    ((WriteBehindSummaryStore) store).syncBefore(persistentPath, getGeneratedFiles());
     super.write(LastModifiedStamper.instance);
   }
 
+  /**
+   * Writes this unit unless it has the same content as the given previous
+   * version of it, which was read from the persistent path. Then the summary
+   * keeps its previous stamp, such that it does not appear to have changed.
+   * The trace is not compared, it is written with the next change.
+   * 
+   * @return true if this unit was written.
+   */
+  public boolean writeIfChanged(BuildUnit<?> previous) throws IOException {
+    if (previous != null && getSummaryStore().contains(persistentPath) && Arrays.equals(content(), previous.content())) {
+      setPersisted(LastModifiedStamper.instance);
+      return false;
+    }
+    write();
+    return true;
+  }
+
+  private byte[] content() throws IOException {
+    return SummaryCodec.encode(this, false, false);
+  }
+
 	@Override
 	protected void writeEntity(ObjectOutputStream out) throws IOException {
-	  out.writeObject(state);
-	  out.writeObject(requirements = Collections.unmodifiableList(requirements));
-		out.writeObject(generatedFiles = Collections.unmodifiableSet(generatedFiles));
-		out.writeObject(generatedBy);
-		out.writeObject(buildResult);
-		out.writeObject(trace);
+	  requirements.freeze();
+	  generatedFiles = Collections.unmodifiableSet(generatedFiles);
+	  byte[] summary = SummaryCodec.encode(this, true, BuildManager.COMPRESS_SUMMARIES);
+	  out.writeInt(summary.length);
+	  out.write(summary);
 	}
 	
 	@Override
@@ -432,7 +491,7 @@ public final class BuildUnit<Out extends Output> extends PersistableEntity imple
 	public BuildUnit<Out> clone() {
 	  BuildUnit<Out> unit = new BuildUnit<>();
 	  unit.state = state;
-	  unit.requirements = new ArrayList<>(requirements);
+	  unit.requirements = new RequirementList(requirements);
 	  unit.generatedFiles = new HashSet<>(generatedFiles);
 	  unit.generatedBy = generatedBy;
 	  unit.buildResult = buildResult;
@@ -0,0 +1,49 @@
+package build.pluto;
+
+import java.io.File;
+
+/**
+ * Keeps read and written {@link PersistableEntity}s in memory by their
+ * persistent paths (see
+ * {@link PersistableEntity#setEntityCache(EntityCache)}). Entities are looked
+ * up concurrently by running builds. Builds rely on reading the same entity
+ * instance they built, hence a cache evicts entities only when asked to
+ * {@link #trim()}, which happens when no build is running.
+ */
+public interface EntityCache {
+
+  /**
+   * @return the entity cached for the given absolute persistent path, or null.
+   *         Counts as hit or miss and as use of the entity.
+   */
+  public PersistableEntity get(File p);
+
+  /**
+   * Like {@link #get(File)}, but neither counts nor uses the entity.
+   */
+  public PersistableEntity peek(File p);
+
+  public void put(File p, PersistableEntity entity);
+
+  /**
+   * Removes the given entity, unless another entity was cached for the path
+   * since.
+   */
+  public void remove(File p, PersistableEntity entity);
+
+  public void clear();
+
+  /**
+   * Evicts entities until the cache is within its bounds.
+   */
+  public void trim();
+
+  /**
+   * @return the number of lookups by {@link #get(File)} which found an entity.
+   */
+  public long getHits();
+
+  public long getMisses();
+
+  public long getEvictions();
+}
@@ -0,0 +1,56 @@
+package build.pluto;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.stamp.Stamper;
+
+/**
+ * Stores each summary in its own file at its persistent path, stamped by the
+ * stamper of its entity.
+ */
+public class FileSummaryStore implements SummaryStore {
+
+  public static final FileSummaryStore instance = new FileSummaryStore();
+
+  private FileSummaryStore() {
+  }
+
+  @Override
+  public boolean contains(File p) {
+    return p.exists();
+  }
+
+  @Override
+  public InputStream read(File p) throws IOException {
+    if (!p.exists())
+      return null;
+    return new FileInputStream(p);
+  }
+
+  @Override
+  public void write(File p, byte[] summary) throws IOException {
+    FileCommands.createFile(p.toPath());
+    Files.write(p.toPath(), summary);
+  }
+
+  @Override
+  public void delete(File p) throws IOException {
+    Files.deleteIfExists(p.toPath());
+  }
+
+  @Override
+  public Stamper versionStamper(Stamper stamper) {
+    return stamper;
+  }
+
+  @Override
+  public void flush() {
+    // Files are written immediately
+  }
+}
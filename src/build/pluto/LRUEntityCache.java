@@ -0,0 +1,174 @@
+package build.pluto;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Evicts the least recently used entities beyond a number of entities and a
+ * total weight, where the weight of an entity is the size of its summary (see
+ * {@link PersistableEntity#getSummarySize()}). Entities which were not written
+ * or read yet are never evicted.
+ *
+ * Evicted entities are kept softly reachable, such that they are recovered
+ * without reading their summary until the garbage collector needs the memory.
+ * Lookups do not lock.
+ */
+public class LRUEntityCache implements EntityCache {
+
+  private static class Entry {
+    final PersistableEntity entity;
+    volatile long lastAccess;
+
+    Entry(PersistableEntity entity, long lastAccess) {
+      this.entity = entity;
+      this.lastAccess = lastAccess;
+    }
+  }
+
+  private static class SpilledEntity extends SoftReference<PersistableEntity> {
+    final String key;
+
+    SpilledEntity(String key, PersistableEntity entity, ReferenceQueue<PersistableEntity> queue) {
+      super(entity, queue);
+      this.key = key;
+    }
+  }
+
+  private final int maxEntries;
+  private final long maxWeight;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+  private final Map<String, SpilledEntity> spilled = new ConcurrentHashMap<>();
+  private final ReferenceQueue<PersistableEntity> collected = new ReferenceQueue<>();
+  private final AtomicLong clock = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param maxWeight
+   *          bound of the total size of the summaries of cached entities in
+   *          bytes.
+   */
+  public LRUEntityCache(int maxEntries, long maxWeight) {
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  @Override
+  public PersistableEntity get(File p) {
+    String key = p.getAbsolutePath();
+    Entry e = entries.get(key);
+    if (e == null) {
+      SpilledEntity ref = spilled.remove(key);
+      PersistableEntity entity = ref == null ? null : ref.get();
+      if (entity == null) {
+        misses.incrementAndGet();
+        return null;
+      }
+      e = new Entry(entity, 0);
+      Entry existing = entries.putIfAbsent(key, e);
+      if (existing != null)
+        e = existing;
+    }
+    e.lastAccess = clock.incrementAndGet();
+    hits.incrementAndGet();
+    return e.entity;
+  }
+
+  @Override
+  public PersistableEntity peek(File p) {
+    String key = p.getAbsolutePath();
+    Entry e = entries.get(key);
+    if (e != null)
+      return e.entity;
+    SpilledEntity ref = spilled.get(key);
+    return ref == null ? null : ref.get();
+  }
+
+  @Override
+  public void put(File p, PersistableEntity entity) {
+    String key = p.getAbsolutePath();
+    spilled.remove(key);
+    entries.put(key, new Entry(entity, clock.incrementAndGet()));
+  }
+
+  @Override
+  public void remove(File p, PersistableEntity entity) {
+    String key = p.getAbsolutePath();
+    Entry e = entries.get(key);
+    if (e != null && e.entity == entity)
+      entries.remove(key, e);
+    SpilledEntity ref = spilled.get(key);
+    if (ref != null && ref.get() == entity)
+      spilled.remove(key, ref);
+  }
+
+  @Override
+  public void clear() {
+    entries.clear();
+    spilled.clear();
+  }
+
+  @Override
+  public void trim() {
+    for (SpilledEntity ref = (SpilledEntity) collected.poll(); ref != null; ref = (SpilledEntity) collected.poll())
+      spilled.remove(ref.key, ref);
+
+    long weight = 0;
+    List<Map.Entry<String, Entry>> evictable = new ArrayList<>();
+    for (Map.Entry<String, Entry> e : entries.entrySet()) {
+      weight += e.getValue().entity.getSummarySize();
+      if (e.getValue().entity.isPersisted())
+        evictable.add(e);
+    }
+    int size = entries.size();
+    if (size <= maxEntries && weight <= maxWeight)
+      return;
+
+    Collections.sort(evictable, new Comparator<Map.Entry<String, Entry>>() {
+      @Override
+      public int compare(Map.Entry<String, Entry> e1, Map.Entry<String, Entry> e2) {
+        return Long.compare(e1.getValue().lastAccess, e2.getValue().lastAccess);
+      }
+    });
+    for (Map.Entry<String, Entry> e : evictable) {
+      if (size <= maxEntries && weight <= maxWeight)
+        break;
+      if (entries.remove(e.getKey(), e.getValue())) {
+        spilled.put(e.getKey(), new SpilledEntity(e.getKey(), e.getValue().entity, collected));
+        size--;
+        weight -= e.getValue().entity.getSummarySize();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public long getHits() {
+    return hits.get();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.get();
+  }
+
+  @Override
+  public long getEvictions() {
+    return evictions.get();
+  }
+}
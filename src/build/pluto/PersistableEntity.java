@@ -1,23 +1,22 @@
 package build.pluto;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.nio.file.Files;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Objects;
 
 import org.sugarj.common.FileCommands;
 import org.sugarj.common.Log;
 
 import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
 import build.pluto.stamp.Stamper;
-import build.pluto.util.AbsoluteComparedFile;
+import build.pluto.util.PathTable;
 
 /**
  * @author Sebastian Erdweg
@@ -27,7 +26,9 @@ public abstract class PersistableEntity implements Serializable {
   
   private static final long serialVersionUID = 3725384862203109760L;
 
-  private final static Map<AbsoluteComparedFile, PersistableEntity> inMemory = new HashMap<>();
+  private static volatile EntityCache cache = new LRUEntityCache(10000, 256L << 20);
+
+  private static volatile SummaryStore store = FileSummaryStore.instance;
   
   public PersistableEntity() { /* for deserialization only */ }
       
@@ -37,6 +38,16 @@ public abstract class PersistableEntity implements Serializable {
   protected File persistentPath;
   private Stamp persistentStamp;
 
+  /**
+   * False while the entity is read.
+   */
+  private transient volatile boolean readComplete = true;
+
+  /**
+   * Size in bytes of the summary this entity was read from or written to.
+   */
+  private transient int summarySize;
+
   final public boolean isPersisted() {
     return persistentStamp != null;
   }
@@ -44,11 +55,56 @@ public abstract class PersistableEntity implements Serializable {
   public boolean hasPersistentVersionChanged() {
     return isPersisted() &&
            persistentPath != null && 
-           !persistentStamp.equals(persistentStamp.getStamper().stampOf(persistentPath));
+           !persistentStamp.equals(StampCache.stampOf(persistentStamp.getStamper(), persistentPath));
   }
   
   final protected void setPersisted(Stamper stamper) throws IOException {
-    persistentStamp = Objects.requireNonNull(stamper.stampOf(persistentPath));
+    persistentStamp = Objects.requireNonNull(store.versionStamper(stamper).stampOf(persistentPath));
+  }
+
+  /**
+   * Replaces the store of all summaries. Summaries in the previous store are
+   * not migrated, hence the store should be set before the first build.
+   */
+  public static void setSummaryStore(SummaryStore store) {
+    PersistableEntity.store = Objects.requireNonNull(store);
+    cleanCache();
+  }
+
+  public static SummaryStore getSummaryStore() {
+    return store;
+  }
+
+  /**
+   * Replaces the cache of entities in memory. Cached entities are dropped.
+   */
+  public static void setEntityCache(EntityCache cache) {
+    PersistableEntity.cache.clear();
+    PersistableEntity.cache = Objects.requireNonNull(cache);
+  }
+
+  public static EntityCache getEntityCache() {
+    return cache;
+  }
+
+  /**
+   * Evicts entities beyond the bounds of the cache (see
+   * {@link EntityCache#trim()}). Called when the last running build of this
+   * process ended.
+   */
+  public static void trimCache() {
+    cache.trim();
+  }
+
+  public int getSummarySize() {
+    return summarySize;
+  }
+
+  /**
+   * Makes all written summaries durable (see {@link SummaryStore#flush()}).
+   */
+  public static void flushSummaries() throws IOException {
+    store.flush();
   }
   
   final public Stamp stamp() {
@@ -66,7 +122,7 @@ public abstract class PersistableEntity implements Serializable {
   }
   
   final protected static <E extends PersistableEntity> E create(Class<E> clazz, File p) throws IOException {
-    p = p.getAbsoluteFile();
+    p = PathTable.intern(p);
     E entity = readFromMemoryCache(clazz, p);
     
     if (entity != null) {
@@ -98,14 +154,37 @@ public abstract class PersistableEntity implements Serializable {
     if (p == null)
       return null;
     
-    if (!p.exists())
+    if (!store.contains(p))
       return null;
+
+    // Entities which did not change since they were read are shared without
+    // locking
+    E cached = readFromMemoryCache(clazz, p);
+    if (cached != null && ((PersistableEntity) cached).readComplete && !cached.hasPersistentVersionChanged())
+      return cached;
       
+    // Concurrent builds read and write entities concurrently; entities are
+    // read under the same lock. References to other entities are read on
+    // demand, hence reading an entity never reads other entities.
+    synchronized (PersistableEntity.class) {
+      return readFile(clazz, p);
+    }
+  }
+
+  private static <E extends PersistableEntity> E readFile(Class<E> clazz, File p) throws IOException {
+    byte[] summary;
+    try (InputStream in = store.read(p)) {
+      if (in == null)
+        return null;
+      summary = readFully(in);
+    }
+
     E entity = null;
-    try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(p))) {
+    try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(summary))) {
       long id = in.readLong();
 
-      entity = readFromMemoryCache(clazz, p);
+      PersistableEntity cached = cache.peek(p);
+      entity = clazz.isInstance(cached) ? clazz.cast(cached) : null;
       
       if (entity != null && id == clazz.getField("serialVersionUID").getLong(entity) && !entity.hasPersistentVersionChanged())
         return entity;
@@ -114,11 +193,13 @@ public abstract class PersistableEntity implements Serializable {
         entity = clazz.newInstance();
       
       Stamper stamper = (Stamper) in.readObject();
-      entity.persistentPath = p;
+      entity.persistentPath = PathTable.intern(p);
+      ((PersistableEntity) entity).readComplete = false;
       entity.cacheInMemory();
       entity.setPersisted(stamper);
-
+      ((PersistableEntity) entity).summarySize = summary.length;
       entity.readEntity(in);
+      ((PersistableEntity) entity).readComplete = true;
       return entity;
     } catch (Exception e) {
       Log.log.logErr("Could not read module's dependency file: " + p, e, Log.DETAIL);
@@ -126,7 +207,7 @@ public abstract class PersistableEntity implements Serializable {
         Log.log.logErr("Could not read module's dependency file: " + p + ": " + e, Log.CACHING);
 
       // File is not readable. We delete it to avoid repeated read failures.
-      Files.delete(p.toPath());
+      delete(p);
       if (entity != null)
         entity.removeFromMemoryCache();
       return null;
@@ -135,33 +216,46 @@ public abstract class PersistableEntity implements Serializable {
   
   final public void write(Stamper stamper) throws IOException {
     Objects.requireNonNull(stamper);
-    FileCommands.createFile(persistentPath.toPath());
-    ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(persistentPath));
+    synchronized (PersistableEntity.class) {
+      ByteArrayOutputStream summary = new ByteArrayOutputStream();
+      ObjectOutputStream out = new ObjectOutputStream(summary);
 
-    try {
-      out.writeLong(this.getClass().getField("serialVersionUID").getLong(this));
-      out.writeObject(stamper);
-      writeEntity(out);
-    } catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
-      e.printStackTrace();
-      throw new IOException(e);
-    } finally {
-      out.close();
-      setPersisted(stamper);
+      try {
+        out.writeLong(this.getClass().getField("serialVersionUID").getLong(this));
+        out.writeObject(stamper);
+        writeEntity(out);
+      } catch (IllegalArgumentException | IllegalAccessException | NoSuchFieldException | SecurityException e) {
+        e.printStackTrace();
+        throw new IOException(e);
+      } finally {
+        out.close();
+        store.write(persistentPath, summary.toByteArray());
+        summarySize = summary.size();
+        StampCache.invalidate(persistentPath);
+        setPersisted(stamper);
+      }
     }
   }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buf = new byte[8192];
+    for (int n = in.read(buf); n >= 0; n = in.read(buf))
+      bytes.write(buf, 0, n);
+    return bytes.toByteArray();
+  }
+
+  private static void delete(File p) throws IOException {
+    store.delete(p);
+    StampCache.invalidate(p);
+  }
   
   final public static void cleanCache() {
-    synchronized (PersistableEntity.class) {
-      inMemory.clear();
-    }
+    cache.clear();
   }
 
   final protected static <E extends PersistableEntity> E readFromMemoryCache(Class<E> clazz, File p) {
-    PersistableEntity e;
-    synchronized (PersistableEntity.class) {
-      e = inMemory.get(AbsoluteComparedFile.absolute(p));
-    }
+    PersistableEntity e = cache.get(p.getAbsoluteFile());
     if (e == null)
       return null;
     
@@ -171,15 +265,11 @@ public abstract class PersistableEntity implements Serializable {
   }
   
   final protected void cacheInMemory() {
-    synchronized (PersistableEntity.class) {
-      inMemory.put(AbsoluteComparedFile.absolute(persistentPath), this);
-    }
+    cache.put(persistentPath.getAbsoluteFile(), this);
   }
   
   final protected void removeFromMemoryCache() {
-    synchronized (PersistableEntity.class) {
-      inMemory.remove(AbsoluteComparedFile.absolute(persistentPath));
-    }
+    cache.remove(persistentPath.getAbsoluteFile(), this);
   }
 
   public String toString() {
@@ -0,0 +1,209 @@
+package build.pluto;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
+import build.pluto.stamp.ValueStamp;
+import build.pluto.util.PathTable;
+
+/**
+ * The requirements of a {@link BuildUnit} in the order in which they were
+ * declared. File requirements are stored in columns: the id of the path (see
+ * {@link PathTable#id(File)}), the kind of the stamp and, for last-modified
+ * stamps, the time itself. Other stamps and all other requirements are stored
+ * as objects. An entry per requirement refers to either a row of the columns
+ * or an object, such that file and build requirements stay interleaved.
+ *
+ * File requirements are created when they are read through the {@link List}
+ * interface. Consistency checks read the columns instead (see
+ * {@link #firstInconsistent()}). Since path ids are only valid within the
+ * process, the list is serialized as a list of requirement objects.
+ */
+final class RequirementList extends AbstractList<Requirement> implements RandomAccess, Serializable {
+
+  private static final long serialVersionUID = -4120316046364707151L;
+
+  private static class SerializedList implements Serializable {
+    private static final long serialVersionUID = 5806734413911312254L;
+
+    private final ArrayList<Requirement> requirements;
+    private final boolean frozen;
+
+    SerializedList(RequirementList list) {
+      this.requirements = new ArrayList<>(list);
+      this.frozen = list.frozen;
+    }
+
+    private Object readResolve() {
+      RequirementList list = new RequirementList(requirements.size());
+      list.addAll(requirements);
+      if (frozen)
+        list.freeze();
+      return list;
+    }
+  }
+
+  private static final byte STAMP_OBJECT = 0;
+  private static final byte STAMP_LAST_MODIFIED = 1;
+
+  private static final int[] NO_INTS = new int[0];
+  private static final byte[] NO_BYTES = new byte[0];
+  private static final long[] NO_LONGS = new long[0];
+
+  // A row of the file columns, or the complement of an index into others
+  private int[] entries;
+  private int size;
+
+  private int[] paths = NO_INTS;
+  private byte[] stampKinds = NO_BYTES;
+  // The last-modified time, or an index into stamps
+  private long[] stampValues = NO_LONGS;
+  private int rows;
+
+  private final List<Requirement> others = new ArrayList<>(0);
+  private final List<Stamp> stamps = new ArrayList<>(0);
+
+  private boolean frozen;
+
+  RequirementList() {
+    this(0);
+  }
+
+  RequirementList(int capacity) {
+    entries = capacity == 0 ? NO_INTS : new int[capacity];
+  }
+
+  RequirementList(RequirementList list) {
+    entries = Arrays.copyOf(list.entries, list.size);
+    size = list.size;
+    paths = Arrays.copyOf(list.paths, list.rows);
+    stampKinds = Arrays.copyOf(list.stampKinds, list.rows);
+    stampValues = Arrays.copyOf(list.stampValues, list.rows);
+    rows = list.rows;
+    others.addAll(list.others);
+    stamps.addAll(list.stamps);
+  }
+
+  /**
+   * Rejects further requirements, as the list of a written or read unit.
+   */
+  void freeze() {
+    frozen = true;
+  }
+
+  @Override
+  public boolean add(Requirement req) {
+    if (req.getClass() == FileRequirement.class) {
+      FileRequirement freq = (FileRequirement) req;
+      addFile(freq.file, freq.stamp);
+    } else {
+      checkNotFrozen();
+      addEntry(~others.size());
+      others.add(req);
+    }
+    return true;
+  }
+
+  void addFile(File file, Stamp stamp) {
+    if (stamp.getClass() == ValueStamp.class && stamp.getStamper() == LastModifiedStamper.instance && ((ValueStamp<?>) stamp).val instanceof Long)
+      addLastModified(file, (Long) ((ValueStamp<?>) stamp).val);
+    else {
+      addRow(file, STAMP_OBJECT, stamps.size());
+      stamps.add(stamp);
+    }
+  }
+
+  void addLastModified(File file, long lastModified) {
+    addRow(file, STAMP_LAST_MODIFIED, lastModified);
+  }
+
+  private void addRow(File file, byte stampKind, long stampValue) {
+    checkNotFrozen();
+    if (rows == paths.length) {
+      int capacity = Math.max(4, 2 * rows);
+      paths = Arrays.copyOf(paths, capacity);
+      stampKinds = Arrays.copyOf(stampKinds, capacity);
+      stampValues = Arrays.copyOf(stampValues, capacity);
+    }
+    paths[rows] = PathTable.id(file);
+    stampKinds[rows] = stampKind;
+    stampValues[rows] = stampValue;
+    addEntry(rows++);
+  }
+
+  private void addEntry(int entry) {
+    if (size == entries.length)
+      entries = Arrays.copyOf(entries, Math.max(4, 2 * size));
+    entries[size++] = entry;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen)
+      throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Requirement get(int index) {
+    if (index >= size)
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    int entry = entries[index];
+    if (entry < 0)
+      return others.get(~entry);
+    return new FileRequirement(PathTable.file(paths[entry]), stamp(entry));
+  }
+
+  private Stamp stamp(int row) {
+    if (stampKinds[row] == STAMP_LAST_MODIFIED)
+      return new ValueStamp<>(LastModifiedStamper.instance, stampValues[row]);
+    return stamps.get((int) stampValues[row]);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private Object writeReplace() {
+    return new SerializedList(this);
+  }
+
+  /**
+   * @return the index of the first requirement in order which is not
+   *         consistent, or -1 if all are.
+   */
+  int firstInconsistent() {
+    for (int i = 0; i < size; i++) {
+      int entry = entries[i];
+      if (entry < 0 ? !others.get(~entry).isConsistent() : !isConsistentRow(entry))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Like {@link FileRequirement#isConsistent()}, without creating the
+   * requirement.
+   */
+  private boolean isConsistentRow(int row) {
+    File file = PathTable.file(paths[row]);
+    if (stampKinds[row] == STAMP_LAST_MODIFIED) {
+      Stamp current = StampCache.stampOf(LastModifiedStamper.instance, file);
+      if (current == null || current.getClass() != ValueStamp.class)
+        return false;
+      Object val = ((ValueStamp<?>) current).val;
+      return val instanceof Long && (Long) val == stampValues[row];
+    }
+    Stamp stamp = stamps.get((int) stampValues[row]);
+    return stamp.equals(StampCache.stampOf(stamp.getStamper(), file));
+  }
+}
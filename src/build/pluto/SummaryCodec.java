@@ -0,0 +1,394 @@
+package build.pluto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import build.pluto.BuildUnit.State;
+import build.pluto.builder.BuildRequest;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.output.IgnoreOutputStamper;
+import build.pluto.output.None;
+import build.pluto.output.Output;
+import build.pluto.output.OutputEqualStamper;
+import build.pluto.output.OutputStamp;
+import build.pluto.stamp.ByteArrayStamp;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.ValueStamp;
+import build.pluto.util.PathTable;
+import build.pluto.util.TraceData;
+
+/**
+ * Binary format of the content of a {@link BuildUnit}. A summary consists of
+ * a header, a table of all strings, the objects which have no compact
+ * encoding, and the body which refers to both by index:
+ *
+ * <ul>
+ * <li>Paths are stored as directory and name, such that files of the same
+ * directory share their directory string.</li>
+ * <li>File and build requirements and the stamps of the stampers which come
+ * with pluto are stored by type id. Requests of required units are stored by
+ * digest, they are recovered from the summary of the required unit (see
+ * {@link BuildRequirement#getRequest()}). If the required unit was built for
+ * a request that is not deep-equal or has another digest, the request is
+ * stored as object instead.</li>
+ * <li>All other objects, such as the request of the unit itself, its output
+ * and requirements of user types, are written by a single Java serialization
+ * stream.</li>
+ * </ul>
+ *
+ * Everything after the header can be compressed (see
+ * {@link build.pluto.builder.BuildManager#COMPRESS_SUMMARIES}). Summaries of
+ * another version are rejected, then the unit is rebuilt.
+ */
+class SummaryCodec {
+
+  static final int VERSION = 3;
+
+  private static final int FLAG_COMPRESSED = 1;
+
+  private static final int REQ_OBJECT = 0;
+  private static final int REQ_FILE = 1;
+  private static final int REQ_BUILD = 2;
+
+  private static final int STAMP_OBJECT = 0;
+  private static final int STAMP_LAST_MODIFIED = 1;
+  private static final int STAMP_HASH = 2;
+  private static final int STAMP_HASH_MISSING = 3;
+
+  private static final int OUT_STAMP_OBJECT = 0;
+  private static final int OUT_STAMP_NULL = 1;
+  private static final int OUT_STAMP_IGNORE = 2;
+  private static final int OUT_STAMP_EQUAL_NONE = 3;
+
+  private static final int OUT_OBJECT = 0;
+  private static final int OUT_NONE = 1;
+
+  private static final OutputStamp EQUAL_NONE_STAMP = OutputEqualStamper.instance().stampOf(None.val);
+
+  private SummaryCodec() {
+  }
+
+  /**
+   * @param withTrace
+   *          false to leave out the trace, which changes with every build.
+   */
+  static byte[] encode(BuildUnit<?> unit, boolean withTrace, boolean compress) throws IOException {
+    Writer w = new Writer();
+    w.out.writeByte(unit.getState().ordinal());
+    w.out.writeInt(unit.requirements.size());
+    for (Requirement req : unit.requirements)
+      w.writeRequirement(req);
+    w.out.writeInt(unit.generatedFiles.size());
+    for (FileRequirement freq : unit.generatedFiles)
+      w.writeRequirement(freq);
+    w.writeObject(unit.generatedBy);
+    if (unit.buildResult instanceof None)
+      w.out.writeByte(OUT_NONE);
+    else {
+      w.out.writeByte(OUT_OBJECT);
+      w.writeObject(unit.buildResult);
+    }
+    w.writeObject(withTrace ? unit.trace : null);
+    w.out.flush();
+
+    ByteArrayOutputStream summary = new ByteArrayOutputStream();
+    summary.write(VERSION);
+    summary.write(compress ? FLAG_COMPRESSED : 0);
+    OutputStream content = compress ? new DeflaterOutputStream(summary) : summary;
+    DataOutputStream out = new DataOutputStream(content);
+    out.writeInt(w.strings.size());
+    for (String s : w.strings) {
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    byte[] objects = w.objects();
+    out.writeInt(objects.length);
+    out.write(objects);
+    w.body.writeTo(out);
+    out.close();
+    return summary.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  static <Out extends Output> void decode(byte[] summary, BuildUnit<Out> unit) throws IOException, ClassNotFoundException {
+    if (summary.length < 2 || summary[0] != VERSION)
+      throw new IOException("Unsupported summary version " + (summary.length == 0 ? "none" : summary[0]));
+    InputStream content = new ByteArrayInputStream(summary, 2, summary.length - 2);
+    if ((summary[1] & FLAG_COMPRESSED) != 0)
+      content = new InflaterInputStream(content);
+    DataInputStream in = new DataInputStream(content);
+
+    Reader r = new Reader(in);
+    unit.setState(State.values()[in.readUnsignedByte()]);
+    int requirements = in.readInt();
+    unit.requirements = new RequirementList(requirements);
+    for (int i = 0; i < requirements; i++)
+      r.readRequirement(unit.requirements);
+    int generatedFiles = in.readInt();
+    unit.generatedFiles = new HashSet<>();
+    for (int i = 0; i < generatedFiles; i++)
+      unit.generatedFiles.add((FileRequirement) r.readRequirement());
+    unit.generatedBy = (BuildRequest<?, Out, ?, ?>) r.readObject();
+    unit.buildResult = in.readUnsignedByte() == OUT_NONE ? (Out) None.val : (Out) r.readObject();
+    unit.trace = (TraceData) r.readObject();
+  }
+
+  private static class Writer {
+    final List<String> strings = new ArrayList<>();
+    final Map<String, Integer> stringIds = new HashMap<>();
+    final List<Object> objects = new ArrayList<>();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final DataOutputStream out = new DataOutputStream(body);
+
+    void writeString(String s) throws IOException {
+      Integer id = stringIds.get(s);
+      if (id == null) {
+        id = strings.size();
+        strings.add(s);
+        stringIds.put(s, id);
+      }
+      out.writeInt(id);
+    }
+
+    void writePath(File file) throws IOException {
+      String parent = file.getParent();
+      if (parent == null) {
+        // A root has no name, hence it is stored as a whole
+        writeString("");
+        writeString(file.getPath());
+      } else {
+        writeString(parent);
+        writeString(file.getName());
+      }
+    }
+
+    void writeObject(Object o) throws IOException {
+      out.writeInt(objects.size());
+      objects.add(o);
+    }
+
+    byte[] objects() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+        oos.writeInt(objects.size());
+        for (Object o : objects)
+          oos.writeObject(o);
+      }
+      return bytes.toByteArray();
+    }
+
+    void writeRequirement(Requirement req) throws IOException {
+      if (req.getClass() == FileRequirement.class) {
+        FileRequirement freq = (FileRequirement) req;
+        out.writeByte(REQ_FILE);
+        writePath(freq.file);
+        writeStamp(freq.stamp);
+      } else if (req.getClass() == BuildRequirement.class && recoverableDigest((BuildRequirement<?>) req) != null) {
+        BuildRequirement<?> breq = (BuildRequirement<?>) req;
+        out.writeByte(REQ_BUILD);
+        writePath(breq.getUnitPath());
+        out.writeBoolean(breq.isHasFailed());
+        byte[] digest = breq.getRequestDigest();
+        out.writeByte(digest.length);
+        out.write(digest);
+        writeOutputStamp(breq.getStamp());
+      } else {
+        out.writeByte(REQ_OBJECT);
+        writeObject(req);
+      }
+    }
+
+    /**
+     * @return the digest of the request of the given requirement, or null if
+     *         the request cannot be recovered from the summary of the required
+     *         unit by its digest.
+     */
+    static byte[] recoverableDigest(BuildRequirement<?> breq) {
+      BuildRequest<?, ?, ?, ?> request = breq.getRequest();
+      if (request == null)
+        // Only known by digest
+        return breq.getRequestDigest();
+      BuildUnit<?> unit = breq.getUnit();
+      BuildRequest<?, ?, ?, ?> generatedBy = unit == null ? null : unit.getGeneratedBy();
+      if (generatedBy == null)
+        return null;
+      if (generatedBy == request)
+        return breq.getRequestDigest();
+      if (!generatedBy.deepEquals(request) || !Arrays.equals(breq.getRequestDigest(), generatedBy.digest()))
+        return null;
+      return breq.getRequestDigest();
+    }
+
+    void writeStamp(Stamp stamp) throws IOException {
+      if (stamp instanceof ValueStamp<?> && stamp.getStamper() instanceof LastModifiedStamper && ((ValueStamp<?>) stamp).val instanceof Long) {
+        out.writeByte(STAMP_LAST_MODIFIED);
+        out.writeLong((Long) ((ValueStamp<?>) stamp).val);
+      } else if (stamp instanceof ByteArrayStamp && stamp.getStamper() instanceof FileHashStamper && ((ByteArrayStamp) stamp).val != null) {
+        byte[] hash = ((ByteArrayStamp) stamp).val;
+        out.writeByte(STAMP_HASH);
+        out.writeInt(hash.length);
+        out.write(hash);
+      } else if (stamp instanceof ValueStamp<?> && stamp.getStamper() instanceof FileHashStamper && ((ValueStamp<?>) stamp).val == null) {
+        out.writeByte(STAMP_HASH_MISSING);
+      } else {
+        out.writeByte(STAMP_OBJECT);
+        writeObject(stamp);
+      }
+    }
+
+    void writeOutputStamp(OutputStamp stamp) throws IOException {
+      if (stamp == null)
+        out.writeByte(OUT_STAMP_NULL);
+      else if (stamp == IgnoreOutputStamper.IGNORE_OUTPUT_STAMP)
+        out.writeByte(OUT_STAMP_IGNORE);
+      else if (EQUAL_NONE_STAMP.equals(stamp))
+        out.writeByte(OUT_STAMP_EQUAL_NONE);
+      else {
+        out.writeByte(OUT_STAMP_OBJECT);
+        writeObject(stamp);
+      }
+    }
+  }
+
+  private static class Reader {
+    final DataInputStream in;
+    final String[] strings;
+    final Object[] objects;
+
+    Reader(DataInputStream in) throws IOException, ClassNotFoundException {
+      this.in = in;
+      strings = new String[in.readInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        strings[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      byte[] objectBytes = new byte[in.readInt()];
+      in.readFully(objectBytes);
+      try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(objectBytes))) {
+        objects = new Object[ois.readInt()];
+        for (int i = 0; i < objects.length; i++)
+          objects[i] = ois.readObject();
+      }
+    }
+
+    String readString() throws IOException {
+      return strings[in.readInt()];
+    }
+
+    File readPath() throws IOException {
+      return PathTable.intern(readFile());
+    }
+
+    /**
+     * @return the file of a path, which is not interned yet.
+     */
+    File readFile() throws IOException {
+      String parent = readString();
+      String name = readString();
+      return parent.isEmpty() ? new File(name) : new File(parent, name);
+    }
+
+    Object readObject() throws IOException {
+      return objects[in.readInt()];
+    }
+
+    /**
+     * Reads a requirement into the given list, which stores file requirements
+     * in columns.
+     */
+    void readRequirement(RequirementList requirements) throws IOException {
+      int type = in.readUnsignedByte();
+      if (type != REQ_FILE) {
+        requirements.add(readRequirement(type));
+        return;
+      }
+      File file = readFile();
+      int stampType = in.readUnsignedByte();
+      if (stampType == STAMP_LAST_MODIFIED)
+        requirements.addLastModified(file, in.readLong());
+      else
+        requirements.addFile(file, readStamp(stampType));
+    }
+
+    Requirement readRequirement() throws IOException {
+      return readRequirement(in.readUnsignedByte());
+    }
+
+    Requirement readRequirement(int type) throws IOException {
+      switch (type) {
+      case REQ_FILE:
+        return new FileRequirement(readPath(), readStamp());
+      case REQ_BUILD:
+        File unitPath = readPath();
+        boolean hasFailed = in.readBoolean();
+        byte[] digest = new byte[in.readUnsignedByte()];
+        in.readFully(digest);
+        return BuildRequirement.fromDigest(unitPath, hasFailed, digest, readOutputStamp());
+      case REQ_OBJECT:
+        return (Requirement) readObject();
+      default:
+        throw new IOException("Unknown requirement type");
+      }
+    }
+
+    Stamp readStamp() throws IOException {
+      return readStamp(in.readUnsignedByte());
+    }
+
+    Stamp readStamp(int type) throws IOException {
+      switch (type) {
+      case STAMP_LAST_MODIFIED:
+        return new ValueStamp<>(LastModifiedStamper.instance, in.readLong());
+      case STAMP_HASH:
+        byte[] hash = new byte[in.readInt()];
+        in.readFully(hash);
+        return new ByteArrayStamp(FileHashStamper.instance, hash);
+      case STAMP_HASH_MISSING:
+        return new ValueStamp<>(FileHashStamper.instance, null);
+      case STAMP_OBJECT:
+        return (Stamp) readObject();
+      default:
+        throw new IOException("Unknown stamp type");
+      }
+    }
+
+    OutputStamp readOutputStamp() throws IOException {
+      switch (in.readUnsignedByte()) {
+      case OUT_STAMP_NULL:
+        return null;
+      case OUT_STAMP_IGNORE:
+        return IgnoreOutputStamper.IGNORE_OUTPUT_STAMP;
+      case OUT_STAMP_EQUAL_NONE:
+        return EQUAL_NONE_STAMP;
+      case OUT_STAMP_OBJECT:
+        return (OutputStamp) readObject();
+      default:
+        throw new IOException("Unknown output stamp type");
+      }
+    }
+  }
+}
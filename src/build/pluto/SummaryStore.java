@@ -0,0 +1,44 @@
+package build.pluto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import build.pluto.stamp.Stamper;
+
+/**
+ * Stores the serialized summaries of {@link PersistableEntity}s by their
+ * persistent paths (see {@link PersistableEntity#setSummaryStore(SummaryStore)}).
+ * By default, each summary is a file at its persistent path (see
+ * {@link FileSummaryStore}).
+ */
+public interface SummaryStore {
+
+  /**
+   * @return true if a summary is stored for the given persistent path.
+   */
+  public boolean contains(File p);
+
+  /**
+   * @return the summary stored for the given persistent path, or null if there
+   *         is none.
+   */
+  public InputStream read(File p) throws IOException;
+
+  public void write(File p, byte[] summary) throws IOException;
+
+  public void delete(File p) throws IOException;
+
+  /**
+   * @return the stamper which stamps the version of the summaries in this
+   *         store, given the stamper requested by the entity. A summary has
+   *         changed if its stamp changed.
+   */
+  public Stamper versionStamper(Stamper stamper);
+
+  /**
+   * Makes all written summaries durable. Called when the last running build
+   * of this process ended.
+   */
+  public void flush() throws IOException;
+}
@@ -0,0 +1,355 @@
+package build.pluto;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sugarj.common.Log;
+
+import build.pluto.builder.Builder;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.Stamper;
+import build.pluto.stamp.ValueStamp;
+
+/**
+ * Writes summaries to another store in the background, such that builders do
+ * not wait for the summaries of their units to be written. Queued summaries
+ * are read from memory.
+ *
+ * The writer takes all queued summaries at once. Before any of them is
+ * written, their paths are appended to a journal and the journal is synced.
+ * Then the generated files of the units (see
+ * {@link #syncBefore(File, Collection)}) and the summaries are synced and the
+ * journal is truncated. If the process dies in between, the next store on the
+ * same journal deletes the summaries listed in it, such that their units are
+ * rebuilt. Hence a summary never claims consistency with generated files
+ * which were not synced.
+ *
+ * Summaries are versioned by a counter of the store while they are queued,
+ * and thereafter as long as the other store keeps the written version. Beyond
+ * a number of versions, the least recently used versions of written summaries
+ * are dropped, and the summaries are stamped by the other store again. Units
+ * which recorded a dropped version are rebuilt by their next build.
+ */
+public class WriteBehindSummaryStore implements SummaryStore, AutoCloseable {
+
+  public static final int DEFAULT_MAX_VERSIONS = 1 << 16;
+
+  /**
+   * Stamps summaries by their version in the current summary store, or by the
+   * given stamper if the current store does not know the summary.
+   */
+  public static class VersionStamper implements Stamper {
+    private static final long serialVersionUID = 2286517916446436591L;
+
+    private final Stamper stamper;
+
+    public VersionStamper(Stamper stamper) {
+      this.stamper = stamper;
+    }
+
+    @Override
+    public Stamp stampOf(File p) {
+      SummaryStore store = PersistableEntity.getSummaryStore();
+      if (store instanceof WriteBehindSummaryStore) {
+        Long version = ((WriteBehindSummaryStore) store).version(p, stamper);
+        if (version != null)
+          return new ValueStamp<>(this, version);
+      }
+      return stamper.stampOf(p);
+    }
+  }
+
+  private static class Version {
+    // Negative, such that versions differ from the stamps of the other store
+    final long version;
+    boolean written;
+    Stamp writtenStamp;
+
+    Version(long version) {
+      this.version = version;
+    }
+  }
+
+  private final SummaryStore store;
+  private final FileChannel journal;
+  private final int maxVersions;
+  private final Object writeLock = new Object();
+  private final Thread writer;
+
+  // guarded by this
+  private long version;
+  private final Map<String, byte[]> queued = new LinkedHashMap<>();
+  private final Map<String, Collection<File>> outputs = new HashMap<>();
+  private final Map<String, Version> versions = new LinkedHashMap<>(16, 0.75f, true);
+  private IOException failure;
+  private boolean closed;
+
+  /**
+   * Writes summaries to files, with the journal in {@link Builder#PLUTO_HOME}.
+   */
+  public WriteBehindSummaryStore() throws IOException {
+    this(FileSummaryStore.instance, new File(Builder.PLUTO_HOME, "summaries.journal"));
+  }
+
+  /**
+   * Deletes the summaries of an interrupted write from the given store, as
+   * recorded by the given journal.
+   */
+  public WriteBehindSummaryStore(SummaryStore store, File journal) throws IOException {
+    this(store, journal, DEFAULT_MAX_VERSIONS);
+  }
+
+  /**
+   * @param maxVersions
+   *          bound of the number of versions kept for written summaries.
+   */
+  public WriteBehindSummaryStore(SummaryStore store, File journal, int maxVersions) throws IOException {
+    this.store = store;
+    this.maxVersions = maxVersions;
+    Files.createDirectories(journal.getAbsoluteFile().getParentFile().toPath());
+    this.journal = FileChannel.open(journal.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    recover();
+
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeQueued();
+      }
+    }, "pluto summary writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  private void recover() throws IOException {
+    if (journal.size() == 0)
+      return;
+    ByteBuffer bytes = ByteBuffer.allocate((int) journal.size());
+    while (bytes.hasRemaining() && journal.read(bytes, bytes.position()) >= 0)
+      ;
+    String paths = new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8);
+    for (String path : paths.split("\n"))
+      if (!path.isEmpty()) {
+        Log.log.log("Delete summary of interrupted write " + path, Log.CACHING);
+        store.delete(new File(path));
+      }
+    store.flush();
+    journal.truncate(0);
+    journal.force(true);
+  }
+
+  @Override
+  public boolean contains(File p) {
+    String key = key(p);
+    synchronized (this) {
+      if (queued.containsKey(key))
+        return queued.get(key) != null;
+    }
+    return store.contains(p);
+  }
+
+  @Override
+  public InputStream read(File p) throws IOException {
+    String key = key(p);
+    synchronized (this) {
+      if (queued.containsKey(key)) {
+        byte[] summary = queued.get(key);
+        return summary == null ? null : new ByteArrayInputStream(summary);
+      }
+    }
+    return store.read(p);
+  }
+
+  @Override
+  public void write(File p, byte[] summary) throws IOException {
+    enqueue(key(p), summary);
+  }
+
+  @Override
+  public void delete(File p) throws IOException {
+    enqueue(key(p), null);
+  }
+
+  private synchronized void enqueue(String key, byte[] summary) {
+    queued.put(key, summary);
+    versions.put(key, new Version(--version));
+    notifyAll();
+  }
+
+  /**
+   * Syncs the given generated files before the next summary written to the
+   * given path is written.
+   */
+  public synchronized void syncBefore(File p, Collection<File> generatedFiles) {
+    outputs.put(key(p), generatedFiles);
+  }
+
+  private Long version(File p, Stamper stamper) {
+    String key = key(p);
+    while (true) {
+      Version v;
+      synchronized (this) {
+        v = versions.get(key);
+        if (v == null)
+          return null;
+        if (!v.written)
+          return v.version;
+      }
+
+      // Stamp without holding the store, such that enqueueing summaries does
+      // not wait for the file system
+      Stamp stamp = stamper.stampOf(p);
+      synchronized (this) {
+        // Retry if the summary was queued again in the meantime
+        if (versions.get(key) != v)
+          continue;
+        if (v.writtenStamp == null)
+          v.writtenStamp = stamp;
+        return v.writtenStamp.equals(stamp) ? v.version : null;
+      }
+    }
+  }
+
+  /**
+   * Drops the least recently used versions of written summaries beyond
+   * {@link #maxVersions}. Versions of queued summaries are kept.
+   */
+  private void evictVersions() {
+    Iterator<Version> it = versions.values().iterator();
+    while (versions.size() > maxVersions && it.hasNext())
+      if (it.next().written)
+        it.remove();
+  }
+
+  @Override
+  public Stamper versionStamper(Stamper stamper) {
+    return new VersionStamper(store.versionStamper(stamper));
+  }
+
+  /**
+   * Writes and syncs all queued summaries.
+   */
+  @Override
+  public void flush() throws IOException {
+    synchronized (this) {
+      failure = null;
+    }
+    while (writeBatch())
+      ;
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+    synchronized (writeLock) {
+      journal.close();
+    }
+  }
+
+  private void writeQueued() {
+    while (true) {
+      synchronized (this) {
+        while (!closed && (queued.isEmpty() || failure != null))
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        if (closed)
+          return;
+      }
+      try {
+        writeBatch();
+      } catch (IOException e) {
+        Log.log.logErr("Could not write build summaries: " + e.getMessage(), Log.CACHING);
+        synchronized (this) {
+          // Retried by the next flush
+          failure = e;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return false if no summaries were queued.
+   */
+  private boolean writeBatch() throws IOException {
+    synchronized (writeLock) {
+      Map<String, byte[]> batch;
+      Map<String, Collection<File>> batchOutputs = new HashMap<>();
+      synchronized (this) {
+        if (queued.isEmpty())
+          return false;
+        batch = new LinkedHashMap<>(queued);
+        for (String key : batch.keySet())
+          if (outputs.containsKey(key))
+            batchOutputs.put(key, outputs.get(key));
+      }
+
+      StringBuilder paths = new StringBuilder();
+      for (String key : batch.keySet())
+        paths.append(key).append('\n');
+      journal.write(ByteBuffer.wrap(paths.toString().getBytes(StandardCharsets.UTF_8)), journal.size());
+      journal.force(true);
+
+      for (Collection<File> files : batchOutputs.values())
+        for (File f : files)
+          sync(f);
+      for (Map.Entry<String, byte[]> e : batch.entrySet()) {
+        File p = new File(e.getKey());
+        if (e.getValue() == null)
+          store.delete(p);
+        else {
+          store.write(p, e.getValue());
+          if (store instanceof FileSummaryStore)
+            sync(p);
+        }
+      }
+      store.flush();
+
+      journal.truncate(0);
+      journal.force(true);
+
+      synchronized (this) {
+        for (Map.Entry<String, byte[]> e : batch.entrySet())
+          // Summaries queued again in the meantime stay queued
+          if (queued.get(e.getKey()) == e.getValue()) {
+            queued.remove(e.getKey());
+            outputs.remove(e.getKey(), batchOutputs.get(e.getKey()));
+            versions.get(e.getKey()).written = true;
+          }
+        evictVersions();
+      }
+      return true;
+    }
+  }
+
+  private static void sync(File f) {
+    if (!f.isFile())
+      return;
+    try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      ch.force(true);
+    } catch (IOException e) {
+      Log.log.logErr("Could not sync " + f + ": " + e.getMessage(), Log.CACHING);
+    }
+  }
+
+  private static String key(File p) {
+    return p.getAbsolutePath();
+  }
+}
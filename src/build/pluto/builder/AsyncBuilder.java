@@ -0,0 +1,59 @@
+package build.pluto.builder;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import build.pluto.output.Output;
+
+/**
+ * A builder whose build step completes asynchronously, for example because it
+ * waits for an external process or a download. The build step starts the work
+ * and returns a future of the output, typically composed of the futures
+ * returned by {@link #requireBuildAsync(BuildRequest)}. The build manager
+ * writes the build unit once the future completed. Callbacks which declare
+ * requirements or provisions must not run concurrently with each other.
+ *
+ * The thread that executes the builder waits for the future, because
+ * the build manager keeps the call stacks of a build on its threads. In a
+ * parallel build, the pool starts another worker for a waiting builder, up to
+ * {@link BuildManager#MAX_COMPENSATED_WAITS} builders at a time, such that
+ * further strands continue while the builder waits. Beyond that bound, waiting
+ * builders occupy workers of the pool.
+ *
+ * @param <In>
+ *          the type of the builder input
+ * @param <Out>
+ *          the type of the builder output
+ */
+public abstract class AsyncBuilder<In extends Serializable, Out extends Output> extends Builder<In, Out> {
+
+  public AsyncBuilder(In input) {
+    super(input);
+  }
+
+  /**
+   * Starts the build action for the input of the builder. Requirements and
+   * provisions may be declared until the returned future completes. If the
+   * future completes exceptionally, the build is regarded as failed.
+   *
+   * @return the future result of building.
+   * @throws Throwable
+   *           any exception raised when starting the build to fail the build
+   */
+  protected abstract CompletableFuture<Out> buildAsync(In input) throws Throwable;
+
+  @Override
+  protected final Out build(In input) throws Throwable {
+    CompletableFuture<Out> future = buildAsync(input);
+    try {
+      return manager.await(future);
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.util.IReporting.BuildReason;
+
+/**
+ * Collects the inconsistent requests of {@link BatchBuilder}s which are
+ * required together by {@link BuildUnitProvider#requireAll(List, boolean)},
+ * such that their builders are executed by a single batch. While a batch
+ * collects, the build manager checks its requests as usual, but defers the
+ * execution of their builders. Requests of the same factory, which are required
+ * transitively while checking the batch, are not deferred.
+ *
+ * Consecutive requirements of a unit on requests of the same batch builder
+ * factory are checked as a batch as well, since they usually stem from a
+ * single fan-out of the builder of the unit.
+ */
+class Batch {
+
+  static class Member {
+    final BuildRequest<?, ?, ?, ?> req;
+    final BatchBuilder<?, ?> builder;
+    final File dep;
+    final Set<BuildReason> reasons;
+
+    BuildStrands.Claim claim;
+    InFlightBuilds.Flight flight;
+    UnitLeases.Lease lease;
+
+    private Member(BuildRequest<?, ?, ?, ?> req, BatchBuilder<?, ?> builder, File dep, Set<BuildReason> reasons) {
+      this.req = req;
+      this.builder = builder;
+      this.dep = dep;
+      this.reasons = reasons;
+    }
+  }
+
+  private static final Map<BuilderFactory<?, ?, ?>, Boolean> batchFactories = new ConcurrentHashMap<>();
+
+  private final Set<BuildRequest<?, ?, ?, ?>> reqs = Collections.newSetFromMap(new IdentityHashMap<BuildRequest<?, ?, ?, ?>, Boolean>());
+  private final int depth;
+  private final List<Member> deferred = new ArrayList<>();
+  private final Set<File> deferredDeps = new HashSet<>();
+
+  /**
+   * @param depth
+   *          the depth of the require stack from which the requests of the
+   *          batch are required.
+   */
+  Batch(List<? extends BuildRequest<?, ?, ?, ?>> reqs, int depth) {
+    this.reqs.addAll(reqs);
+    this.depth = depth;
+  }
+
+  /**
+   * @return the indices of the requests of batch builders, grouped by factory.
+   *         Only groups of at least two requests are returned.
+   */
+  static List<List<Integer>> groups(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    Map<BuilderFactory<?, ?, ?>, List<Integer>> groups = new LinkedHashMap<>();
+    for (int i = 0; i < reqs.size(); i++) {
+      BuildRequest<?, ?, ?, ?> req = reqs.get(i);
+      if (!isBatched(req))
+        continue;
+      List<Integer> group = groups.get(req.factory);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(req.factory, group);
+      }
+      group.add(i);
+    }
+
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> group : groups.values())
+      if (group.size() > 1)
+        result.add(group);
+    return result;
+  }
+
+  /**
+   * @return the end of the run of requirements on requests of the same batch
+   *         builder factory, which starts at the given index, or the given
+   *         index if no such run of at least two requirements starts there.
+   */
+  static int runEnd(List<Requirement> reqs, int start) {
+    BuildRequest<?, ?, ?, ?> first = requestOf(reqs.get(start));
+    if (first == null || !isBatched(first))
+      return start;
+    int end = start + 1;
+    while (end < reqs.size()) {
+      BuildRequest<?, ?, ?, ?> req = requestOf(reqs.get(end));
+      if (req == null || !req.factory.equals(first.factory))
+        break;
+      end++;
+    }
+    return end - start > 1 ? end : start;
+  }
+
+  static BuildRequest<?, ?, ?, ?> requestOf(Requirement req) {
+    return req instanceof BuildRequirement<?> ? ((BuildRequirement<?>) req).getRequest() : null;
+  }
+
+  /**
+   * @return true if the builders of the given request are batch builders.
+   */
+  static boolean isBatched(BuildRequest<?, ?, ?, ?> req) {
+    Boolean batched = batchFactories.get(req.factory);
+    if (batched == null) {
+      batched = req.createBuilder() instanceof BatchBuilder<?, ?>;
+      batchFactories.put(req.factory, batched);
+    }
+    return batched;
+  }
+
+  /**
+   * Defers the execution of the given builder if its request belongs to this
+   * batch and is required directly.
+   *
+   * @param depth
+   *          the depth of the require stack including the given request.
+   * @return true if the builder was deferred.
+   */
+  boolean defer(BuildRequest<?, ?, ?, ?> req, Builder<?, ?> builder, File dep, Set<BuildReason> reasons, int depth) {
+    if (depth != this.depth + 1 || !(builder instanceof BatchBuilder<?, ?>) || !reqs.contains(req))
+      return false;
+    // A request which occurs twice is not deferred twice
+    if (!deferredDeps.add(dep.getAbsoluteFile()))
+      return false;
+    deferred.add(new Member(req, (BatchBuilder<?, ?>) builder, dep, reasons));
+    return true;
+  }
+
+  List<Member> getDeferred() {
+    return deferred;
+  }
+}
@@ -0,0 +1,99 @@
+package build.pluto.builder;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import build.pluto.BuildUnit;
+import build.pluto.dependency.Origin;
+import build.pluto.output.Output;
+import build.pluto.util.IReporting.BuildReason;
+
+/**
+ * A builder which builds many inputs of its factory at once, for example a
+ * compiler which is expensive to start but compiles many files in a single
+ * invocation. If several requests of the same factory are required together
+ * (see {@link Builder#requireBuildAll(Collection)} and
+ * {@link Builder#requireBuild(Origin)}), the build manager collects the
+ * inconsistent ones and builds them by a single call to
+ * {@link #buildBatch(List)}. Each request still gets its own build unit, hence
+ * the requirements and provided files of each input need to be recorded on the
+ * builder of that input (see {@link #member(int)}). A request which is required
+ * on its own is built as batch of one.
+ *
+ * @param <In>
+ *          the type of the builder input
+ * @param <Out>
+ *          the type of the builder output
+ */
+public abstract class BatchBuilder<In extends Serializable, Out extends Output> extends Builder<In, Out> {
+
+  private transient List<? extends BatchBuilder<In, Out>> batch;
+
+  public BatchBuilder(In input) {
+    super(input);
+  }
+
+  /**
+   * Builds all given inputs at once. The requirements and provided files of
+   * the input at index i must be recorded on {@code member(i)}.
+   *
+   * @return the outputs of the inputs in the order of the inputs
+   * @throws Throwable
+   *           any exception raised during the build to fail the builds of all
+   *           inputs
+   */
+  protected abstract List<Out> buildBatch(List<In> inputs) throws Throwable;
+
+  /**
+   * @return the builder of the input at the given index of the current batch,
+   *         which records the requirements of that input.
+   */
+  protected Builder<In, Out> member(int index) {
+    return batch.get(index);
+  }
+
+  @Override
+  protected final Out build(In input) throws Throwable {
+    return runBatch(Collections.singletonList(this)).get(0);
+  }
+
+  private List<Out> runBatch(List<? extends BatchBuilder<In, Out>> batch) throws Throwable {
+    List<In> inputs = new ArrayList<>(batch.size());
+    for (BatchBuilder<In, Out> builder : batch)
+      inputs.add(builder.getInput());
+
+    this.batch = batch;
+    try {
+      List<Out> outs = buildBatch(inputs);
+      if (outs.size() != inputs.size())
+        throw new AssertionError("buildBatch needs to return one output for one input, but was " + outs);
+      return outs;
+    } finally {
+      this.batch = null;
+    }
+  }
+
+  /**
+   * Builds the given builders by a single call of {@link #buildBatch(List)} on
+   * the first builder, recording the requirements of each builder in the
+   * corresponding result.
+   */
+  static <In extends Serializable, Out extends Output> List<Out> triggerBatch(List<? extends BatchBuilder<In, Out>> batch, List<BuildUnit<Out>> results, BuildUnitProvider manager, List<BuildUnit<Out>> previousResults, List<Set<BuildReason>> reasons) throws Throwable {
+    try {
+      for (int i = 0; i < batch.size(); i++)
+        batch.get(i).prepareBuild(results.get(i), manager, previousResults.get(i), reasons.get(i));
+      BatchBuilder<In, Out> first = batch.get(0);
+      List<Out> outs = first.runBatch(batch);
+      for (BatchBuilder<In, Out> builder : batch)
+        builder.recordAsyncRequirements();
+      return outs;
+    } finally {
+      for (BatchBuilder<In, Out> builder : batch)
+        builder.cleanUpBuild();
+    }
+  }
+}
@@ -17,6 +17,7 @@ import build.pluto.dependency.Origin;
 import build.pluto.output.Output;
 import build.pluto.output.OutputStamper;
 import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
 
 public abstract class BuildCycleAtOnceBuilder<In extends Serializable, Out extends Output> extends Builder<ArrayList<In>, Out> {
 
@@ -52,7 +53,7 @@ public abstract class BuildCycleAtOnceBuilder<In extends Serializable, Out exten
   @Override
   public void require(File p) {
     for (BuildUnit<Out> result : cyclicResults) {
-      result.requires(p, defaultStamper().stampOf(p));
+      result.requires(p, StampCache.stampOf(defaultStamper(), p));
     }
   }
 
@@ -111,6 +112,7 @@ public abstract class BuildCycleAtOnceBuilder<In extends Serializable, Out exten
   public void provide(In input, File p) {
     for (int i = 0; i < this.getInput().size(); i++) {
       if (this.getInput().get(i) == input) {
+        StampCache.invalidate(p);
         this.cyclicResults.get(i).generates(p, defaultStamper().stampOf(p));
         break;
       }
@@ -4,10 +4,20 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.channels.ClosedByInterruptException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.sugarj.common.Exec;
 
@@ -16,38 +26,179 @@ import com.cedarsoftware.util.DeepEquals;
 import build.pluto.BuildUnit;
 import build.pluto.BuildUnit.InconsistenyReason;
 import build.pluto.BuildUnit.State;
+import build.pluto.PersistableEntity;
 import build.pluto.builder.BuildCycleException.CycleState;
 import build.pluto.builder.factory.BuilderFactory;
 import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
 import build.pluto.dependency.Requirement;
+import build.pluto.dependency.database.MemoryDatabase;
 import build.pluto.dependency.database.MultiMapDatabase;
 import build.pluto.dependency.database.XodusDatabase;
 import build.pluto.output.Output;
+import build.pluto.stamp.FileChangeJournal;
+import build.pluto.stamp.StampCache;
+import build.pluto.stamp.Stamper;
 import build.pluto.util.IReporting;
 import build.pluto.util.IReporting.BuildReason;
 
 public class BuildManager extends BuildUnitProvider implements AutoCloseable {
   public static boolean ASSERT_SERIALIZABLE = false;
 
+  /**
+   * Number of threads used to require independent build requests (see
+   * {@link #requireAll(List, boolean)}) by new build managers. A parallelism
+   * of 1 requires them sequentially.
+   */
+  public static int DEFAULT_PARALLELISM = 1;
+
+  /**
+   * Whether successful initial builds write a {@link NoOpManifest}, which
+   * {@link #requireInitiallyResult(BuildRequest)} checks before reading any
+   * build unit.
+   */
+  public static boolean NO_OP_MANIFESTS = true;
+
+  /**
+   * Number of nested require calls executed on the stack of a single thread.
+   * Deeper require calls continue on a fresh thread (see {@link StackHops}),
+   * such that long chains of dependencies do not overflow the stack.
+   */
+  public static int MAX_NESTED_REQUIRES = 100;
+
+  /**
+   * Requested stack size in bytes of threads that continue deeply nested
+   * require calls, or 0 for the default stack size of the platform.
+   */
+  public static long HOP_STACK_SIZE = 8 << 20;
+
+  /**
+   * If true, a build waits while another process executes the builder of the
+   * same unit and then reuses its summary if it is consistent. Processes
+   * coordinate via advisory locks on {@code <persistentPath>.lock} files,
+   * which exist while a builder executes (see {@link UnitLeases}).
+   */
+  public static boolean CROSS_PROCESS_LOCKS = false;
+
+  /**
+   * If true and the parallelism is larger than 1, a builder which is executed
+   * again starts to require the units it required previously in the
+   * background, such that their results are ready when the builder requires
+   * them (see {@link BuildStrands#speculate(List)}).
+   */
+  public static boolean SPECULATIVE_PREBUILDS = false;
+
+  /**
+   * If true, independent requests which are required in parallel are started
+   * longest critical path first, as estimated from the
+   * {@link build.pluto.util.TraceData} of their previous builds.
+   */
+  public static boolean CRITICAL_PATH_SCHEDULING = true;
+
+  /**
+   * Number of file requirements of a unit from which they are stamped
+   * concurrently before the requirements are checked in order (see
+   * {@link StampCache#prestamp(List, List)}), or 0 to never stamp them up
+   * front.
+   */
+  public static int PRESTAMP_THRESHOLD = 64;
+
+  /**
+   * If true, a file which a builder provides with the same content as in its
+   * previous build keeps its previous modification time, such that units
+   * which require it by last-modified stamp are not rebuilt (see
+   * {@link Restat}).
+   */
+  public static boolean RESTAT_GENERATED_FILES = false;
+
+  /**
+   * If true, a build does not stop at the first failed unit, but still
+   * requires all units which are independent of it: the other requests
+   * required together with it (see {@link #requireAll(List, boolean)}) and the
+   * other requirements of a unit whose requirement failed. Units which depend
+   * on a failed unit are skipped. All failures are reported when the build
+   * ends (see {@link #getFailures()}).
+   */
+  public static boolean KEEP_GOING = false;
+
+  /**
+   * If true, build summaries are written deflated. Summaries are read
+   * regardless of this flag.
+   */
+  public static boolean COMPRESS_SUMMARIES = false;
+
+  /**
+   * Number of threads of a parallel build which may wait for asynchronous
+   * builders at the same time while the pool starts a worker in their place
+   * (see {@link BuildStrands#await(CompletableFuture)}). Further threads wait
+   * without a replacement. The default matches the spare threads of the
+   * common {@link java.util.concurrent.ForkJoinPool}.
+   */
+  public static int MAX_COMPENSATED_WAITS = 256;
+
   private ExecutingStack executingStack;
   private transient RequireStack requireStack;
-
-  private static Map<Thread, Long> requireInitiallyTimestamps = new HashMap<>();
+  private BuildStrands strands;
+  private final StackHops stackHops;
+
+  /**
+   * The batch collecting the inconsistent requests of batch builders, which
+   * the current thread requires together, or null.
+   */
+  private final ThreadLocal<Batch> batches = new ThreadLocal<>();
+
+  /**
+   * The failures of the current or last build by the persistent path of the
+   * failed unit.
+   */
+  private final Map<File, RequiredBuilderFailed> failures = Collections.synchronizedMap(new LinkedHashMap<File, RequiredBuilderFailed>());
+
+  /**
+   * Persistent paths of the units which may be inconsistent during a
+   * change-driven build (see {@link #requireChanged(Collection)}), or null
+   * during a regular build.
+   */
+  private volatile Set<File> changeScope;
+
+  private static Map<Thread, Long> requireInitiallyTimestamps = new ConcurrentHashMap<>();
+
+  /**
+   * Number of initial builds running concurrently in this process.
+   */
+  private static final AtomicInteger runningBuilds = new AtomicInteger();
 
   public BuildManager(IReporting report) {
     this(report, "shared");
   }
 
   public BuildManager(IReporting report, String path) {
-    super(report, new DynamicAnalysis(report, XodusDatabase.createFileDatabase(path)));
+    super(report, new DynamicAnalysis(report, XodusDatabase.createFileDatabase(path), XodusDatabase.createFileDatabase(path + ".requiredBy")));
     this.executingStack = new ExecutingStack();
     this.requireStack = new RequireStack();
+    this.stackHops = new StackHops(this, requireStack, executingStack);
+    setParallelism(DEFAULT_PARALLELISM);
   }
 
   public BuildManager(IReporting report, MultiMapDatabase<File, File> genBy) {
-    super(report, new DynamicAnalysis(report, genBy));
+    this(report, genBy, new MemoryDatabase<File, File>());
+  }
+
+  public BuildManager(IReporting report, MultiMapDatabase<File, File> genBy, MultiMapDatabase<File, File> requiredBy) {
+    super(report, new DynamicAnalysis(report, genBy, requiredBy));
     this.executingStack = new ExecutingStack();
     this.requireStack = new RequireStack();
+    this.stackHops = new StackHops(this, requireStack, executingStack);
+    setParallelism(DEFAULT_PARALLELISM);
+  }
+
+  /**
+   * Sets the number of threads used to require independent build requests.
+   * Must not be called during a build.
+   */
+  public void setParallelism(int parallelism) {
+    if (strands != null)
+      strands.close();
+    strands = parallelism > 1 ? new BuildStrands(this, requireStack, executingStack, parallelism) : null;
   }
 
   private <Out extends Output> void checkInterrupt(boolean duringRequire, File dep, BuildUnit<Out> depResult, BuildRequest<?, Out, ?, ?> buildReq) throws IOException {
@@ -92,10 +243,12 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
     depResult.setState(BuildUnit.State.IN_PROGESS);
     boolean regularFinish = false;
 
+    BuildStrands.Speculation speculation = speculate(previousDepResult);
+
     try {
       try {
         // call the actual builder
-        Out out = builder.triggerBuild(depResult, this, previousDepResult);
+        Out out = builder.triggerBuild(depResult, this, previousDepResult, reasons);
         depResult.setBuildResult(out);
         if (!depResult.isFinished())
           depResult.setState(BuildUnit.State.SUCCESS);
@@ -118,9 +271,12 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
 
     } catch (Throwable e) {
       report.canceledBuilderException(buildReq, depResult, e);
-      throw RequiredBuilderFailed.init(new BuildRequirement<Out>(depResult, buildReq), e);
+      throw failed(RequiredBuilderFailed.init(new BuildRequirement<Out>(depResult, buildReq), e));
 
     } finally {
+      if (speculation != null)
+        speculation.discard();
+
       if (!depResult.isFinished())
         depResult.setState(BuildUnit.State.FAILURE);
 
@@ -136,21 +292,328 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
                                                          // never consistent.
         assertConsistency(depResult);
       } finally {
-        report.messageFromSystem("Wrote " + dep, false, 10);
-        depResult.write();
+        if (depResult.writeIfChanged(previousDepResult))
+          report.messageFromSystem("Wrote " + dep, false, 10);
+        else
+          report.messageFromSystem("Kept unchanged " + dep, false, 10);
       }
 
       if (regularFinish && depResult.getState() == BuildUnit.State.SUCCESS)
         report.finishedBuilder(buildReq, depResult);
       else if (regularFinish && depResult.getState() == BuildUnit.State.FAILURE) {
         report.canceledBuilderFailure(buildReq, depResult);
-        throw new RequiredBuilderFailed(new BuildRequirement<Out>(depResult, buildReq), new Error("Builder failed"));
+        throw failed(new RequiredBuilderFailed(new BuildRequirement<Out>(depResult, buildReq), new Error("Builder failed")));
       }
     }
 
     return new BuildRequirement<Out>(depResult, buildReq);
   }
 
+  /**
+   * Executes the given builder, unless the current thread collects a batch
+   * which defers it (see {@link #requireBatch(List, boolean)}). The unit is
+   * leased from other processes while the builder executes (see
+   * {@link #CROSS_PROCESS_LOCKS}).
+   *
+   * @return the requirement of the executed builder, or null if the builder
+   *         was deferred.
+   */
+  //@formatter:off
+  private
+    <In extends Serializable,
+     Out extends Output,
+     B extends Builder<In, Out>,
+     F extends BuilderFactory<In, Out, B>>
+  //@formatter:on
+  BuildRequirement<Out> executeOrDefer(B builder, File dep, BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult, Set<BuildReason> reasons) throws IOException {
+    Batch batch = batches.get();
+    if (batch != null && batch.defer(buildReq, builder, dep, reasons, requireStack.callStack().size()))
+      return null;
+
+    UnitLeases.Lease lease = CROSS_PROCESS_LOCKS ? UnitLeases.acquire(dep) : null;
+    try {
+      if (lease != null && lease.waited()) {
+        // Another process executed the builder meanwhile
+        BuildUnit<Out> depResult = BuildUnit.read(dep);
+        if (isConsistentAfterLease(buildReq, needBuildResult, dep, depResult))
+          return yield(buildReq, builder, depResult);
+      }
+      return executeBuilder(builder, dep, buildReq, reasons);
+    } finally {
+      UnitLeases.release(lease);
+    }
+  }
+
+  private <In extends Serializable, Out extends Output, B extends Builder<In, Out>, F extends BuilderFactory<In, Out, B>> boolean isConsistentAfterLease(BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult, File dep, BuildUnit<Out> depResult) throws IOException {
+    if (depResult == null || !computeLocalBuildReasons(buildReq, needBuildResult, dep, depResult).isEmpty())
+      return false;
+    for (Requirement req : depResult.getRequirements())
+      if (!req.tryMakeConsistent(this))
+        return false;
+    return true;
+  }
+
+  /**
+   * Executes the deferred builders of a batch by a single call of
+   * {@link BatchBuilder#buildBatch(List)}, and otherwise like
+   * {@link #executeBuilder(Builder, File, BuildRequest, Set)}. Members which
+   * became consistent in the meantime are not executed again. If the batch
+   * is part of a cycle, its members are required one at a time instead.
+   *
+   * @return the requirements of the given members in their order.
+   */
+  @SuppressWarnings("unchecked")
+  private <In extends Serializable, Out extends Output> List<BuildRequirement<?>> executeBatch(List<Batch.Member> members, boolean needBuildResult) throws IOException {
+    BuildRequirement<?>[] results = new BuildRequirement<?>[members.size()];
+    int[] indices = new int[members.size()];
+    Arrays.fill(indices, -1);
+    List<BuildRequest<?, Out, ?, ?>> reqs = new ArrayList<>();
+    List<BatchBuilder<In, Out>> builders = new ArrayList<>();
+    List<File> deps = new ArrayList<>();
+    List<Set<BuildReason>> reasons = new ArrayList<>();
+    List<BuildUnit<Out>> units = new ArrayList<>();
+    List<BuildUnit<Out>> previousUnits = new ArrayList<>();
+    List<Integer> inputHashes = new ArrayList<>();
+
+    boolean cyclic = false;
+    int executing = 0;
+    try {
+      // Wait until no other strand or build manager requires the members
+      for (int m = 0; m < members.size(); m++) {
+        Batch.Member member = members.get(m);
+        if (strands != null) {
+          member.claim = strands.acquire(member.req);
+          if (member.claim.getCycle() != null) {
+            cyclic = true;
+            break;
+          }
+        }
+        member.flight = InFlightBuilds.acquire(this, member.dep);
+        if (requireStack.isConsistent(member.req))
+          continue;
+        if (CROSS_PROCESS_LOCKS) {
+          member.lease = UnitLeases.acquire(member.dep);
+          // Another process executed the builder meanwhile, the member is
+          // checked again when required alone
+          if (member.lease != null && member.lease.waited()) {
+            UnitLeases.release(member.lease);
+            member.lease = null;
+            continue;
+          }
+        }
+        indices[m] = reqs.size();
+        reqs.add((BuildRequest<?, Out, ?, ?>) member.req);
+        builders.add((BatchBuilder<In, Out>) member.builder);
+        deps.add(member.dep);
+        reasons.add(member.reasons);
+      }
+
+      for (int i = 0; !cyclic && i < reqs.size(); i++) {
+        requireStack.beginRebuild(reqs.get(i), reasons.get(i));
+        BuildUnit<Out> depResult = BuildUnit.read(deps.get(i));
+        previousUnits.add(depResult == null ? null : depResult.clone());
+        dynamicAnalysis.reset(depResult);
+        report.startedBuilder(reqs.get(i), builders.get(i), depResult, reasons.get(i));
+
+        depResult = BuildUnit.create(deps.get(i), reqs.get(i));
+        setUpMetaDependency(builders.get(i), depResult);
+        units.add(depResult);
+        inputHashes.add(DeepEquals.deepHashCode(builders.get(i).getInput()));
+        depResult.setState(BuildUnit.State.IN_PROGESS);
+      }
+
+      if (!cyclic && !reqs.isEmpty())
+        cyclic = !executeBatchBuilders(reqs, builders, deps, units, previousUnits, reasons, inputHashes);
+    } finally {
+      for (Batch.Member member : members) {
+        if (member.claim != null)
+          member.claim.release();
+        UnitLeases.release(member.lease);
+        InFlightBuilds.release(member.dep, member.flight);
+        member.claim = null;
+        member.flight = null;
+        member.lease = null;
+      }
+    }
+
+    for (int i = 0; i < members.size(); i++) {
+      int index = indices[i];
+      if (cyclic || index < 0)
+        results[i] = require(members.get(i).req, needBuildResult);
+      else
+        results[i] = new BuildRequirement<>(units.get(index), reqs.get(index));
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * @return false if the batch was stopped by a cycle, such that its members
+   *         need to be required one at a time.
+   */
+  private <In extends Serializable, Out extends Output> boolean executeBatchBuilders(List<BuildRequest<?, Out, ?, ?>> reqs, List<BatchBuilder<In, Out>> builders, List<File> deps, List<BuildUnit<Out>> units, List<BuildUnit<Out>> previousUnits, List<Set<BuildReason>> reasons, List<Integer> inputHashes) throws IOException {
+    int pushed = 0;
+    boolean regularFinish = false;
+    BuildCycleException cycle = null;
+    try {
+      for (BuildRequest<?, Out, ?, ?> req : reqs) {
+        this.executingStack.push(req);
+        pushed++;
+      }
+
+      List<Out> outs = BatchBuilder.triggerBatch(builders, units, this, previousUnits, reasons);
+      for (int i = 0; i < units.size(); i++) {
+        units.get(i).setBuildResult(outs.get(i));
+        if (!units.get(i).isFinished())
+          units.get(i).setState(BuildUnit.State.SUCCESS);
+      }
+      regularFinish = true;
+    } catch (BuildCycleException e) {
+      for (int i = 0; i < reqs.size(); i++)
+        report.canceledBuilderCycle(reqs.get(i), units.get(i), e);
+      cycle = e;
+
+    } catch (RequiredBuilderFailed e) {
+      for (int i = 0; i < reqs.size(); i++)
+        report.canceledBuilderRequiredBuilderFailed(reqs.get(i), units.get(i), e);
+      // The member which required the failed build is skipped, the other
+      // members failed because the batch was aborted
+      int failed = failedMember(builders, e);
+      for (int i = 0; i < reqs.size(); i++)
+        if (i != failed)
+          failed(RequiredBuilderFailed.init(new BuildRequirement<Out>(units.get(i), reqs.get(i)), e));
+      throw e.enqueueBuilder(units.get(failed), reqs.get(failed));
+
+    } catch (ClosedByInterruptException e) {
+      if (!Thread.currentThread().isInterrupted())
+        Thread.interrupted();
+      // triggers regular interrupt handler below
+
+    } catch (Throwable e) {
+      RequiredBuilderFailed failure = null;
+      for (int i = 0; i < reqs.size(); i++) {
+        report.canceledBuilderException(reqs.get(i), units.get(i), e);
+        RequiredBuilderFailed memberFailure = failed(RequiredBuilderFailed.init(new BuildRequirement<Out>(units.get(i), reqs.get(i)), e));
+        if (failure == null)
+          failure = memberFailure;
+      }
+      throw failure;
+
+    } finally {
+      while (pushed > 0)
+        this.executingStack.pop(reqs.get(--pushed));
+
+      // The members of a cyclic batch are rebuilt one at a time, keep their
+      // previous units
+      if (cycle == null)
+        finishBatch(reqs, deps, units, previousUnits, inputHashes);
+    }
+
+    if (cycle != null)
+      return false;
+
+    for (int i = 0; i < reqs.size(); i++)
+      if (regularFinish && units.get(i).getState() == BuildUnit.State.SUCCESS)
+        report.finishedBuilder(reqs.get(i), units.get(i));
+    RequiredBuilderFailed failure = null;
+    for (int i = 0; i < reqs.size(); i++)
+      if (regularFinish && units.get(i).getState() == BuildUnit.State.FAILURE) {
+        report.canceledBuilderFailure(reqs.get(i), units.get(i));
+        RequiredBuilderFailed e = failed(new RequiredBuilderFailed(new BuildRequirement<Out>(units.get(i), reqs.get(i)), new Error("Builder failed")));
+        if (failure == null)
+          failure = e;
+      }
+    if (failure != null)
+      throw failure;
+    return true;
+  }
+
+  /**
+   * @return the index of the batch member which required the failed build,
+   *         found by the request each member required last.
+   */
+  private static int failedMember(List<? extends Builder<?, ?>> builders, RequiredBuilderFailed e) {
+    BuildRequest<?, ?, ?, ?> failed = e.getLastAddedBuilder().getRequest();
+    for (int i = 0; i < builders.size(); i++)
+      if (builders.get(i).lastBuildReq() == failed)
+        return i;
+    for (int i = 0; i < builders.size(); i++)
+      if (failed != null && failed.equals(builders.get(i).lastBuildReq()))
+        return i;
+    return 0;
+  }
+
+  private <Out extends Output> void finishBatch(List<BuildRequest<?, Out, ?, ?>> reqs, List<File> deps, List<BuildUnit<Out>> units, List<BuildUnit<Out>> previousUnits, List<Integer> inputHashes) throws IOException {
+    boolean interrupted = Thread.currentThread().isInterrupted();
+    Throwable failure = null;
+    for (int i = 0; i < reqs.size(); i++) {
+      BuildUnit<Out> depResult = units.get(i);
+      if (!depResult.isFinished())
+        depResult.setState(BuildUnit.State.FAILURE);
+      this.requireStack.finishRebuild(reqs.get(i));
+
+      try {
+        dynamicAnalysis.check(depResult, inputHashes.get(i));
+        // Each unit of an interrupted batch is canceled
+        if (interrupted)
+          Thread.currentThread().interrupt();
+        checkInterrupt(false, deps.get(i), depResult, reqs.get(i));
+        assertConsistency(depResult);
+      } catch (IOException | RuntimeException | Error e) {
+        if (failure == null)
+          failure = e;
+      } finally {
+        if (depResult.writeIfChanged(previousUnits.get(i)))
+          report.messageFromSystem("Wrote " + deps.get(i), false, 10);
+        else
+          report.messageFromSystem("Kept unchanged " + deps.get(i), false, 10);
+      }
+    }
+
+    if (failure instanceof IOException)
+      throw (IOException) failure;
+    else if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    else if (failure != null)
+      throw (Error) failure;
+  }
+
+  /**
+   * Stamps the required files of the given unit concurrently, such that the
+   * ordered check of its requirements finds their stamps in the cache. Files
+   * that are provided by a builder executed during the check are invalidated
+   * and stamped again.
+   */
+  private void prestamp(BuildUnit<?> unit) {
+    if (PRESTAMP_THRESHOLD <= 0)
+      return;
+    List<File> files = new ArrayList<>();
+    List<Stamper> stampers = new ArrayList<>();
+    for (Requirement req : unit.getRequirements())
+      if (req instanceof FileRequirement) {
+        files.add(((FileRequirement) req).file);
+        stampers.add(((FileRequirement) req).stamp.getStamper());
+      }
+    if (files.size() >= PRESTAMP_THRESHOLD)
+      StampCache.prestamp(files, stampers);
+  }
+
+  /**
+   * Starts to require the units required by the previous build of a unit
+   * speculatively, or returns null if there are none.
+   */
+  private BuildStrands.Speculation speculate(BuildUnit<?> previousDepResult) {
+    if (!SPECULATIVE_PREBUILDS || strands == null || previousDepResult == null)
+      return null;
+    List<BuildRequest<?, ?, ?, ?>> reqs = new ArrayList<>();
+    for (Requirement req : previousDepResult.getRequirements())
+      if (req instanceof BuildRequirement<?> && ((BuildRequirement<?>) req).getRequest() != null)
+        reqs.add(((BuildRequirement<?>) req).getRequest());
+    if (reqs.isEmpty())
+      return null;
+    report.messageFromSystem("Speculatively require " + reqs.size() + " previous dependencies", false, 7);
+    return strands.speculate(reqs);
+  }
+
   @Override
   protected Throwable tryCompileCycle(BuildCycleException e) {
     // Only try to compile a cycle which is unhandled
@@ -175,6 +638,7 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
       resultUnits = cycleSupport.buildCycle(this);
       for (BuildUnit<?> resultUnit : resultUnits) {
         resultUnit.write();
+        dynamicAnalysis.index(resultUnit);
         this.requireStack.markConsistent(resultUnit.getGeneratedBy());
       }
 
@@ -230,7 +694,7 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
       if (e.getCycleState() != CycleState.RESOLVED) {
         // Cycle cannot be handled
         report.cancelledBuildCycleException(e.getCycle(), null, e);
-        throw new RequiredBuilderFailed(new BuildRequirement<Out>(depResult, buildReq), e);
+        throw failed(new RequiredBuilderFailed(new BuildRequirement<Out>(depResult, buildReq), e));
       } else {
 
         if (this.executingStack.getNumContains(e.getCycleCause()) != 1) {
@@ -254,12 +718,15 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
      F extends BuilderFactory<In, Out, B>>
   //@formatter:on
   BuildUnit<Out> requireInitially(BuildRequest<In, Out, B, F> buildReq) throws Throwable {
+    beginBuild();
+    failures.clear();
     try {
       Thread currentThread = Thread.currentThread();
       long currentTime = System.currentTimeMillis();
       requireInitiallyTimestamps.put(currentThread, currentTime);
       report.messageFromSystem("Incrementally rebuild inconsistent units", false, 0);
       BuildRequirement<Out> result = require(buildReq, true);
+      writeManifest(buildReq, result.getUnit());
       return result.getUnit();
     } catch (RequiredBuilderFailed e) {
       Throwable cause = e.getCause();
@@ -268,7 +735,128 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
       else
         throw e;
     } finally {
+      reportFailures();
+      endBuild();
+    }
+  }
+
+  private void beginBuild() {
+    runningBuilds.incrementAndGet();
+    FileChangeJournal.pollEvents();
+    StampCache.beginSession();
+  }
+
+  private void endBuild() {
+    StampCache.endSession();
+    // Processes, buffered summaries and cached units are shared with other
+    // builds of this process
+    if (runningBuilds.decrementAndGet() == 0) {
       Exec.shutdown();
+      try {
+        PersistableEntity.flushSummaries();
+      } catch (IOException e) {
+        report.messageFromSystem("Could not write build summaries: " + e.getMessage(), true, 0);
+      }
+      PersistableEntity.trimCache();
+    }
+  }
+
+  /**
+   * Returns the result of the given request like
+   * {@link #requireInitially(BuildRequest)}, but first checks the manifest of
+   * the last successful build of the request. If no required, generated or
+   * summary file changed since, the result is returned without reading any
+   * build unit.
+   */
+  //@formatter:off
+  public
+    <In extends Serializable,
+     Out extends Output,
+     B extends Builder<In, Out>,
+     F extends BuilderFactory<In, Out, B>>
+  //@formatter:on
+  Out requireInitiallyResult(BuildRequest<In, Out, B, F> buildReq) throws Throwable {
+    if (NO_OP_MANIFESTS) {
+      NoOpManifest manifest = NoOpManifest.read(NoOpManifest.manifestPath(buildReq));
+      if (manifest != null) {
+        FileChangeJournal.pollEvents();
+        StampCache.beginSession();
+        try {
+          Out result = manifest.upToDateResult(buildReq);
+          if (result != null) {
+            report.messageFromSystem("Build of " + buildReq + " is up to date", false, 0);
+            return result;
+          }
+        } finally {
+          StampCache.endSession();
+        }
+      }
+    }
+    return requireInitially(buildReq).getBuildResult();
+  }
+
+  private void writeManifest(BuildRequest<?, ?, ?, ?> buildReq, BuildUnit<?> root) {
+    if (!NO_OP_MANIFESTS)
+      return;
+    File path = NoOpManifest.manifestPath(buildReq);
+    try {
+      NoOpManifest manifest = NoOpManifest.of(buildReq, root);
+      if (manifest != null)
+        manifest.write(path);
+      else
+        NoOpManifest.delete(path);
+    } catch (IOException e) {
+      report.messageFromSystem("Could not write manifest " + path + ": " + e.getMessage(), true, 0);
+    }
+  }
+
+  /**
+   * Brings all units up to date which may be affected by the given changed
+   * files, without walking the build graph from its roots. The affected units
+   * are looked up in the required-by index of the dynamic analysis: the units
+   * which require or generated a changed file and, transitively, all units
+   * which require an affected unit. Only affected units are checked and
+   * rebuilt; all other units are assumed to be consistent.
+   * 
+   * The index contains all units built or found consistent with the dynamic
+   * analysis of this build manager. Hence, a regular build is necessary
+   * before the first change-driven build.
+   * 
+   * @param changedFiles
+   *          all files which changed since the last build
+   * @return the persistent paths of the affected units
+   */
+  public Set<File> requireChanged(Collection<File> changedFiles) throws Throwable {
+    Set<File> affected = dynamicAnalysis.getAffectedUnits(changedFiles);
+    report.messageFromSystem("Rebuild " + affected.size() + " units affected by " + changedFiles.size() + " changed files", false, 0);
+    changeScope = affected;
+    beginBuild();
+    failures.clear();
+    try {
+      requireInitiallyTimestamps.put(Thread.currentThread(), System.currentTimeMillis());
+      RequiredBuilderFailed failure = null;
+      for (File dep : affected) {
+        BuildUnit<?> unit = BuildUnit.read(dep);
+        if (unit != null && unit.getGeneratedBy() != null)
+          try {
+            require(unit.getGeneratedBy(), false);
+          } catch (RequiredBuilderFailed e) {
+            failure = keepGoing(failure, e);
+          }
+      }
+      if (failure != null)
+        throw failure;
+      return affected;
+    } catch (RequiredBuilderFailed e) {
+      Throwable cause = e.getCause();
+      if (cause != null)
+        throw cause;
+      else
+        throw e;
+    } finally {
+      changeScope = null;
+      reportFailures();
+      endBuild();
     }
   }
 
@@ -277,6 +865,239 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
     return l == null ? 0l : l;
   }
 
+  /**
+   * Sets the starting time of the build for the given thread, used by parallel
+   * build strands.
+   * 
+   * @return the previous starting time of the thread.
+   */
+  static long setStartingTimeOfBuildManager(Thread thread, long time) {
+    Long l = time == 0l ? requireInitiallyTimestamps.remove(thread) : requireInitiallyTimestamps.put(thread, time);
+    return l == null ? 0l : l;
+  }
+
+  /**
+   * Requires all given requests. Inconsistent requests of the same
+   * {@link BatchBuilder} factory are built by a single batch, the other
+   * requests are required in parallel if the parallelism allows.
+   */
+  @Override
+  public List<BuildRequirement<?>> requireAll(List<? extends BuildRequest<?, ?, ?, ?>> buildReqs, boolean needBuildResult) throws IOException {
+    if (buildReqs.size() < 2)
+      return super.requireAll(buildReqs, needBuildResult);
+    List<List<Integer>> groups = Batch.groups(buildReqs);
+    if (groups.isEmpty())
+      return requireUnbatched(buildReqs, needBuildResult);
+
+    BuildRequirement<?>[] reqs = new BuildRequirement<?>[buildReqs.size()];
+    boolean[] batched = new boolean[buildReqs.size()];
+    RequiredBuilderFailed failure = null;
+    for (List<Integer> group : groups) {
+      List<BuildRequest<?, ?, ?, ?>> batchReqs = new ArrayList<>(group.size());
+      for (int i : group) {
+        batchReqs.add(buildReqs.get(i));
+        batched[i] = true;
+      }
+      try {
+        List<BuildRequirement<?>> batchResults = requireBatch(batchReqs, needBuildResult);
+        for (int i = 0; i < group.size(); i++)
+          reqs[group.get(i)] = batchResults.get(i);
+      } catch (RequiredBuilderFailed e) {
+        failure = keepGoing(failure, e);
+      }
+    }
+
+    List<Integer> rest = new ArrayList<>();
+    List<BuildRequest<?, ?, ?, ?>> restReqs = new ArrayList<>();
+    for (int i = 0; i < reqs.length; i++)
+      if (!batched[i]) {
+        rest.add(i);
+        restReqs.add(buildReqs.get(i));
+      }
+    try {
+      List<BuildRequirement<?>> restResults = requireUnbatched(restReqs, needBuildResult);
+      for (int i = 0; i < rest.size(); i++)
+        reqs[rest.get(i)] = restResults.get(i);
+    } catch (RequiredBuilderFailed e) {
+      failure = keepGoing(failure, e);
+    }
+
+    if (failure != null)
+      throw failure;
+    return Arrays.asList(reqs);
+  }
+
+  private List<BuildRequirement<?>> requireUnbatched(List<? extends BuildRequest<?, ?, ?, ?>> buildReqs, boolean needBuildResult) throws IOException {
+    if (strands != null && buildReqs.size() > 1)
+      return strands.requireAll(buildReqs, needBuildResult);
+    if (!KEEP_GOING)
+      return super.requireAll(buildReqs, needBuildResult);
+
+    List<BuildRequirement<?>> reqs = new ArrayList<>(buildReqs.size());
+    RequiredBuilderFailed failure = null;
+    for (BuildRequest<?, ?, ?, ?> buildReq : buildReqs)
+      try {
+        reqs.add(require(buildReq, needBuildResult));
+      } catch (RequiredBuilderFailed e) {
+        failure = keepGoing(failure, e);
+      }
+    if (failure != null)
+      throw failure;
+    return reqs;
+  }
+
+  /**
+   * Continues after the given failure in keep-going mode, otherwise rethrows
+   * it.
+   *
+   * @return the first failure, which is thrown after all independent requests
+   *         were required.
+   */
+  private RequiredBuilderFailed keepGoing(RequiredBuilderFailed first, RequiredBuilderFailed e) {
+    if (!KEEP_GOING)
+      throw e;
+    return first == null ? e : first;
+  }
+
+  /**
+   * Records the given failure of a unit for the report at the end of the
+   * build.
+   */
+  private RequiredBuilderFailed failed(RequiredBuilderFailed e) {
+    File dep = e.getBuilders().get(0).getUnit().getPersistentPath();
+    synchronized (failures) {
+      if (!failures.containsKey(dep))
+        failures.put(dep, e);
+    }
+    return e;
+  }
+
+  /**
+   * @return the failures of the current or last build, one per failed unit.
+   *         Units which were skipped because a required unit failed are not
+   *         included.
+   */
+  public List<RequiredBuilderFailed> getFailures() {
+    synchronized (failures) {
+      return new ArrayList<>(failures.values());
+    }
+  }
+
+  /**
+   * Computes which units a build of the given request would execute, without
+   * executing any builder or writing any build summary. Since the outputs of
+   * rebuilt units are unknown before their builders run, the result is an
+   * upper bound: units which require the output or generated files of a unit
+   * that would rebuild are reported as well.
+   *
+   * @return the persistent paths of the units which would be executed with
+   *         the reasons why. The result is empty if the request is consistent.
+   */
+  public Map<File, Set<BuildReason>> wouldRebuild(BuildRequest<?, ?, ?, ?> buildReq) throws IOException {
+    return new RebuildQuery().run(buildReq);
+  }
+
+  private void reportFailures() {
+    List<RequiredBuilderFailed> failures = getFailures();
+    if (!KEEP_GOING || failures.isEmpty())
+      return;
+    report.messageFromSystem("Build failed in " + failures.size() + (failures.size() == 1 ? " unit:" : " units:"), true, 0);
+    for (RequiredBuilderFailed e : failures)
+      report.messageFromSystem("  " + e.getMessage(), true, 0);
+  }
+
+  /**
+   * Requires the requests of the given requirements as a batch, such that
+   * checking the requirements afterwards finds their units consistent.
+   */
+  private void checkBatch(List<Requirement> requirements) throws IOException {
+    List<BuildRequest<?, ?, ?, ?>> buildReqs = new ArrayList<>(requirements.size());
+    for (Requirement req : requirements)
+      buildReqs.add(Batch.requestOf(req));
+    requireBatch(buildReqs, false);
+  }
+
+  /**
+   * Requires the given requests of the same batch builder factory, whose
+   * inconsistent builders are executed by a single batch.
+   */
+  private List<BuildRequirement<?>> requireBatch(List<BuildRequest<?, ?, ?, ?>> buildReqs, boolean needBuildResult) throws IOException {
+    List<BuildRequirement<?>> reqs = new ArrayList<>(buildReqs.size());
+    Batch batch = new Batch(buildReqs, requireStack.callStack().size());
+    Batch outer = batches.get();
+    batches.set(batch);
+    RequiredBuilderFailed failure = null;
+    try {
+      // Deferred requests yield no requirement yet
+      for (BuildRequest<?, ?, ?, ?> buildReq : buildReqs)
+        try {
+          reqs.add(require(buildReq, needBuildResult));
+        } catch (RequiredBuilderFailed e) {
+          failure = keepGoing(failure, e);
+          reqs.add(null);
+        }
+    } finally {
+      if (outer == null)
+        batches.remove();
+      else
+        batches.set(outer);
+    }
+
+    List<Batch.Member> deferred = batch.getDeferred();
+    if (deferred.isEmpty() && failure != null)
+      throw failure;
+    if (deferred.isEmpty())
+      return reqs;
+    report.messageFromSystem("Build batch of " + deferred.size() + " requests", false, 7);
+    List<BuildRequirement<?>> deferredReqs = this.<Serializable, Output> executeBatch(deferred, needBuildResult);
+    if (failure != null)
+      throw failure;
+    int next = 0;
+    for (int i = 0; i < reqs.size(); i++)
+      if (reqs.get(i) == null)
+        reqs.set(i, deferredReqs.get(next++));
+    return reqs;
+  }
+
+  //@formatter:off
+  @Override
+  public
+    <In extends Serializable,
+     Out extends Output,
+     B extends Builder<In, Out>,
+     F extends BuilderFactory<In, Out, B>>
+  //@formatter:on
+  CompletableFuture<BuildRequirement<Out>> requireAsync(BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult) {
+    if (strands == null)
+      return super.requireAsync(buildReq, needBuildResult);
+    return strands.requireAsync(buildReq, needBuildResult);
+  }
+
+  @Override
+  public <Out extends Output> BuildRequirement<Out> awaitAsync(BuildRequest<?, Out, ?, ?> buildReq, CompletableFuture<BuildRequirement<Out>> future, boolean needBuildResult) throws IOException {
+    try {
+      return super.awaitAsync(buildReq, future, needBuildResult);
+    } catch (BuildCycleException e) {
+      // The cycle was handled by another strand, as in requireAll
+      if (strands != null && strands.isForeignCycle(e))
+        return require(buildReq, needBuildResult);
+      throw e;
+    }
+  }
+
+  @Override
+  protected <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+    if (strands == null)
+      return super.await(future);
+    return strands.await(future);
+  }
+
+  @Override
+  protected void interruptAsync(CompletableFuture<?> future) {
+    if (future instanceof BuildStrands.StrandFuture<?>)
+      ((BuildStrands.StrandFuture<?>) future).interrupt();
+  }
+
   @Override
   //@formatter:off
   public
@@ -286,6 +1107,56 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
      F extends BuilderFactory<In, Out, B>>
   //@formatter:on
   BuildRequirement<Out> require(final BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult) throws IOException {
+    if (strands == null)
+      return requireInFlight(buildReq, needBuildResult, null, null);
+
+    // Wait until no other strand requires the same request
+    BuildStrands.Claim claim = strands.acquire(buildReq);
+    try {
+      return requireInFlight(buildReq, needBuildResult, claim.getCycle(), claim.getCycleCause());
+    } catch (BuildCycleException e) {
+      claim.fail(e);
+      throw e;
+    } finally {
+      claim.release();
+    }
+  }
+
+  /**
+   * Waits until no other build manager of this process requires the same unit.
+   */
+  //@formatter:off
+  private
+    <In extends Serializable,
+     Out extends Output,
+     B extends Builder<In, Out>,
+     F extends BuilderFactory<In, Out, B>>
+  //@formatter:on
+  BuildRequirement<Out> requireInFlight(BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult, List<BuildRequest<?, ?, ?, ?>> strandCycle, BuildRequest<?, ?, ?, ?> strandCycleCause) throws IOException {
+    File dep = buildReq.createBuilder().persistentPath();
+    InFlightBuilds.Flight flight = InFlightBuilds.acquire(this, dep);
+    try {
+      return require(buildReq, needBuildResult, strandCycle, strandCycleCause);
+    } finally {
+      InFlightBuilds.release(dep, flight);
+    }
+  }
+
+  //@formatter:off
+  private
+    <In extends Serializable,
+     Out extends Output,
+     B extends Builder<In, Out>,
+     F extends BuilderFactory<In, Out, B>>
+  //@formatter:on
+  BuildRequirement<Out> require(final BuildRequest<In, Out, B, F> buildReq, final boolean needBuildResult, final List<BuildRequest<?, ?, ?, ?>> strandCycle, final BuildRequest<?, ?, ?, ?> strandCycleCause) throws IOException {
+    if (stackHops.isDeep())
+      return stackHops.call(buildReq, strands, new Callable<BuildRequirement<Out>>() {
+        @Override
+        public BuildRequirement<Out> call() throws IOException {
+          return require(buildReq, needBuildResult, strandCycle, strandCycleCause);
+        }
+      });
 
     B builder = buildReq.createBuilder();
 
@@ -301,9 +1172,14 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
 
     // Need to check that before putting dep on the requires Stack because
     // otherwise dep has always been required
-    boolean alreadyRequired = requireStack.push(buildReq);
+    // A cycle between parallel strands has been detected when claiming the
+    // request
+    boolean alreadyRequired = requireStack.push(buildReq) || strandCycle != null;
     boolean executed = false;
     try {
+      if (alreadyRequired && strands != null && strands.isSpeculating())
+        throw new BuildStrands.SpeculationAborted(buildReq);
+
       if (alreadyRequired) {
         report.messageFromSystem("Already required " + buildReq, false, 7);
         boolean assumptionIncomplete = requireStack.existsInconsistentCyclicRequest(buildReq);
@@ -313,7 +1189,7 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
         } else {
           report.messageFromSystem("Deptected Require cycle for " + dep, false, 7);
           BuildCycle cycle = requireStack.createCycleFor(buildReq);
-          BuildRequest<?, ?, ?, ?> cycleCause = executingStack.topMostEntry(cycle.getCycleComponents());
+          BuildRequest<?, ?, ?, ?> cycleCause = strandCycle == null ? executingStack.topMostEntry(cycle.getCycleComponents()) : strandCycleCause;
 
           cycle = new BuildCycle(cycleCause, cycle.getCycleComponents());
           BuildCycleException ex = new BuildCycleException("Require build cycle " + cycle.getCycleComponents().size() + " on " + dep, cycleCause, cycle);
@@ -324,6 +1200,9 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
       if (depResult != null && !depResult.isExpired() && requireStack.isConsistent(buildReq))
         return yield(buildReq, builder, depResult);
 
+      if (isOutsideChangeScope(buildReq, needBuildResult, dep, depResult))
+        return yield(buildReq, builder, depResult);
+
       Set<BuildReason> reasons = computeLocalBuildReasons(buildReq, needBuildResult, dep, depResult);
 
       if (!reasons.isEmpty()) {
@@ -332,11 +1211,28 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
         // TODO should inconsistent file requirements trigger the same, they
         // should i think
         executed = true;
-        return executeBuilder(builder, dep, buildReq, reasons);
+        return executeOrDefer(builder, dep, buildReq, needBuildResult, reasons);
       }
 
-      for (Requirement req : depResult.getRequirements()) {
-        if (!req.tryMakeConsistent(this)) {
+      prestamp(depResult);
+      List<Requirement> requirements = depResult.getRequirements();
+      int batchedUntil = 0;
+      for (int i = 0; i < requirements.size(); i++) {
+        Requirement req = requirements.get(i);
+        boolean consistent;
+        try {
+          if (i >= batchedUntil) {
+            batchedUntil = Batch.runEnd(requirements, i);
+            if (batchedUntil > i)
+              checkBatch(requirements.subList(i, batchedUntil));
+          }
+          consistent = req.tryMakeConsistent(this);
+        } catch (RequiredBuilderFailed e) {
+          if (KEEP_GOING)
+            requireIndependent(requirements.subList(i + 1, requirements.size()));
+          throw e;
+        }
+        if (!consistent) {
           executed = true;
           // Could get consistent because it was part of a cycle which is
           // compiled now
@@ -345,7 +1241,7 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
 
           report.inconsistentRequirement(req);
           reasons.add(BuildReason.InconsistentRequirement);
-          return executeBuilder(builder, dep, buildReq, reasons);
+          return executeOrDefer(builder, dep, buildReq, needBuildResult, reasons);
         }
       }
 
@@ -364,6 +1260,7 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
         requireStack.markAssumed(buildReq);
       }
 
+      dynamicAnalysis.ensureIndexed(depResult);
       report.skippedBuilder(buildReq, depResult);
     } catch (RequiredBuilderFailed e) {
       if (executed || e.getLastAddedBuilder().getUnit().getPersistentPath().equals(depResult.getPersistentPath()))
@@ -381,8 +1278,14 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
 
       if (e.getCycleState() == CycleState.UNHANDLED && e.getCycle().getCycleComponents().contains(extendedCycle.getInitial())) {
         report.messageFromSystem("Extend cycle to init " + extendedCycle.getInitial() + " rest " + extendedCycle.getCycleComponents(), false, 7);
-        if (!extendedCycle.getCycleComponents().containsAll(e.getCycle().getCycleComponents()))
+        if (!extendedCycle.getCycleComponents().containsAll(e.getCycle().getCycleComponents())) {
+          // Members of a batch are executed without being required, the
+          // batch requires them one at a time instead
+          for (BuildRequest<?, ?, ?, ?> component : e.getCycle().getCycleComponents())
+            if (!requireStack.contains(component))
+              throw e;
           throw new AssertionError("Cycle " + e.getCycle().getCycleComponents() + " -  extended cycle " + extendedCycle.getCycleComponents());
+        }
         throw new BuildCycleException(e.getMessage(), e.getCycleCause(), extendedCycle);
       } else {
         throw e;
@@ -396,15 +1299,62 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
     return yield(buildReq, builder, depResult);
   }
 
+  /**
+   * Requires the units of the given requirements regardless of their
+   * failures, such that the units which are independent of a failed
+   * requirement are built in keep-going mode.
+   */
+  private void requireIndependent(List<Requirement> requirements) throws IOException {
+    for (Requirement req : requirements)
+      if (req instanceof BuildRequirement<?> && ((BuildRequirement<?>) req).getRequest() != null)
+        try {
+          require(((BuildRequirement<?>) req).getRequest(), false);
+        } catch (RequiredBuilderFailed e) {
+          // The failure was recorded where it occurred
+        }
+  }
+
+  /**
+   * Forgets which units previous builds of this build manager found consistent
+   * or inconsistent, such that the next build checks all units again. Needed
+   * when a build manager is kept alive between builds.
+   */
+  public void resetSession() {
+    requireStack.reset();
+    executingStack.reset();
+    dynamicAnalysis.resetSession();
+  }
+
   public void resetDynamicAnalysis() throws IOException {
     dynamicAnalysis.resetAnalysis();
   }
 
+  public DynamicAnalysis getDynamicAnalysis() {
+    return dynamicAnalysis;
+  }
+
   @Override
   public void close() throws IOException {
+    if (strands != null)
+      strands.close();
     dynamicAnalysis.close();
   }
 
+  /**
+   * During a change-driven build, units which are not affected by the changed
+   * files are consistent, unless they are required with a different input or
+   * their output expired.
+   */
+  private <In extends Serializable, Out extends Output, B extends Builder<In, Out>, F extends BuilderFactory<In, Out, B>> boolean isOutsideChangeScope(final BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult, File dep, BuildUnit<Out> depResult) {
+    Set<File> scope = changeScope;
+    if (scope == null || depResult == null || depResult.isExpired() || scope.contains(dep.getAbsoluteFile()))
+      return false;
+    if (requireStack.isKnownInconsistent(dep) != null || !depResult.getGeneratedBy().deepEquals(buildReq))
+      return false;
+    boolean expiredOutput = depResult.getBuildResult() instanceof build.pluto.output.Out<?> && ((build.pluto.output.Out<?>) depResult.getBuildResult()).expired();
+    return !(needBuildResult && expiredOutput);
+  }
+
   private <In extends Serializable, Out extends Output, B extends Builder<In, Out>, F extends BuilderFactory<In, Out, B>> Set<BuildReason> computeLocalBuildReasons(final BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult, File dep, BuildUnit<Out> depResult) {
     Set<BuildReason> reasons = new TreeSet<IReporting.BuildReason>();
 
@@ -449,7 +1399,7 @@ public class BuildManager extends BuildUnitProvider implements AutoCloseable {
     if (unit.hasFailed()) {
       RequiredBuilderFailed e = new RequiredBuilderFailed(new BuildRequirement<Out>(unit, req), "no rebuild of failing builder");
       report.messageFromBuilder(e.getMessage(), true, builder);
-      throw e;
+      throw failed(e);
     }
     return new BuildRequirement<>(unit, req);
   }
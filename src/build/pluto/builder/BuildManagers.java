@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -69,7 +70,7 @@ public class BuildManagers {
   public static <Out extends Output> Out build(BuildRequest<?, Out, ?, ?> buildReq, IReporting report, String path) throws Throwable {
     Pair<BuildManager, Boolean> manager = getBuildManagerForCurrentThread(report, path);
     try {
-      return manager.b ? manager.a.requireInitially(buildReq).getBuildResult() : manager.a.require(buildReq, true).getUnit().getBuildResult();
+      return manager.b ? manager.a.requireInitiallyResult(buildReq) : manager.a.require(buildReq, true).getUnit().getBuildResult();
     } finally {
       if (manager.b) {
         manager.a.close();
@@ -94,7 +95,7 @@ public class BuildManagers {
       for (BuildRequest<?, Out, ?, ?> buildReq : buildReqs)
         if (buildReq != null)
           try {
-            out.add(manager.b ? manager.a.requireInitially(buildReq).getBuildResult() : manager.a.require(buildReq, true).getUnit().getBuildResult());
+            out.add(manager.b ? manager.a.requireInitiallyResult(buildReq) : manager.a.require(buildReq, true).getUnit().getBuildResult());
           } catch (IOException e) {
             e.printStackTrace();
             out.add(null);
@@ -108,6 +109,27 @@ public class BuildManagers {
     }
   }
   
+  public static Set<File> buildChanged(Collection<File> changedFiles) throws Throwable {
+    return buildChanged(changedFiles, defaultReport(), null);
+  }
+
+  /**
+   * Rebuilds only the units affected by the given changed files.
+   * 
+   * @see BuildManager#requireChanged(Collection)
+   */
+  public static Set<File> buildChanged(Collection<File> changedFiles, IReporting report, String path) throws Throwable {
+    Pair<BuildManager, Boolean> manager = getBuildManagerForCurrentThread(report, path);
+    try {
+      return manager.a.requireChanged(changedFiles);
+    } finally {
+      if (manager.b) {
+        manager.a.close();
+        removeBuildManagerForCurrentThread(path);
+      }
+    }
+  }
+
   public static void resetDynamicAnalysis() throws IOException {
     resetDynamicAnalysis(null);
   }
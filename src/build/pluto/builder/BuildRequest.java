@@ -11,6 +11,7 @@ import build.pluto.builder.factory.BuilderFactory;
 import build.pluto.output.Output;
 import build.pluto.output.OutputEqualStamper;
 import build.pluto.output.OutputStamper;
+import build.pluto.util.StructuralDigest;
 
 import com.cedarsoftware.util.DeepEquals;
 
@@ -55,6 +56,15 @@ public class BuildRequest<
   public int deepHashCode() {
     return DeepEquals.deepHashCode(this);
   }
+
+  /**
+   * @return a digest of the structure of the request (see
+   *         {@link StructuralDigest}), which identifies the request in
+   *         summaries of units which require it.
+   */
+  public byte[] digest() {
+    return StructuralDigest.of(this);
+  }
   
   @Override
   public boolean equals(Object o) {
@@ -0,0 +1,646 @@
+package build.pluto.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.output.Output;
+
+/**
+ * Runs the require calls of a {@link BuildManager} on parallel build strands.
+ * A strand is a chain of nested require calls that is executed by a single
+ * thread at a time. Strands are forked by
+ * {@link BuildUnitProvider#requireAll(List, boolean)} and executed on a
+ * work-stealing pool. A forked strand starts with a copy of the call stacks of
+ * its parent strand, such that cycles through the forking requests are
+ * detected as in the sequential case.
+ *
+ * Each request is owned by at most one strand at a time. A strand that
+ * requires a request owned by another strand waits until the owner finished
+ * the request and then reuses its result. If waiting would close a cycle of
+ * waiting strands, the requests of the involved strands form a build cycle,
+ * which is handled as if it was detected on a single call stack.
+ *
+ * Strands may also be forked speculatively (see {@link #speculate(List)}):
+ * the parent strand does not wait for speculative strands but claims their
+ * requests as usual, hence it waits only for those speculative results it
+ * actually requires. Strands forked by
+ * {@link #requireAsync(BuildRequest, boolean)} are children of the forking
+ * strand until they finish, since the builder of the forking strand waits for
+ * them before it finishes.
+ */
+class BuildStrands implements AutoCloseable {
+
+  private final BuildManager manager;
+  private final RequireStack requireStack;
+  private final ExecutingStack executingStack;
+  private final ForkJoinPool pool;
+  private final Semaphore compensatedWaits;
+
+  private final ThreadLocal<Strand> currentStrand = new ThreadLocal<>();
+
+  // guarded by this
+  private final Map<BuildRequest<?, ?, ?, ?>, Claim> owners = new HashMap<>();
+
+  BuildStrands(BuildManager manager, RequireStack requireStack, ExecutingStack executingStack, int parallelism) {
+    this.manager = manager;
+    this.requireStack = requireStack;
+    this.executingStack = executingStack;
+    this.pool = new ForkJoinPool(parallelism);
+    this.compensatedWaits = new Semaphore(BuildManager.MAX_COMPENSATED_WAITS);
+  }
+
+  static class Strand {
+    final Strand parent;
+    final List<Integer> order;
+    final int inheritedDepth;
+    final CallStack<BuildRequest<?, ?, ?, ?>> requireCalls;
+    final CallStack<BuildRequest<?, ?, ?, ?>> executingCalls;
+    final List<Strand> children = new ArrayList<>();
+    final boolean speculative;
+    Claim waitingFor;
+    Thread thread;
+
+    Strand(Strand parent, int index, CallStack<BuildRequest<?, ?, ?, ?>> requireCalls, CallStack<BuildRequest<?, ?, ?, ?>> executingCalls) {
+      this(parent, index, requireCalls, executingCalls, false);
+    }
+
+    Strand(Strand parent, int index, CallStack<BuildRequest<?, ?, ?, ?>> requireCalls, CallStack<BuildRequest<?, ?, ?, ?>> executingCalls, boolean speculative) {
+      this.parent = parent;
+      this.speculative = speculative || parent != null && parent.speculative;
+      this.order = new ArrayList<>();
+      if (parent != null)
+        this.order.addAll(parent.order);
+      this.order.add(index);
+      this.inheritedDepth = requireCalls.size();
+      this.requireCalls = requireCalls;
+      this.executingCalls = executingCalls;
+    }
+
+    /**
+     * @return the requests of this strand that are required after the given
+     *         request, including the request itself.
+     */
+    List<BuildRequest<?, ?, ?, ?>> callsFrom(BuildRequest<?, ?, ?, ?> req) {
+      int index = req == null ? -1 : requireCalls.lastIndexOf(req);
+      if (index < 0)
+        index = inheritedDepth;
+      return requireCalls.subList(index, requireCalls.size());
+    }
+  }
+
+  private static final Comparator<Strand> STRAND_ORDER = new Comparator<Strand>() {
+    @Override
+    public int compare(Strand s1, Strand s2) {
+      for (int i = 0; i < s1.order.size() && i < s2.order.size(); i++) {
+        int c = Integer.compare(s1.order.get(i), s2.order.get(i));
+        if (c != 0)
+          return c;
+      }
+      return Integer.compare(s1.order.size(), s2.order.size());
+    }
+  };
+
+  /**
+   * Ownership of a request by a strand. Claims that are not owning do not
+   * need to be released.
+   */
+  class Claim {
+    private final Strand owner;
+    private final BuildRequest<?, ?, ?, ?> req;
+    private final List<BuildRequest<?, ?, ?, ?>> cycle;
+    private final BuildRequest<?, ?, ?, ?> cycleCause;
+    private BuildCycleException failure;
+    private boolean released;
+
+    private Claim(Strand owner, BuildRequest<?, ?, ?, ?> req, List<BuildRequest<?, ?, ?, ?>> cycle, BuildRequest<?, ?, ?, ?> cycleCause) {
+      this.owner = owner;
+      this.req = req;
+      this.cycle = cycle;
+      this.cycleCause = cycleCause;
+    }
+
+    private boolean isOwning() {
+      return owner != null;
+    }
+
+    /**
+     * @return the requests of a cycle between strands, which needs to be
+     *         handled by the claiming strand, or null if there is no such
+     *         cycle.
+     */
+    List<BuildRequest<?, ?, ?, ?>> getCycle() {
+      return cycle;
+    }
+
+    BuildRequest<?, ?, ?, ?> getCycleCause() {
+      return cycleCause;
+    }
+
+    void fail(BuildCycleException e) {
+      synchronized (BuildStrands.this) {
+        failure = e;
+      }
+    }
+
+    void release() {
+      if (!isOwning())
+        return;
+      synchronized (BuildStrands.this) {
+        released = true;
+        if (owners.get(req) == this)
+          owners.remove(req);
+        BuildStrands.this.notifyAll();
+      }
+    }
+  }
+
+  Strand currentStrand() {
+    Strand strand = currentStrand.get();
+    if (strand == null) {
+      strand = new Strand(null, 0, requireStack.callStack(), executingStack.callStack());
+      currentStrand.set(strand);
+    }
+    return strand;
+  }
+
+  /**
+   * Continues the given strand on the current thread, while the thread which
+   * ran the strand so far waits (see {@link StackHops}).
+   *
+   * @return the strand of the current thread before, which needs to be
+   *         restored with another call to enterStrand.
+   */
+  Strand enterStrand(Strand strand) {
+    Strand old = currentStrand.get();
+    currentStrand.set(strand);
+    return old;
+  }
+
+  /**
+   * @return true if the current thread runs a speculative strand or a strand
+   *         forked by one.
+   */
+  boolean isSpeculating() {
+    Strand strand = currentStrand.get();
+    return strand != null && strand.speculative;
+  }
+
+  /**
+   * Claims the given request for the current strand. Waits while another
+   * strand owns the request, unless waiting would close a cycle of waiting
+   * strands.
+   */
+  Claim acquire(BuildRequest<?, ?, ?, ?> req) {
+    // Cycles on the own call stack are detected by the require stack
+    if (requireStack.contains(req))
+      return new Claim(null, req, null, null);
+
+    Strand strand = currentStrand();
+    synchronized (this) {
+      while (true) {
+        final Claim other = owners.get(req);
+        if (other == null) {
+          Claim claim = new Claim(strand, req, null, null);
+          owners.put(req, claim);
+          return claim;
+        }
+
+        List<Strand> path = findWaitCycle(strand, other.owner);
+        if (path != null)
+          return cycleClaim(req, strand, other, path);
+
+        strand.waitingFor = other;
+        try {
+          ForkJoinPool.managedBlock(new ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+              synchronized (BuildStrands.this) {
+                while (!other.released)
+                  BuildStrands.this.wait();
+              }
+              return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+              synchronized (BuildStrands.this) {
+                return other.released;
+              }
+            }
+          });
+        } catch (InterruptedException e) {
+          // The interrupt is handled by the build manager
+          Thread.currentThread().interrupt();
+          return new Claim(null, req, null, null);
+        } finally {
+          strand.waitingFor = null;
+        }
+
+        // A cycle which involves this strand has to be unwound on this strand
+        // too
+        if (other.failure != null && !Collections.disjoint(strand.callsFrom(null), other.failure.getCycle().getCycleComponents()))
+          throw other.failure;
+      }
+    }
+  }
+
+  /**
+   * Searches a path of waiting strands from the given owner back to the given
+   * strand. A strand waits for the owner of the claim it is waiting for and
+   * for all its forked children.
+   */
+  private List<Strand> findWaitCycle(Strand strand, Strand owner) {
+    List<Strand> path = new ArrayList<>();
+    if (findWaitCycle(strand, owner, path, new HashSet<Strand>()))
+      return path;
+    return null;
+  }
+
+  private boolean findWaitCycle(Strand strand, Strand next, List<Strand> path, Set<Strand> seen) {
+    if (!seen.add(next))
+      return false;
+    path.add(next);
+    if (next == strand)
+      return true;
+    if (next.waitingFor != null && findWaitCycle(strand, next.waitingFor.owner, path, seen))
+      return true;
+    for (Strand child : next.children)
+      if (findWaitCycle(strand, child, path, seen))
+        return true;
+    path.remove(path.size() - 1);
+    return false;
+  }
+
+  /**
+   * Creates the claim for a cycle between strands. The cycle consists of the
+   * requests of all strands on the wait path. Each strand contributes the
+   * requests since the request it was waited for, or all own requests if it
+   * was reached as a forked child. The requests of strands forked earlier come
+   * first, as they would have been required first sequentially.
+   */
+  private Claim cycleClaim(BuildRequest<?, ?, ?, ?> req, Strand strand, Claim other, List<Strand> path) {
+    Map<Strand, List<BuildRequest<?, ?, ?, ?>>> portions = new HashMap<>();
+    BuildRequest<?, ?, ?, ?> enteredBy = other.req;
+    for (int i = 0; i < path.size(); i++) {
+      Strand s = path.get(i);
+      List<BuildRequest<?, ?, ?, ?>> calls = s.callsFrom(enteredBy);
+      portions.put(s, new ArrayList<>(calls));
+      enteredBy = s.waitingFor == null || i + 1 == path.size() || s.waitingFor.owner != path.get(i + 1) ? null : s.waitingFor.req;
+    }
+
+    List<Strand> ordered = new ArrayList<>(portions.keySet());
+    Collections.sort(ordered, STRAND_ORDER);
+
+    Set<BuildRequest<?, ?, ?, ?>> cycle = new LinkedHashSet<>();
+    BuildRequest<?, ?, ?, ?> cause = null;
+    for (Strand s : ordered)
+      for (BuildRequest<?, ?, ?, ?> r : portions.get(s)) {
+        cycle.add(r);
+        if (cause == null && s.executingCalls.contains(r))
+          cause = r;
+      }
+    cycle.add(req);
+    if (cause == null)
+      cause = cycle.iterator().next();
+
+    List<BuildRequest<?, ?, ?, ?>> components = new ArrayList<>(cycle);
+    requireStack.unite(components);
+    return new Claim(null, req, components, cause);
+  }
+
+  /**
+   * Requires all given requests on parallel strands and waits for all of them
+   * to finish. Requests, which failed because of a cycle that was handled by
+   * another strand, are required again on the current strand. Otherwise the
+   * failure of the first failed request is rethrown, unless the request was
+   * only skipped because a unit failed on another strand and a later request
+   * carries the original failure.
+   */
+  List<BuildRequirement<?>> requireAll(List<? extends BuildRequest<?, ?, ?, ?>> reqs, boolean needBuildResult) throws IOException {
+    Strand parent = currentStrand();
+    long startingTime = BuildManager.getStartingTimeOfBuildManager(Thread.currentThread());
+
+    List<StrandTask> tasks = new ArrayList<>(reqs.size());
+    List<Strand> children = new ArrayList<>(reqs.size());
+    final CountDownLatch finished = new CountDownLatch(reqs.size());
+    synchronized (this) {
+      for (int i = 0; i < reqs.size(); i++) {
+        Strand child = new Strand(parent, i, requireStack.fork(), executingStack.fork());
+        parent.children.add(child);
+        children.add(child);
+        tasks.add(new StrandTask(child, reqs.get(i), needBuildResult, startingTime, finished, null, null));
+      }
+    }
+
+    manager.report.startedParallelRequirements(reqs);
+    try {
+      start(reqs, tasks);
+      awaitAll(tasks, finished);
+    } finally {
+      synchronized (this) {
+        parent.children.removeAll(children);
+      }
+      manager.report.finishedParallelRequirements(reqs);
+    }
+
+    List<BuildRequirement<?>> results = new ArrayList<>(reqs.size());
+    Throwable failure = null;
+    for (StrandTask task : tasks) {
+      if (failure != null) {
+        if (isSkip(failure) && task.failure != null && !isSkip(task.failure))
+          failure = task.failure;
+      } else if (task.failure == null)
+        results.add(task.result);
+      else if (isForeignCycle(task.failure))
+        results.add(manager.require(task.req, needBuildResult));
+      else
+        failure = task.failure;
+    }
+
+    if (failure == null)
+      return results;
+    else if (failure instanceof IOException)
+      throw (IOException) failure;
+    else if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    else if (failure instanceof Error)
+      throw (Error) failure;
+    else
+      throw new RuntimeException(failure);
+  }
+
+  /**
+   * @return true if the given failure only skipped a unit which failed
+   *         before, such that it does not carry the original failure.
+   */
+  private static boolean isSkip(Throwable failure) {
+    return failure instanceof RequiredBuilderFailed && ((RequiredBuilderFailed) failure).getRootCause() == null;
+  }
+
+  /**
+   * @return true if the given failure is a cycle which was handled by another
+   *         strand and does not involve the current strand, such that the
+   *         failed request can be required again.
+   */
+  boolean isForeignCycle(Throwable failure) {
+    return failure instanceof BuildCycleException && Collections.disjoint(currentStrand().callsFrom(null), ((BuildCycleException) failure).getCycle().getCycleComponents());
+  }
+
+  /**
+   * The future requirement of a request which is required on an asynchronous
+   * strand.
+   */
+  class StrandFuture<Out extends Output> extends CompletableFuture<BuildRequirement<Out>> {
+    private StrandTask task;
+
+    @SuppressWarnings("unchecked")
+    private void finish(BuildRequirement<?> result, Throwable failure) {
+      if (failure == null)
+        complete((BuildRequirement<Out>) result);
+      else
+        completeExceptionally(failure);
+    }
+
+    void interrupt() {
+      task.interrupt();
+    }
+  }
+
+  /**
+   * Waits for the future of an asynchronous builder. Up to
+   * {@link BuildManager#MAX_COMPENSATED_WAITS} threads wait in a managed block
+   * at a time, for which the pool starts another worker. Further threads wait
+   * without a replacement, like the threads of a saturated
+   * {@link ForkJoinPool}, such that they stall the pool rather than add
+   * threads to it. Either way, each waiting builder still holds its thread.
+   */
+  <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+    if (future.isDone())
+      return future.get();
+    if (compensatedWaits.tryAcquire())
+      try {
+        // Waits in a managed block, such that the pool compensates the thread
+        return future.get();
+      } finally {
+        compensatedWaits.release();
+      }
+
+    final CountDownLatch done = new CountDownLatch(1);
+    future.whenComplete(new BiConsumer<T, Throwable>() {
+      @Override
+      public void accept(T result, Throwable failure) {
+        done.countDown();
+      }
+    });
+    done.await();
+    return future.get();
+  }
+
+  /**
+   * Starts to require the given request on a new strand without waiting for
+   * it.
+   */
+  <Out extends Output> StrandFuture<Out> requireAsync(BuildRequest<?, Out, ?, ?> req, boolean needBuildResult) {
+    Strand parent = currentStrand();
+    long startingTime = BuildManager.getStartingTimeOfBuildManager(Thread.currentThread());
+
+    StrandFuture<Out> future = new StrandFuture<>();
+    synchronized (this) {
+      Strand child = new Strand(parent, parent.children.size(), requireStack.fork(), executingStack.fork());
+      parent.children.add(child);
+      future.task = new StrandTask(child, req, needBuildResult, startingTime, new CountDownLatch(1), null, future);
+    }
+    pool.execute(future.task);
+    return future;
+  }
+
+  /**
+   * Thrown on a speculative strand that requires a request of a strand it was
+   * forked from. Such a cycle is handled once the request is required for real.
+   */
+  static class SpeculationAborted extends RuntimeException {
+    private static final long serialVersionUID = -2870461153318766414L;
+
+    SpeculationAborted(BuildRequest<?, ?, ?, ?> req) {
+      super("Speculation reached required request " + req);
+    }
+  }
+
+  /**
+   * Requests required speculatively on behalf of a running builder.
+   */
+  class Speculation {
+    private final List<StrandTask> tasks;
+    private final CountDownLatch finished;
+    private volatile boolean discarded;
+
+    private Speculation(List<StrandTask> tasks, CountDownLatch finished) {
+      this.tasks = tasks;
+      this.finished = finished;
+    }
+
+    /**
+     * Discards all speculative requests which did not start yet and waits for
+     * the running ones. Their results are not used by the builder, unless it
+     * required them.
+     */
+    void discard() {
+      discarded = true;
+      awaitAll(tasks, finished);
+    }
+  }
+
+  /**
+   * Starts to require the given requests on speculative strands without
+   * waiting for them.
+   */
+  Speculation speculate(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    Strand parent = currentStrand();
+    long startingTime = BuildManager.getStartingTimeOfBuildManager(Thread.currentThread());
+
+    List<StrandTask> tasks = new ArrayList<>(reqs.size());
+    CountDownLatch finished = new CountDownLatch(reqs.size());
+    Speculation speculation = new Speculation(tasks, finished);
+    synchronized (this) {
+      // The parent does not wait for the speculative strands, hence they are no
+      // children in the sense of cycle detection
+      for (int i = 0; i < reqs.size(); i++) {
+        Strand child = new Strand(parent, i, requireStack.fork(), executingStack.fork(), true);
+        tasks.add(new StrandTask(child, reqs.get(i), false, startingTime, finished, speculation, null));
+      }
+    }
+    start(reqs, tasks);
+    return speculation;
+  }
+
+  /**
+   * Submits the tasks of the given requests to the pool, which starts them in
+   * submission order. The longest critical path goes first, such that it does
+   * not determine the duration of the whole build by starting last.
+   */
+  private void start(List<? extends BuildRequest<?, ?, ?, ?>> reqs, List<StrandTask> tasks) {
+    if (!BuildManager.CRITICAL_PATH_SCHEDULING) {
+      for (StrandTask task : tasks)
+        pool.execute(task);
+      return;
+    }
+    for (int i : CriticalPath.order(reqs))
+      pool.execute(tasks.get(i));
+  }
+
+  private void awaitAll(List<StrandTask> tasks, final CountDownLatch finished) {
+    boolean interrupted = false;
+    while (finished.getCount() > 0)
+      try {
+        ForkJoinPool.managedBlock(new ManagedBlocker() {
+          @Override
+          public boolean block() throws InterruptedException {
+            finished.await();
+            return true;
+          }
+
+          @Override
+          public boolean isReleasable() {
+            return finished.getCount() == 0;
+          }
+        });
+      } catch (InterruptedException e) {
+        // Forward the interrupt to all running strands and wait for them to
+        // cancel their builders
+        interrupted = true;
+        for (StrandTask task : tasks)
+          task.interrupt();
+      }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private class StrandTask implements Runnable {
+    private final Strand strand;
+    private final BuildRequest<?, ?, ?, ?> req;
+    private final boolean needBuildResult;
+    private final long startingTime;
+    private final CountDownLatch finished;
+    private final Speculation speculation;
+    private final StrandFuture<?> future;
+
+    private BuildRequirement<?> result;
+    private Throwable failure;
+
+    StrandTask(Strand strand, BuildRequest<?, ?, ?, ?> req, boolean needBuildResult, long startingTime, CountDownLatch finished, Speculation speculation, StrandFuture<?> future) {
+      this.strand = strand;
+      this.speculation = speculation;
+      this.future = future;
+      this.req = req;
+      this.needBuildResult = needBuildResult;
+      this.startingTime = startingTime;
+      this.finished = finished;
+    }
+
+    void interrupt() {
+      synchronized (BuildStrands.this) {
+        if (strand.thread != null)
+          strand.thread.interrupt();
+      }
+    }
+
+    @Override
+    public void run() {
+      if (speculation != null && speculation.discarded) {
+        finished.countDown();
+        return;
+      }
+
+      Thread thread = Thread.currentThread();
+      Strand previousStrand = currentStrand.get();
+      CallStack<BuildRequest<?, ?, ?, ?>> previousRequireCalls = requireStack.enter(strand.requireCalls);
+      CallStack<BuildRequest<?, ?, ?, ?>> previousExecutingCalls = executingStack.enter(strand.executingCalls);
+      long previousStartingTime = BuildManager.setStartingTimeOfBuildManager(thread, startingTime);
+      currentStrand.set(strand);
+      synchronized (BuildStrands.this) {
+        strand.thread = thread;
+      }
+      try {
+        result = manager.require(req, needBuildResult);
+      } catch (Throwable e) {
+        failure = e;
+      } finally {
+        synchronized (BuildStrands.this) {
+          strand.thread = null;
+          if (future != null)
+            strand.parent.children.remove(strand);
+        }
+        // Do not leak interrupts to other tasks of the pool
+        Thread.interrupted();
+        currentStrand.set(previousStrand);
+        requireStack.enter(previousRequireCalls);
+        executingStack.enter(previousExecutingCalls);
+        BuildManager.setStartingTimeOfBuildManager(thread, previousStartingTime);
+        finished.countDown();
+        if (future != null)
+          future.finish(result, failure);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+}
@@ -4,7 +4,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import org.sugarj.common.FileCommands;
 
@@ -13,6 +17,7 @@ import build.pluto.builder.factory.BuilderFactory;
 import build.pluto.dependency.BuildRequirement;
 import build.pluto.output.Output;
 import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.StampCache;
 import build.pluto.util.IReporting;
 
 public abstract class BuildUnitProvider {
@@ -46,6 +51,90 @@ public abstract class BuildUnitProvider {
     return require(buildReq, true);
   }
 
+  /**
+   * Requires all given requests, which are independent of each other. The
+   * default implementation requires them one after another; a provider may
+   * require them in parallel instead.
+   * 
+   * @return the requirements of all requests in the order of the requests.
+   */
+  public List<BuildRequirement<?>> requireAll(List<? extends BuildRequest<?, ?, ?, ?>> buildReqs, boolean needBuildResult) throws IOException {
+    List<BuildRequirement<?>> reqs = new ArrayList<>(buildReqs.size());
+    for (BuildRequest<?, ?, ?, ?> buildReq : buildReqs)
+      reqs.add(require(buildReq, needBuildResult));
+    return reqs;
+  }
+
+  /**
+   * Starts to require the given request without waiting for it. The default
+   * implementation requires it right away; a provider may require it in
+   * parallel instead. The result must be obtained with
+   * {@link #awaitAsync(BuildRequest, CompletableFuture, boolean)}, which
+   * handles failures the way a synchronous require call would.
+   * 
+   * @return the future requirement of the request.
+   */
+  public
+  //@formatter:off
+  <In extends Serializable,
+   Out extends Output,
+   B extends Builder<In, Out>,
+   F extends BuilderFactory<In, Out, B>>
+  //@formatter:on
+  CompletableFuture<BuildRequirement<Out>> requireAsync(BuildRequest<In, Out, B, F> buildReq, boolean needBuildResult) {
+    CompletableFuture<BuildRequirement<Out>> future = new CompletableFuture<>();
+    try {
+      future.complete(require(buildReq, needBuildResult));
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  /**
+   * Waits for a requirement started by
+   * {@link #requireAsync(BuildRequest, boolean)} and rethrows its failure.
+   */
+  public <Out extends Output> BuildRequirement<Out> awaitAsync(BuildRequest<?, Out, ?, ?> buildReq, CompletableFuture<BuildRequirement<Out>> future, boolean needBuildResult) throws IOException {
+    boolean interrupted = false;
+    try {
+      while (true)
+        try {
+          return await(future);
+        } catch (InterruptedException e) {
+          interrupted = true;
+          interruptAsync(future);
+        }
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)
+        throw (IOException) cause;
+      else if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      else if (cause instanceof Error)
+        throw (Error) cause;
+      else
+        throw new RuntimeException(cause);
+    } finally {
+      if (interrupted)
+        Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for the given future on behalf of a builder.
+   */
+  protected <T> T await(CompletableFuture<T> future) throws InterruptedException, ExecutionException {
+    return future.get();
+  }
+
+  /**
+   * Forwards an interrupt of the thread waiting for the given future to the
+   * thread computing it.
+   */
+  protected void interruptAsync(CompletableFuture<?> future) {
+  }
+
   protected abstract Throwable tryCompileCycle(BuildCycleException e);
 
   
@@ -90,7 +179,7 @@ public abstract class BuildUnitProvider {
           }
 
       if (requireMeta)
-        depResult.requires(builderClass, LastModifiedStamper.instance.stampOf(builderClass));
+        depResult.requires(builderClass, StampCache.stampOf(LastModifiedStamper.instance, builderClass));
     }
   }
 }
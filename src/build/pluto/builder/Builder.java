@@ -5,6 +5,12 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
 
 import build.pluto.BuildUnit;
 import build.pluto.BuildUnit.State;
@@ -20,7 +26,9 @@ import build.pluto.output.OutputEqualStamper;
 import build.pluto.output.OutputStamper;
 import build.pluto.stamp.LastModifiedStamper;
 import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
 import build.pluto.stamp.Stamper;
+import build.pluto.util.IReporting.BuildReason;
 
 /**
  * The builder class is the abstract base class of each builder. It contains an
@@ -55,6 +63,31 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
 
   private transient BuildRequest<?, ?, ?, ?> lastBuildReq;
 
+  /**
+   * Requests required by {@link #requireBuildAsync(BuildRequest)}, whose
+   * requirements are recorded when the build finishes.
+   */
+  private transient List<AsyncRequirement<?>> asyncRequirements;
+
+  /**
+   * Previously generated files, whose modification time is restored when they
+   * are provided with unchanged content, or null if
+   * {@link BuildManager#RESTAT_GENERATED_FILES} is disabled.
+   */
+  private transient Restat restat;
+
+  private transient Set<BuildReason> reasons;
+
+  private static class AsyncRequirement<Out_ extends Output> {
+    final BuildRequest<?, Out_, ?, ?> req;
+    final CompletableFuture<BuildRequirement<Out_>> future;
+
+    AsyncRequirement(BuildRequest<?, Out_, ?, ?> req, CompletableFuture<BuildRequirement<Out_>> future) {
+      this.req = req;
+      this.future = future;
+    }
+  }
+
   public Builder(In input) {
     this.input = input;
   }
@@ -126,18 +159,41 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
   }
 
   Out triggerBuild(BuildUnit<Out> result, BuildUnitProvider manager, BuildUnit<Out> previousResult) throws Throwable {
+    return triggerBuild(result, manager, previousResult, Collections.<BuildReason> emptySet());
+  }
+
+  Out triggerBuild(BuildUnit<Out> result, BuildUnitProvider manager, BuildUnit<Out> previousResult, Set<BuildReason> reasons) throws Throwable {
+    try {
+      prepareBuild(result, manager, previousResult, reasons);
+      Out out = build(this.input);
+      recordAsyncRequirements();
+      return out;
+    } finally {
+      cleanUpBuild();
+    }
+  }
+
+  void prepareBuild(BuildUnit<Out> result, BuildUnitProvider manager, BuildUnit<Out> previousResult, Set<BuildReason> reasons) {
     this.result = result;
+    this.reasons = reasons;
     this.previousResult = previousResult;
     this.manager = manager;
     this.defaultStamper = defaultStamper();
-    try {
-      return build(this.input);
-    } finally {
-      this.result = null;
-      this.previousResult = null;
-      this.manager = null;
-      this.defaultStamper = null;
+    this.asyncRequirements = new ArrayList<>();
+    this.restat = BuildManager.RESTAT_GENERATED_FILES ? Restat.of(previousResult) : null;
+  }
+
+  void cleanUpBuild() {
+    if (asyncRequirements != null) {
+      awaitAsyncRequirements();
+      this.asyncRequirements = null;
     }
+    this.restat = null;
+    this.reasons = null;
+    this.result = null;
+    this.previousResult = null;
+    this.manager = null;
+    this.defaultStamper = null;
   }
 
   /**
@@ -216,6 +272,80 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
     return e.getUnit().getBuildResult();
   }
 
+  /**
+   * Starts to require the given build request without waiting for it, such
+   * that the builder can continue while the request is built. The requirement
+   * is recorded when the build finishes, which waits for all requests that are
+   * still running. Files provided by the request may be required after the
+   * returned future completed.
+   * 
+   * @param req
+   *          the request to build
+   * @return the future build output of the request
+   */
+  public
+//@formatter:off
+  <In_ extends Serializable,
+   Out_ extends Output,
+   B_ extends Builder<In_, Out_>,
+   F_ extends BuilderFactory<In_, Out_, B_>>
+//@formatter:on
+  CompletableFuture<Out_> requireBuildAsync(BuildRequest<In_, Out_, B_, F_> req) {
+    lastBuildReq = req;
+    CompletableFuture<BuildRequirement<Out_>> future = manager.requireAsync(req, true);
+    asyncRequirements.add(new AsyncRequirement<>(req, future));
+    return future.thenApply(new Function<BuildRequirement<Out_>, Out_>() {
+      @Override
+      public Out_ apply(BuildRequirement<Out_> e) {
+        return e.getUnit().getBuildResult();
+      }
+    });
+  }
+
+  /**
+   * Starts to require the build result of the given factory with the given
+   * input without waiting for it (see {@link #requireBuildAsync(BuildRequest)}).
+   */
+  public
+//@formatter:off
+  <In_ extends Serializable,
+   Out_ extends Output,
+   B_ extends Builder<In_, Out_>,
+   F_ extends BuilderFactory<In_, Out_, B_>,
+   SubIn_ extends In_>
+//@formatter:on
+  CompletableFuture<Out_> requireBuildAsync(F_ factory, SubIn_ input) {
+    return requireBuildAsync(new BuildRequest<In_, Out_, B_, F_>(factory, input, OutputEqualStamper.instance()));
+  }
+
+  void recordAsyncRequirements() throws IOException {
+    for (AsyncRequirement<?> async : asyncRequirements)
+      recordAsyncRequirement(async);
+  }
+
+  private <Out_ extends Output> void recordAsyncRequirement(AsyncRequirement<Out_> async) throws IOException {
+    result.requires(manager.awaitAsync(async.req, async.future, true));
+  }
+
+  /**
+   * Waits until no asynchronous request of this build is running anymore. If
+   * the build failed, their failures are irrelevant.
+   */
+  private void awaitAsyncRequirements() {
+    boolean interrupted = false;
+    for (AsyncRequirement<?> async : asyncRequirements)
+      while (!async.future.isDone())
+        try {
+          async.future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+          manager.interruptAsync(async.future);
+        } catch (ExecutionException e) {
+        }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
   /**
    * Requires that the build result of all given {@link BuildRequest}s is
    * consistent such that provided files can be required.
@@ -228,9 +358,28 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
     if (origin == null)
       return null;
 
-    Collection<Output> outs = new ArrayList<>();
-    for (BuildRequest<?, ?, ?, ?> req : origin.getReqs())
-      outs.add(requireBuild(req));
+    return requireBuildAll(origin.getReqs());
+  }
+
+  /**
+   * Requires that the build result of all given {@link BuildRequest}s is
+   * consistent. The requests must not depend on each other's results, such
+   * that the build manager may build them in parallel. The requirements are
+   * recorded in the order of the given requests.
+   * 
+   * @param reqs
+   *          the independent requests to build
+   * @return the build outputs of the requests in the order of the requests
+   * @throws IOException
+   */
+  public List<Output> requireBuildAll(Collection<? extends BuildRequest<?, ?, ?, ?>> reqs) throws IOException {
+    List<BuildRequest<?, ?, ?, ?>> buildReqs = new ArrayList<>(reqs);
+    List<Output> outs = new ArrayList<>(buildReqs.size());
+    for (BuildRequirement<?> e : manager.requireAll(buildReqs, true)) {
+      lastBuildReq = e.getRequest();
+      result.requires(e);
+      outs.add(e.getUnit().getBuildResult());
+    }
     return outs;
   }
 
@@ -247,7 +396,7 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
    *          the required file
    */
   public void require(File p) {
-    require(p, defaultStamper.stampOf(p));
+    require(p, StampCache.stampOf(defaultStamper, p));
   }
 
   /**
@@ -259,7 +408,7 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
    *          the required file
    */
   public void require(File p, Stamper stamper) {
-    require(p, stamper.stampOf(p));
+    require(p, StampCache.stampOf(stamper, p));
   }
 
   public void require(File p, Stamp stamp) {
@@ -283,13 +432,15 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
    * States that this builder provides the given file. The provide call has to
    * be made after the file has been generated completely. The file is stamped
    * with the last modified stamper. As long the last modified time does not
-   * change, the file is regarded as consistent.
+   * change, the file is regarded as consistent. If the file was generated with
+   * the same content by the previous build, its previous modification time is
+   * restored (see {@link BuildManager#RESTAT_GENERATED_FILES}).
    * 
    * @param p
    *          the provided file
    */
   public void provide(File p) {
-    result.generates(p, LastModifiedStamper.instance.stampOf(p));
+    provide(p, LastModifiedStamper.instance);
   }
 
   /**
@@ -303,10 +454,14 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
    *          the stamper used to stamp the file
    */
   public void provide(File p, Stamper stamper) {
+    if (restat != null && stamper instanceof LastModifiedStamper)
+      restat.restore(p);
+    StampCache.invalidate(p);
     result.generates(p, stamper.stampOf(p));
   }
 
   public void provide(FileRequirement req) {
+    StampCache.invalidate(req.file);
     result.generates(req);
   }
 
@@ -329,4 +484,14 @@ public abstract class Builder<In extends Serializable, Out extends Output> {
   protected BuildUnit<Out> getPreviousBuildUnit() {
     return previousResult;
   }
+
+  /**
+   * Computes which requirements of the previous build changed since, such that
+   * the builder can update its previous results incrementally. Requirements
+   * on other builds should be required before, such that their changes are
+   * known.
+   */
+  protected ChangeSet getChangeSet() {
+    return ChangeSet.of(previousResult, reasons);
+  }
 }
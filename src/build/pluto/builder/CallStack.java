@@ -0,0 +1,84 @@
+package build.pluto.builder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The call stack of a {@link CycleDetectionStack}. Calls are only pushed and
+ * popped, and the stack counts its calls by hash, such that looking up a call
+ * which is not on the stack does not scan the stack. Otherwise, each require
+ * call of a long chain of dependencies would scan the whole chain.
+ */
+class CallStack<C> implements Iterable<C> {
+
+  private final List<C> calls = new ArrayList<>();
+  private final Map<C, Integer> counts = new HashMap<>();
+
+  CallStack() {
+  }
+
+  /**
+   * Copies the given call stack.
+   */
+  CallStack(CallStack<C> stack) {
+    calls.addAll(stack.calls);
+    counts.putAll(stack.counts);
+  }
+
+  void push(C call) {
+    Integer count = counts.get(call);
+    counts.put(call, count == null ? 1 : count + 1);
+    calls.add(call);
+  }
+
+  C pop() {
+    C call = calls.remove(calls.size() - 1);
+    Integer count = counts.get(call);
+    if (count == 1)
+      counts.remove(call);
+    else
+      counts.put(call, count - 1);
+    return call;
+  }
+
+  boolean contains(Object o) {
+    return counts.containsKey(o);
+  }
+
+  int indexOf(Object o) {
+    return counts.containsKey(o) ? calls.indexOf(o) : -1;
+  }
+
+  int lastIndexOf(Object o) {
+    return counts.containsKey(o) ? calls.lastIndexOf(o) : -1;
+  }
+
+  C get(int index) {
+    return calls.get(index);
+  }
+
+  int size() {
+    return calls.size();
+  }
+
+  /**
+   * @return a read-only view of the calls between the given indices.
+   */
+  List<C> subList(int fromIndex, int toIndex) {
+    return Collections.unmodifiableList(calls.subList(fromIndex, toIndex));
+  }
+
+  @Override
+  public Iterator<C> iterator() {
+    return Collections.unmodifiableList(calls).iterator();
+  }
+
+  @Override
+  public String toString() {
+    return calls.toString();
+  }
+}
@@ -0,0 +1,169 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import build.pluto.BuildUnit;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.output.Output;
+import build.pluto.output.OutputStamp;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
+import build.pluto.util.IReporting.BuildReason;
+
+/**
+ * The changes since the previous build of a unit, which a builder can use to
+ * update its previous results incrementally instead of building everything
+ * again (see {@link Builder#getChangeSet()}).
+ *
+ * A change set compares the requirements of the previous build with the
+ * current state when it is created. Hence a builder should create it after it
+ * required the builds whose changes it is interested in.
+ */
+public class ChangeSet {
+
+  /**
+   * A required file whose stamp changed.
+   */
+  public static class FileChange {
+    public final File file;
+    public final Stamp previousStamp;
+    public final Stamp currentStamp;
+
+    FileChange(File file, Stamp previousStamp, Stamp currentStamp) {
+      this.file = file;
+      this.previousStamp = previousStamp;
+      this.currentStamp = currentStamp;
+    }
+
+    @Override
+    public String toString() {
+      return file + ": " + previousStamp + " -> " + currentStamp;
+    }
+  }
+
+  /**
+   * A required build whose output stamp changed. The current stamp is null if
+   * the build has no summary anymore or its summary was built for another
+   * request. Then the request is null if the previous summary referenced it
+   * by digest only.
+   */
+  public static class BuildChange {
+    public final BuildRequest<?, ?, ?, ?> request;
+    public final OutputStamp previousStamp;
+    public final OutputStamp currentStamp;
+
+    BuildChange(BuildRequest<?, ?, ?, ?> request, OutputStamp previousStamp, OutputStamp currentStamp) {
+      this.request = request;
+      this.previousStamp = previousStamp;
+      this.currentStamp = currentStamp;
+    }
+
+    @Override
+    public String toString() {
+      return request + ": " + previousStamp + " -> " + currentStamp;
+    }
+  }
+
+  private final boolean previousBuild;
+  private final Set<BuildReason> reasons;
+  private final List<FileChange> fileChanges;
+  private final List<BuildChange> buildChanges;
+
+  private ChangeSet(boolean previousBuild, Set<BuildReason> reasons, List<FileChange> fileChanges, List<BuildChange> buildChanges) {
+    this.previousBuild = previousBuild;
+    this.reasons = reasons;
+    this.fileChanges = fileChanges;
+    this.buildChanges = buildChanges;
+  }
+
+  static ChangeSet of(BuildUnit<?> previousResult, Set<BuildReason> reasons) {
+    Set<BuildReason> rs = Collections.unmodifiableSet(reasons);
+    List<FileChange> fileChanges = new ArrayList<>();
+    List<BuildChange> buildChanges = new ArrayList<>();
+    if (previousResult == null)
+      return new ChangeSet(false, rs, fileChanges, buildChanges);
+
+    for (Requirement req : previousResult.getRequirements())
+      if (req instanceof FileRequirement) {
+        FileRequirement freq = (FileRequirement) req;
+        Stamp current = StampCache.stampOf(freq.stamp.getStamper(), freq.file);
+        if (!freq.stamp.equals(current))
+          fileChanges.add(new FileChange(freq.file, freq.stamp, current));
+      } else if (req instanceof BuildRequirement<?>) {
+        BuildChange change = buildChange((BuildRequirement<?>) req);
+        if (change != null)
+          buildChanges.add(change);
+      }
+    return new ChangeSet(true, rs, Collections.unmodifiableList(fileChanges), Collections.unmodifiableList(buildChanges));
+  }
+
+  private static <Out extends Output> BuildChange buildChange(BuildRequirement<Out> req) {
+    BuildRequest<?, Out, ?, ?> request = req.getRequest();
+    OutputStamp previous = req.getStamp();
+    if (request == null)
+      return new BuildChange(null, previous, null);
+    BuildUnit<Out> unit;
+    try {
+      unit = BuildUnit.read(request.createBuilder().persistentPath());
+    } catch (IOException e) {
+      unit = null;
+    }
+    if (unit == null || !unit.getGeneratedBy().deepEquals(request))
+      return new BuildChange(request, previous, null);
+    if (previous == null)
+      return null;
+    OutputStamp current = previous.getStamper().stampOf(unit.getBuildResult());
+    return previous.equals(current) ? null : new BuildChange(request, previous, current);
+  }
+
+  /**
+   * @return true if the unit was built before. Otherwise there are no changes
+   *         and the builder has to build everything.
+   */
+  public boolean hasPreviousBuild() {
+    return previousBuild;
+  }
+
+  /**
+   * @return the reasons why the build manager executed the builder.
+   */
+  public Set<BuildReason> getReasons() {
+    return reasons;
+  }
+
+  /**
+   * @return true if the previous results of the builder are only outdated by
+   *         the changed requirements. Otherwise, for example if the input of
+   *         the builder or its generated files changed, the builder should
+   *         build everything.
+   */
+  public boolean isIncremental() {
+    return previousBuild && reasons.size() == 1 && reasons.contains(BuildReason.InconsistentRequirement);
+  }
+
+  public List<FileChange> getFileChanges() {
+    return fileChanges;
+  }
+
+  public List<BuildChange> getBuildChanges() {
+    return buildChanges;
+  }
+
+  /**
+   * @return the files of all file changes.
+   */
+  public Set<File> getChangedFiles() {
+    Set<File> files = new LinkedHashSet<>();
+    for (FileChange change : fileChanges)
+      files.add(change.file);
+    return files;
+  }
+}
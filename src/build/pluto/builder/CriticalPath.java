@@ -0,0 +1,64 @@
+package build.pluto.builder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import build.pluto.BuildUnit;
+import build.pluto.util.TraceData;
+
+/**
+ * Orders independent requests by the length of their critical path, longest
+ * first. The length of the critical path of a request is estimated by the
+ * average total duration of its previous builds as traced by
+ * {@link build.pluto.util.TraceReporting}, which includes the time spent on
+ * its dependencies. Requests without trace, for example because they were
+ * never built, are started first in their given order, since they may take
+ * arbitrarily long.
+ */
+class CriticalPath {
+
+  private static final long UNKNOWN = Long.MAX_VALUE;
+
+  private CriticalPath() {
+  }
+
+  /**
+   * @return the indices of the given requests, longest critical path first.
+   *         Requests with equal estimates stay in their given order.
+   */
+  static List<Integer> order(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    List<Integer> order = new ArrayList<>(reqs.size());
+    for (int i = 0; i < reqs.size(); i++)
+      order.add(i);
+    if (reqs.size() < 2)
+      return order;
+
+    final long[] estimates = new long[reqs.size()];
+    for (int i = 0; i < reqs.size(); i++)
+      estimates[i] = estimate(reqs.get(i));
+    Collections.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer i1, Integer i2) {
+        return Long.compare(estimates[i2], estimates[i1]);
+      }
+    });
+    return order;
+  }
+
+  /**
+   * @return the estimated duration in ms of requiring the given request, or
+   *         {@link #UNKNOWN}.
+   */
+  static long estimate(BuildRequest<?, ?, ?, ?> req) {
+    try {
+      BuildUnit<?> unit = BuildUnit.read(req.createBuilder().persistentPath());
+      TraceData trace = unit == null ? null : unit.getTrace();
+      return trace == null ? UNKNOWN : trace.totalDuration;
+    } catch (IOException e) {
+      return UNKNOWN;
+    }
+  }
+}
@@ -9,55 +9,90 @@ import build.pluto.util.UniteCollections.Supplier;
 
 public abstract class CycleDetectionStack<C, P> {
 
- protected List<C> callStack = new ArrayList<>();
-  
-  protected UniteCollections<C, List<C>> sccs = new UniteCollections<>(new Supplier<List<C>>() {
+  /**
+   * The call stack is local to the thread of the current build strand. Parallel
+   * strands start with a copy of the call stack of the strand that forked them
+   * (see {@link #fork()} and {@link #enter(CallStack)}), such that cycles through
+   * the forking requests are still detected.
+   */
+  private final ThreadLocal<CallStack<C>> callStacks = new ThreadLocal<CallStack<C>>() {
+    @Override
+    protected CallStack<C> initialValue() {
+      return new CallStack<>();
+    }
+  };
+
+  protected final UniteCollections<C, List<C>> sccs = new UniteCollections<>(new Supplier<List<C>>() {
     public ArrayList<C> get() {
       return new ArrayList<>();
     }
   });
-  
+
+  /**
+   * Forgets all sccs, which have been found by previous builds.
+   */
+  protected void reset() {
+    synchronized (sccs) {
+      sccs.clear();
+    }
+  }
+
+  protected CallStack<C> callStack() {
+    return callStacks.get();
+  }
+
   protected P push(C unit) {
+    CallStack<C> callStack = callStack();
     // Check whether unit is already on the stack
-    int index = this.callStack.indexOf(unit);
+    int index = callStack.indexOf(unit);
     if (index != -1) {
       unit = callStack.get(index);
-      // Then unite the sccs of all units from the top of the stack until
-      // the already existing occurence of unit
-      UniteCollections<C, List<C>>.Key scc = sccs.getOrCreate(unit);
-      for (int i = index+1; i < callStack.size(); i++) {
-        scc = sccs.uniteOrAdd(scc, callStack.get(i));
+      List<C> members;
+      synchronized (sccs) {
+        // Then unite the sccs of all units from the top of the stack until
+        // the already existing occurence of unit
+        UniteCollections<C, List<C>>.Key scc = sccs.getOrCreate(unit);
+        for (int i = index + 1; i < callStack.size(); i++) {
+          scc = sccs.uniteOrAdd(scc, callStack.get(i));
+        }
+        members = new ArrayList<>(sccs.getSetMembers(scc));
       }
       // Subclasses decide what to return
-      return cycleResult(unit, sccs.getSetMembers(scc));
+      return cycleResult(unit, members);
     } else {
-      sccs.getOrCreate(unit);
+      synchronized (sccs) {
+        sccs.getOrCreate(unit);
+      }
     }
     // No cycle, put unit on the stack
-    this.callStack.add(unit);
+    callStack.push(unit);
     return noCycleResult();
   }
-  
+
   protected abstract P cycleResult(C call, List<C> scc);
   protected abstract P noCycleResult();
-  
+
   public int getNumContains(C elem) {
     int num = 0;
-    for (C p  : callStack) {
+    for (C p : callStack()) {
       if (p.equals(elem)) {
         num ++;
       }
     }
     return num;
   }
-  
+
+  public boolean contains(C elem) {
+    return callStack().contains(elem);
+  }
+
   protected void pop(C required) {
-    C poppedEntry = callStack.remove(callStack.size()-1);
+    C poppedEntry = callStack().pop();
     assert poppedEntry.equals(required) : "Got the wrong build stack entry from the stack";
   }
-  
+
   protected C topMostEntry(Collection<C> reqs) {
-    for (C r : this.callStack) {
+    for (C r : callStack()) {
       if (reqs.contains(r)) {
         return r;
       }
@@ -65,4 +100,37 @@ public abstract class CycleDetectionStack<C, P> {
     return null;
   }
 
+  /**
+   * Unites the sccs of all given units, for cycles which span multiple build
+   * strands and hence cannot be detected on a single call stack.
+   */
+  protected List<C> unite(List<C> units) {
+    synchronized (sccs) {
+      UniteCollections<C, List<C>>.Key scc = sccs.getOrCreate(units.get(0));
+      for (int i = 1; i < units.size(); i++)
+        scc = sccs.uniteOrAdd(scc, units.get(i));
+      return new ArrayList<>(sccs.getSetMembers(scc));
+    }
+  }
+
+  /**
+   * @return a snapshot of the call stack of the current strand, used as the
+   *         initial call stack of a forked strand.
+   */
+  protected CallStack<C> fork() {
+    return new CallStack<>(callStack());
+  }
+
+  /**
+   * Installs the given call stack for the current thread.
+   *
+   * @return the previously installed call stack, which needs to be restored
+   *         with another call to enter when the strand finishes.
+   */
+  protected CallStack<C> enter(CallStack<C> stack) {
+    CallStack<C> old = callStacks.get();
+    callStacks.set(stack);
+    return old;
+  }
+
 }
@@ -3,9 +3,12 @@ package build.pluto.builder;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.ArrayDeque;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -23,48 +26,187 @@ import build.pluto.dependency.DuplicateFileGenerationException;
 import build.pluto.dependency.FileRequirement;
 import build.pluto.dependency.IllegalDependencyException;
 import build.pluto.dependency.Requirement;
+import build.pluto.dependency.database.MemoryDatabase;
 import build.pluto.dependency.database.MultiMapDatabase;
 import build.pluto.output.Output;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.ValueStamp;
 import build.pluto.util.AbsoluteComparedFile;
 import build.pluto.util.IReporting;
 
 public class DynamicAnalysis implements AutoCloseable {
+  /**
+   * Key in the required-by index for units with requirements other than file
+   * and build requirements, which cannot be indexed by file.
+   */
+  public static final File UNINDEXED_REQUIREMENTS = new File("<unindexed>");
+
   private final MultiMapDatabase<File, File> genBy;
+  private final MultiMapDatabase<File, File> requiredBy;
   private final IReporting report;
   private Map<File, BuildUnit<?>> generatedFiles;
   private Map<Output, BuildUnit<?>> generatedOutput;
+  private Set<File> indexedUnits;
 
   public DynamicAnalysis(IReporting report, MultiMapDatabase<File, File> genBy) {
+    this(report, genBy, new MemoryDatabase<File, File>());
+  }
+
+  public DynamicAnalysis(IReporting report, MultiMapDatabase<File, File> genBy, MultiMapDatabase<File, File> requiredBy) {
     this.genBy = genBy;
+    this.requiredBy = requiredBy;
     this.report = report;
     this.generatedFiles = new HashMap<>();
     this.generatedOutput = new HashMap<>();
+    this.indexedUnits = new HashSet<>();
   }
 
   @Override
   public void close() throws IOException {
     genBy.close();
+    requiredBy.close();
   }
 
-  public void resetAnalysis() throws IOException {
+  public synchronized void resetAnalysis() throws IOException {
     genBy.clear();
+    requiredBy.clear();
+    indexedUnits.clear();
+  }
+
+  /**
+   * Forgets the units of previous builds, which are used to detect hidden
+   * dependencies and overlapping generated files within a build. Otherwise, a
+   * long-lived analysis would keep all units of all builds in memory.
+   */
+  public synchronized void resetSession() {
+    generatedFiles.clear();
+    generatedOutput.clear();
+    indexedUnits.clear();
+  }
+
+  /**
+   * @return whether the analysis holds units of builds since the last
+   *         {@link #resetSession()}.
+   */
+  public synchronized boolean hasSessionState() {
+    return !generatedFiles.isEmpty() || !generatedOutput.isEmpty() || !indexedUnits.isEmpty();
   }
 
-  public Collection<File> getGenBy(File generated) throws IOException {
+  public synchronized Collection<File> getGenBy(File generated) throws IOException {
     return genBy.get(generated);
   }
 
-  public void reset(BuildUnit<?> unit) throws IOException {
+  /**
+   * @return the persistent paths of all units which have a file requirement on
+   *         the given file, or a build requirement on the unit with the given
+   *         persistent path.
+   */
+  public synchronized Collection<File> getRequiredBy(File required) throws IOException {
+    return requiredBy.get(required.getAbsoluteFile());
+  }
+
+  /**
+   * Computes the persistent paths of all units which may be inconsistent after
+   * the given files changed: the units which generated or require a changed
+   * file, all units with unindexed requirements, and transitively all units
+   * which require one of those units.
+   */
+  public synchronized Set<File> getAffectedUnits(Collection<File> changedFiles) throws IOException {
+    Set<File> affected = new LinkedHashSet<>();
+    Deque<File> required = new ArrayDeque<>();
+    for (File file : changedFiles) {
+      file = file.getAbsoluteFile();
+      required.add(file);
+      for (File unit : genBy.get(file))
+        if (affected.add(unit.getAbsoluteFile()))
+          required.add(unit.getAbsoluteFile());
+    }
+    for (File unit : requiredBy.get(UNINDEXED_REQUIREMENTS))
+      if (affected.add(unit))
+        required.add(unit);
+
+    while (!required.isEmpty())
+      for (File unit : requiredBy.get(required.poll()))
+        if (affected.add(unit))
+          required.add(unit);
+    return affected;
+  }
+
+  /**
+   * Adds the requirements of the given unit to the required-by index.
+   */
+  public synchronized void index(BuildUnit<?> unit) throws IOException {
+    File path = unit.getPersistentPath();
+    indexedUnits.add(path);
+    requiredBy.addForEach(requiredKeys(unit), path);
+  }
+
+  /**
+   * Adds the requirements of the given unit to the required-by index, unless
+   * the unit has already been indexed. Used for units which are consistent and
+   * hence not rebuilt, such that units persisted before the index existed get
+   * indexed too.
+   *
+   * The index records the version of the summary it indexed, such that later
+   * builds only read the index for units whose summary did not change.
+   */
+  public synchronized void ensureIndexed(BuildUnit<?> unit) throws IOException {
+    File path = unit.getPersistentPath();
+    if (indexedUnits.contains(path))
+      return;
+    if (!unit.isPersisted()) {
+      index(unit);
+      return;
+    }
+
+    File marker = indexedMarker(unit);
+    indexedUnits.add(path);
+    if (requiredBy.get(marker).isEmpty()) {
+      Set<File> keys = requiredKeys(unit);
+      keys.add(marker);
+      requiredBy.addForEach(keys, path);
+    }
+  }
+
+  /**
+   * Key in the required-by index which marks the given persisted unit as
+   * indexed in the version of its summary.
+   */
+  private static File indexedMarker(BuildUnit<?> unit) {
+    Stamp stamp = unit.stamp();
+    Object version = stamp instanceof ValueStamp<?> ? ((ValueStamp<?>) stamp).val : stamp.hashCode();
+    return new File("<indexed " + version + ">" + unit.getPersistentPath().getAbsolutePath());
+  }
+
+  private Set<File> requiredKeys(BuildUnit<?> unit) {
+    Set<File> keys = new HashSet<>();
+    for (Requirement req : unit.getRequirements())
+      if (req instanceof FileRequirement)
+        keys.add(((FileRequirement) req).file);
+      else if (req instanceof BuildRequirement<?>)
+        keys.add(((BuildRequirement<?>) req).getUnitPath());
+      else
+        keys.add(UNINDEXED_REQUIREMENTS);
+    return keys;
+  }
+
+  public synchronized void reset(BuildUnit<?> unit) throws IOException {
     if (unit != null) {
       Set<File> files = unit.getGeneratedFiles();
       genBy.removeForEach(files, unit.getPersistentPath());
       for (File f : files) {
         generatedFiles.remove(f);
       }
+      Set<File> keys = requiredKeys(unit);
+      if (unit.isPersisted())
+        keys.add(indexedMarker(unit));
+      requiredBy.removeForEach(keys, unit.getPersistentPath());
+      indexedUnits.remove(unit.getPersistentPath());
     }
   }
 
-  public void check(BuildUnit<?> unit, Integer inputHash) throws IOException {
+  public synchronized void check(BuildUnit<?> unit, Integer inputHash) throws IOException {
+    index(unit);
     checkInput(unit, inputHash);
     checkGeneratedFilesOverlap(unit);
     checkUnitDependency(unit);
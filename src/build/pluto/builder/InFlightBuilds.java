@@ -0,0 +1,150 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+
+/**
+ * Coordinates concurrent builds of different {@link BuildManager}s in the same
+ * process. Each build unit is built by at most one build manager at a time:
+ * a build manager that requires a unit, which another build manager is
+ * currently requiring, waits until the other build manager finished the unit
+ * and then reuses the result, which is found consistent.
+ *
+ * If waiting would close a cycle of build managers waiting for each other,
+ * the build manager does not wait but requires the unit itself.
+ */
+class InFlightBuilds {
+
+  static class Flight {
+    private final BuildManager owner;
+    // guarded by this
+    private int holds = 1;
+    private boolean landed;
+
+    private Flight(BuildManager owner) {
+      this.owner = owner;
+    }
+
+    private synchronized boolean reenter() {
+      if (landed)
+        return false;
+      holds++;
+      return true;
+    }
+
+    private synchronized boolean exit() {
+      if (--holds > 0)
+        return false;
+      landed = true;
+      notifyAll();
+      return true;
+    }
+
+    private synchronized boolean hasLanded() {
+      return landed;
+    }
+  }
+
+  private static final ConcurrentHashMap<File, Flight> flights = new ConcurrentHashMap<>();
+
+  // guarded by waiting
+  private static final Map<Thread, Flight> waiting = new HashMap<>();
+  private static final Map<Thread, BuildManager> waitingManagers = new HashMap<>();
+
+  private InFlightBuilds() {
+  }
+
+  /**
+   * Registers that the given build manager requires the unit with the given
+   * persistent path. Waits while another build manager requires the unit.
+   *
+   * @return the flight, which needs to be released after the unit was
+   *         required, or null if the build manager must not wait.
+   */
+  static Flight acquire(BuildManager manager, File dep) {
+    dep = dep.getAbsoluteFile();
+    while (true) {
+      Flight flight = new Flight(manager);
+      Flight other = flights.putIfAbsent(dep, flight);
+      if (other == null)
+        return flight;
+      if (other.owner == manager) {
+        if (other.reenter())
+          return other;
+        // The flight landed concurrently, it is removed soon
+        flights.remove(dep, other);
+        continue;
+      }
+      if (!await(manager, other))
+        return null;
+      flights.remove(dep, other);
+    }
+  }
+
+  static void release(File dep, Flight flight) {
+    if (flight != null && flight.exit())
+      flights.remove(dep.getAbsoluteFile(), flight);
+  }
+
+  /**
+   * @return false if the current thread did not wait because waiting would
+   *         deadlock or the thread was interrupted.
+   */
+  private static boolean await(BuildManager manager, final Flight other) {
+    Thread thread = Thread.currentThread();
+    synchronized (waiting) {
+      if (waitsFor(other.owner, manager, new HashSet<BuildManager>()))
+        return false;
+      waiting.put(thread, other);
+      waitingManagers.put(thread, manager);
+    }
+    try {
+      ForkJoinPool.managedBlock(new ManagedBlocker() {
+        @Override
+        public boolean block() throws InterruptedException {
+          synchronized (other) {
+            while (!other.landed)
+              other.wait();
+          }
+          return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return other.hasLanded();
+        }
+      });
+      return true;
+    } catch (InterruptedException e) {
+      // The interrupt is handled by the build manager
+      thread.interrupt();
+      return false;
+    } finally {
+      synchronized (waiting) {
+        waiting.remove(thread);
+        waitingManagers.remove(thread);
+      }
+    }
+  }
+
+  /**
+   * @return true if the given build manager waits for the other build manager
+   *         transitively.
+   */
+  private static boolean waitsFor(BuildManager manager, BuildManager other, Set<BuildManager> seen) {
+    if (manager == other)
+      return true;
+    if (!seen.add(manager))
+      return false;
+    for (Map.Entry<Thread, Flight> e : waiting.entrySet())
+      if (waitingManagers.get(e.getKey()) == manager && waitsFor(e.getValue().owner, other, seen))
+        return true;
+    return false;
+  }
+}
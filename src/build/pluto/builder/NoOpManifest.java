@@ -0,0 +1,160 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.BuildUnit.State;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.output.Out;
+import build.pluto.output.Output;
+import build.pluto.output.OutputPersisted;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
+
+/**
+ * A flat summary of a successful build of a root request: the stamps of all
+ * files required or generated by any unit of the build and the stamps of the
+ * summaries of all units. If all stamps still match, the build would be a
+ * no-op and the result of the root request can be returned without reading
+ * the graph of build units.
+ *
+ * Manifests are written only for graphs which consist of file and build
+ * requirements and whose results do not expire when deserialized.
+ */
+class NoOpManifest implements Serializable {
+
+  private static final long serialVersionUID = 3816410372914957268L;
+
+  /**
+   * Number of stamps checked sequentially by a single task.
+   */
+  private static final int CHECK_BATCH = 64;
+
+  private final BuildRequest<?, ?, ?, ?> request;
+  private final Output result;
+  private final ArrayList<File> files;
+  private final ArrayList<Stamp> stamps;
+
+  private NoOpManifest(BuildRequest<?, ?, ?, ?> request, Output result, ArrayList<File> files, ArrayList<Stamp> stamps) {
+    this.request = request;
+    this.result = result;
+    this.files = files;
+    this.stamps = stamps;
+  }
+
+  static File manifestPath(BuildRequest<?, ?, ?, ?> buildReq) {
+    return new File(buildReq.createBuilder().persistentPath().getAbsolutePath() + ".manifest");
+  }
+
+  /**
+   * Collects the manifest of the given root unit, or returns null if the
+   * consistency of its graph cannot be decided by stamps alone.
+   */
+  static NoOpManifest of(BuildRequest<?, ?, ?, ?> buildReq, BuildUnit<?> root) {
+    ArrayList<File> files = new ArrayList<>();
+    ArrayList<Stamp> stamps = new ArrayList<>();
+    for (BuildUnit<?> unit : root.getTransitiveModuleDependencies()) {
+      if (unit.getState() != State.SUCCESS || !unit.isPersisted() || mayExpire(unit.getBuildResult()))
+        return null;
+      files.add(unit.getPersistentPath());
+      stamps.add(unit.stamp());
+      for (FileRequirement freq : unit.getGeneratedFileRequirements()) {
+        files.add(freq.file);
+        stamps.add(freq.stamp);
+      }
+      for (Requirement req : unit.getRequirements())
+        if (req instanceof FileRequirement) {
+          files.add(((FileRequirement) req).file);
+          stamps.add(((FileRequirement) req).stamp);
+        } else if (!(req instanceof BuildRequirement))
+          return null;
+    }
+    return new NoOpManifest(buildReq, root.getBuildResult(), files, stamps);
+  }
+
+  private static boolean mayExpire(Output out) {
+    return out instanceof Out<?> && !(out instanceof OutputPersisted<?>);
+  }
+
+  /**
+   * Reads the manifest of the given request, or returns null if there is none
+   * or it is unreadable.
+   */
+  static NoOpManifest read(File path) {
+    if (!path.exists())
+      return null;
+    try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(path))) {
+      return (NoOpManifest) in.readObject();
+    } catch (IOException | ClassNotFoundException | ClassCastException e) {
+      return null;
+    }
+  }
+
+  void write(File path) throws IOException {
+    File tmp = new File(path.getPath() + ".tmp");
+    FileCommands.createFile(tmp.toPath());
+    try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp))) {
+      out.writeObject(this);
+    }
+    Files.move(tmp.toPath(), path.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  static void delete(File path) throws IOException {
+    Files.deleteIfExists(path.toPath());
+  }
+
+  /**
+   * @return the result of the root request if the manifest was written for an
+   *         equal request and all stamps match, and null otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  <Out_ extends Output> Out_ upToDateResult(BuildRequest<?, Out_, ?, ?> buildReq) {
+    if (!request.deepEquals(buildReq))
+      return null;
+    boolean upToDate = files.size() <= CHECK_BATCH ? new CheckStamps(0, files.size()).compute() : ForkJoinPool.commonPool().invoke(new CheckStamps(0, files.size()));
+    return upToDate ? (Out_) result : null;
+  }
+
+  private class CheckStamps extends RecursiveTask<Boolean> {
+    private static final long serialVersionUID = -6019813372390251373L;
+
+    private final int from;
+    private final int to;
+
+    CheckStamps(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected Boolean compute() {
+      if (to - from <= CHECK_BATCH) {
+        for (int i = from; i < to; i++)
+          if (!stamps.get(i).equals(StampCache.stampOf(stamps.get(i).getStamper(), files.get(i))))
+            return false;
+        return true;
+      }
+
+      int mid = (from + to) >>> 1;
+      CheckStamps left = new CheckStamps(from, mid);
+      left.fork();
+      boolean right = new CheckStamps(mid, to).compute();
+      return left.join() && right;
+    }
+  }
+}
@@ -0,0 +1,212 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import build.pluto.BuildUnit;
+import build.pluto.BuildUnit.InconsistenyReason;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.output.IgnoreOutputStamper;
+import build.pluto.output.None;
+import build.pluto.output.OutputStamp;
+import build.pluto.stamp.StampCache;
+import build.pluto.stamp.Stamper;
+import build.pluto.util.IReporting.BuildReason;
+
+/**
+ * Computes which units a build of a request would execute without executing
+ * any builder or writing any summary (see
+ * {@link BuildManager#wouldRebuild(BuildRequest)}).
+ *
+ * The persisted build graph is read first and all required and generated files
+ * are stamped concurrently. Then each unit is checked locally like the build
+ * manager checks it: its summary, its input, its generated files and its
+ * required files and build outputs. Finally, units which would rebuild taint
+ * the units which require their output or their generated files. Since the new
+ * output of a rebuilt unit is unknown without executing its builder, the
+ * result is an upper bound: a unit which requires a rebuilt unit is assumed to
+ * rebuild too, unless it ignores the output, the output is {@link None} or it
+ * does not require generated files of the rebuilt unit.
+ */
+class RebuildQuery {
+
+  private final Map<File, BuildUnit<?>> units = new LinkedHashMap<>();
+  private final Map<File, Set<BuildReason>> reasons = new HashMap<>();
+
+  /**
+   * The units which need to rebuild if the unit of the key rebuilds.
+   */
+  private final Map<File, List<File>> dependents = new HashMap<>();
+
+  private final List<File> files = new ArrayList<>();
+  private final List<Stamper> stampers = new ArrayList<>();
+
+  /**
+   * @return the persistent paths of the units which would be executed, in
+   *         the order they are reached from the given request, with the
+   *         reasons why.
+   */
+  Map<File, Set<BuildReason>> run(BuildRequest<?, ?, ?, ?> buildReq) throws IOException {
+    File root = buildReq.createBuilder().persistentPath();
+    BuildUnit<?> rootUnit = BuildUnit.read(root);
+    if (rootUnit == null)
+      return Collections.singletonMap(root, (Set<BuildReason>) new TreeSet<>(Collections.singleton(BuildReason.NoBuildSummary)));
+
+    if (!rootUnit.getGeneratedBy().deepEquals(buildReq))
+      reason(root, BuildReason.ChangedBuilderInput);
+    if (rootUnit.isExpired())
+      reason(root, BuildReason.ExpiredOutput);
+
+    readGraph(rootUnit);
+
+    StampCache.beginSession();
+    try {
+      StampCache.prestamp(files, stampers);
+      checkUnits();
+    } finally {
+      StampCache.endSession();
+    }
+    propagate();
+
+    Map<File, Set<BuildReason>> result = new LinkedHashMap<>();
+    for (File dep : units.keySet())
+      if (reasons.containsKey(dep))
+        result.put(dep, reasons.get(dep));
+    return result;
+  }
+
+  private void readGraph(BuildUnit<?> rootUnit) {
+    Deque<BuildUnit<?>> todo = new ArrayDeque<>();
+    units.put(rootUnit.getPersistentPath(), rootUnit);
+    todo.add(rootUnit);
+    while (!todo.isEmpty()) {
+      BuildUnit<?> unit = todo.remove();
+      for (FileRequirement freq : unit.getGeneratedFileRequirements())
+        prestamp(freq);
+      for (Requirement req : unit.getRequirements())
+        if (req instanceof FileRequirement)
+          prestamp((FileRequirement) req);
+        else if (req instanceof BuildRequirement<?>) {
+          BuildRequirement<?> breq = (BuildRequirement<?>) req;
+          BuildUnit<?> dep = breq.getUnit();
+          if (dep == null) {
+            units.put(breq.getUnitPath(), null);
+            reason(breq.getUnitPath(), BuildReason.NoBuildSummary);
+            continue;
+          }
+          File depPath = dep.getPersistentPath();
+          if (!dep.getGeneratedBy().deepEquals(breq.getRequest()))
+            reason(depPath, BuildReason.ChangedBuilderInput);
+          if (dependsOnOutput(breq))
+            dependent(depPath, unit.getPersistentPath());
+          if (!units.containsKey(depPath)) {
+            units.put(depPath, dep);
+            todo.add(dep);
+          }
+        }
+    }
+  }
+
+  private void checkUnits() {
+    Map<File, File> generators = new HashMap<>();
+    for (BuildUnit<?> unit : units.values())
+      if (unit != null)
+        for (File file : unit.getGeneratedFiles())
+          generators.put(file.getAbsoluteFile(), unit.getPersistentPath());
+
+    for (BuildUnit<?> unit : units.values()) {
+      if (unit == null)
+        continue;
+      File dep = unit.getPersistentPath();
+      InconsistenyReason localReason = unit.isConsistentNonrequirementsReason();
+      if (localReason != InconsistenyReason.NO_REASON)
+        reason(dep, BuildReason.from(localReason));
+
+      for (Requirement req : unit.getRequirements()) {
+        if (req instanceof FileRequirement) {
+          File generator = generators.get(((FileRequirement) req).file);
+          if (generator != null && !generator.equals(dep))
+            dependent(generator, dep);
+        }
+        if (!isConsistent(req))
+          reason(dep, BuildReason.InconsistentRequirement);
+      }
+    }
+  }
+
+  /**
+   * Taints all units which transitively depend on a unit that would rebuild.
+   */
+  private void propagate() {
+    Deque<File> todo = new ArrayDeque<>(reasons.keySet());
+    while (!todo.isEmpty()) {
+      List<File> deps = dependents.get(todo.remove());
+      if (deps == null)
+        continue;
+      for (File dep : deps) {
+        boolean rebuilds = reasons.containsKey(dep);
+        reason(dep, BuildReason.InconsistentRequirement);
+        if (!rebuilds)
+          todo.add(dep);
+      }
+    }
+  }
+
+  /**
+   * Checks the given requirement against the current state without requiring
+   * any unit. The output stamp of a build requirement is compared to the
+   * current output of the required unit.
+   */
+  private static boolean isConsistent(Requirement req) {
+    if (req instanceof BuildRequirement<?>) {
+      BuildRequirement<?> breq = (BuildRequirement<?>) req;
+      OutputStamp stamp = breq.getStamp();
+      BuildUnit<?> dep = breq.getUnit();
+      return dep != null && (stamp == null || stamp.equals(stamp.getStamper().stampOf(dep.getBuildResult())));
+    }
+    return req.isConsistent();
+  }
+
+  private static boolean dependsOnOutput(BuildRequirement<?> breq) {
+    OutputStamp stamp = breq.getStamp();
+    if (stamp == null || stamp.getStamper() instanceof IgnoreOutputStamper)
+      return false;
+    // Builders which produce no output produce no output when rebuilt either
+    return !(breq.getUnit().getBuildResult() instanceof None);
+  }
+
+  private void prestamp(FileRequirement freq) {
+    files.add(freq.file);
+    stampers.add(freq.stamp.getStamper());
+  }
+
+  private void reason(File dep, BuildReason reason) {
+    Set<BuildReason> depReasons = reasons.get(dep);
+    if (depReasons == null) {
+      depReasons = new TreeSet<>();
+      reasons.put(dep, depReasons);
+    }
+    depReasons.add(reason);
+  }
+
+  private void dependent(File dep, File dependent) {
+    List<File> deps = dependents.get(dep);
+    if (deps == null) {
+      deps = new ArrayList<>();
+      dependents.put(dep, deps);
+    }
+    deps.add(dependent);
+  }
+}
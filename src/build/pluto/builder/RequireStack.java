@@ -1,11 +1,12 @@
 package build.pluto.builder;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import build.pluto.util.AbsoluteComparedFile;
 import build.pluto.util.IReporting.BuildReason;
@@ -17,9 +18,17 @@ public class RequireStack extends CycleDetectionStack<BuildRequest<?, ?, ?, ?>,
   private final Set<BuildRequest<?, ?, ?, ?>> assumedUnits;
   
   public RequireStack() {
-    this.knownConsistentUnits = new HashSet<>();
-    this.knownInconsistentUnits = new HashMap<>();
-    this.assumedUnits = new HashSet<>();
+    this.knownConsistentUnits = Collections.newSetFromMap(new ConcurrentHashMap<BuildRequest<?, ?, ?, ?>, Boolean>());
+    this.knownInconsistentUnits = new ConcurrentHashMap<>();
+    this.assumedUnits = Collections.newSetFromMap(new ConcurrentHashMap<BuildRequest<?, ?, ?, ?>, Boolean>());
+  }
+
+  @Override
+  protected void reset() {
+    super.reset();
+    knownConsistentUnits.clear();
+    knownInconsistentUnits.clear();
+    assumedUnits.clear();
   }
 
   public void beginRebuild(BuildRequest<?, ?, ?, ?> dep, Set<BuildReason> reason) {
@@ -38,23 +47,28 @@ public class RequireStack extends CycleDetectionStack<BuildRequest<?, ?, ?, ?>,
     return knownInconsistentUnits.get(aDep);
   }
 
+  private List<BuildRequest<?, ?, ?, ?>> cyclicRequests(BuildRequest<?, ?, ?, ?> dep) {
+    synchronized (sccs) {
+      return new ArrayList<>(sccs.getSetMembers(dep));
+    }
+  }
+
   public boolean existsInconsistentCyclicRequest(BuildRequest<?, ?, ?, ?> dep) {
-    for (BuildRequest<?,?,?,?> req : sccs.getSetMembers(dep))
+    for (BuildRequest<?,?,?,?> req : cyclicRequests(dep))
       if (knownInconsistentUnits.containsKey(req))
         return true;
     return false;
   }
 
   public boolean areAllOtherCyclicRequestsAssumed(BuildRequest<?, ?, ?, ?> dep) {
-    for (BuildRequest<?,?,?,?> req : sccs.getSetMembers(dep))
+    for (BuildRequest<?,?,?,?> req : cyclicRequests(dep))
       if (req != dep && !assumedUnits.contains(req))
         return false;
     return true;
   }
 
   public BuildCycle createCycleFor(BuildRequest<?, ?, ?, ?> dep) {
-    List<BuildRequest<?, ?, ?, ?>> deps = sccs.getSetMembers(sccs.getSet(dep));
-    return new BuildCycle(dep, deps);
+    return new BuildCycle(dep, cyclicRequests(dep));
   }
 
   public boolean isConsistent(BuildRequest<?, ?, ?, ?> dep) {
@@ -76,7 +90,7 @@ public class RequireStack extends CycleDetectionStack<BuildRequest<?, ?, ?, ?>,
   }
 
   public void markAllConsistent(BuildRequest<?, ?, ?, ?> dep) {
-    knownConsistentUnits.addAll(sccs.getSetMembers(dep));
+    knownConsistentUnits.addAll(cyclicRequests(dep));
   }
 
   public void markAssumed(BuildRequest<?, ?, ?, ?> dep) {
@@ -85,7 +99,7 @@ public class RequireStack extends CycleDetectionStack<BuildRequest<?, ?, ?, ?>,
 
   @Override
   protected Boolean cycleResult(BuildRequest<?, ?, ?, ?> call, List<BuildRequest<?, ?, ?, ?>> scc) {
-    this.callStack.add(call);
+    callStack().push(call);
     return true;
   }
 
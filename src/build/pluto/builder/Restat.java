@@ -0,0 +1,66 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import build.pluto.BuildUnit;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.Stamp;
+
+/**
+ * Early cutoff for files that are regenerated with identical content. Before a
+ * builder is executed again, the files it generated previously are hashed if
+ * they are unchanged since. When the builder provides such a file with the
+ * same content again, its previous modification time is restored, such that
+ * last-modified stamps of dependent units do not change and the dependents are
+ * not rebuilt.
+ */
+class Restat {
+
+  private static class Baseline {
+    final long lastModified;
+    final Stamp hash;
+
+    Baseline(long lastModified, Stamp hash) {
+      this.lastModified = lastModified;
+      this.hash = hash;
+    }
+  }
+
+  private final Map<File, Baseline> baselines = new HashMap<>();
+
+  private Restat() {
+  }
+
+  /**
+   * Hashes the files generated by the given previous unit which are stamped
+   * by last modification time and still have the stamp of the previous build.
+   */
+  static Restat of(BuildUnit<?> previousResult) {
+    Restat restat = new Restat();
+    if (previousResult == null)
+      return restat;
+    for (FileRequirement freq : previousResult.getGeneratedFileRequirements()) {
+      File file = freq.file.getAbsoluteFile();
+      if (freq.stamp.getStamper() instanceof LastModifiedStamper && file.isFile() && freq.stamp.equals(LastModifiedStamper.instance.stampOf(file)))
+        restat.baselines.put(file, new Baseline(file.lastModified(), FileHashStamper.instance.stampOf(file)));
+    }
+    return restat;
+  }
+
+  /**
+   * Restores the previous modification time of the given file, which has just
+   * been generated, if its content did not change.
+   */
+  void restore(File p) {
+    File file = p.getAbsoluteFile();
+    Baseline baseline = baselines.remove(file);
+    if (baseline == null || !file.isFile() || file.lastModified() == baseline.lastModified)
+      return;
+    if (baseline.hash.equals(FileHashStamper.instance.stampOf(file)))
+      file.setLastModified(baseline.lastModified);
+  }
+}
@@ -0,0 +1,152 @@
+package build.pluto.builder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+
+/**
+ * Continues deeply nested require calls on fresh threads. Each require call
+ * of a builder nests the Java call stack by several frames, hence long chains
+ * of dependencies overflow the stack of a single thread. After
+ * {@link BuildManager#MAX_NESTED_REQUIRES} nested require calls on the same
+ * thread, the next require call is executed on a new thread with a stack of
+ * {@link BuildManager#HOP_STACK_SIZE} bytes, while the current thread waits.
+ *
+ * The new thread continues the current build strand: it shares the call
+ * stacks, the strand and the starting time of the waiting thread. Since only
+ * one of both threads runs at a time, the build behaves as if the require call
+ * was executed on the current thread.
+ */
+class StackHops {
+
+  private final BuildManager manager;
+  private final RequireStack requireStack;
+  private final ExecutingStack executingStack;
+
+  /**
+   * Depth of the require stack when the current thread started to require.
+   */
+  private final ThreadLocal<Integer> baseDepth = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return 0;
+    }
+  };
+
+  StackHops(BuildManager manager, RequireStack requireStack, ExecutingStack executingStack) {
+    this.manager = manager;
+    this.requireStack = requireStack;
+    this.executingStack = executingStack;
+  }
+
+  /**
+   * @return true if the next require call should be executed on a fresh
+   *         stack.
+   */
+  boolean isDeep() {
+    return requireStack.callStack().size() - baseDepth.get() >= BuildManager.MAX_NESTED_REQUIRES;
+  }
+
+  /**
+   * Runs the given require call of the given request on a new thread and
+   * waits for it.
+   */
+  <T> T call(BuildRequest<?, ?, ?, ?> req, BuildStrands strands, Callable<T> requireCall) throws IOException {
+    Thread caller = Thread.currentThread();
+    BuildStrands.Strand strand = strands == null ? null : strands.currentStrand();
+    HopTask<T> task = new HopTask<>(requireCall, strand, strands, requireStack.callStack(), executingStack.callStack(), BuildManager.getStartingTimeOfBuildManager(caller));
+    Thread thread = new Thread(null, task, "pluto-require-" + requireStack.callStack().size(), BuildManager.HOP_STACK_SIZE);
+    thread.setDaemon(caller.isDaemon());
+
+    // Time spent on the new thread is not local to the builder
+    List<BuildRequest<?, ?, ?, ?>> reqs = Collections.<BuildRequest<?, ?, ?, ?>> singletonList(req);
+    manager.report.startedParallelRequirements(reqs);
+    try {
+      thread.start();
+      await(thread);
+    } finally {
+      manager.report.finishedParallelRequirements(reqs);
+    }
+
+    Throwable failure = task.failure;
+    if (failure == null)
+      return task.result;
+    else if (failure instanceof IOException)
+      throw (IOException) failure;
+    else if (failure instanceof RuntimeException)
+      throw (RuntimeException) failure;
+    else if (failure instanceof Error)
+      throw (Error) failure;
+    else
+      throw new RuntimeException(failure);
+  }
+
+  private void await(final Thread thread) {
+    boolean interrupted = false;
+    while (thread.isAlive())
+      try {
+        ForkJoinPool.managedBlock(new ManagedBlocker() {
+          @Override
+          public boolean block() throws InterruptedException {
+            thread.join();
+            return true;
+          }
+
+          @Override
+          public boolean isReleasable() {
+            return !thread.isAlive();
+          }
+        });
+      } catch (InterruptedException e) {
+        // Forward the interrupt to the thread which runs the builders now and
+        // wait for it to cancel them
+        interrupted = true;
+        thread.interrupt();
+      }
+    if (interrupted)
+      Thread.currentThread().interrupt();
+  }
+
+  private class HopTask<T> implements Runnable {
+    private final Callable<T> requireCall;
+    private final BuildStrands.Strand strand;
+    private final BuildStrands strands;
+    private final CallStack<BuildRequest<?, ?, ?, ?>> requireCalls;
+    private final CallStack<BuildRequest<?, ?, ?, ?>> executingCalls;
+    private final long startingTime;
+
+    private T result;
+    private Throwable failure;
+
+    HopTask(Callable<T> requireCall, BuildStrands.Strand strand, BuildStrands strands, CallStack<BuildRequest<?, ?, ?, ?>> requireCalls, CallStack<BuildRequest<?, ?, ?, ?>> executingCalls, long startingTime) {
+      this.requireCall = requireCall;
+      this.strand = strand;
+      this.strands = strands;
+      this.requireCalls = requireCalls;
+      this.executingCalls = executingCalls;
+      this.startingTime = startingTime;
+    }
+
+    @Override
+    public void run() {
+      Thread thread = Thread.currentThread();
+      requireStack.enter(requireCalls);
+      executingStack.enter(executingCalls);
+      baseDepth.set(requireCalls.size());
+      BuildManager.setStartingTimeOfBuildManager(thread, startingTime);
+      if (strands != null)
+        strands.enterStrand(strand);
+      try {
+        result = requireCall.call();
+      } catch (Throwable e) {
+        failure = e;
+      } finally {
+        // The thread terminates, forget its entry
+        BuildManager.setStartingTimeOfBuildManager(thread, 0l);
+      }
+    }
+  }
+}
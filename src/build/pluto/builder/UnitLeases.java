@@ -0,0 +1,287 @@
+package build.pluto.builder;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ManagedBlocker;
+import java.util.concurrent.atomic.AtomicLong;
+
+import build.pluto.FileSummaryStore;
+import build.pluto.PersistableEntity;
+import build.pluto.stamp.StampCache;
+
+/**
+ * Coordinates builds of different processes which share persistent paths. A
+ * process holds an advisory file lock on {@code <persistentPath>.lock} while
+ * it executes the builder of the unit, such that other processes wait for the
+ * unit and then check its fresh summary instead of building it again. Where
+ * summaries are not stored as files, the lock files are kept in
+ * {@link Builder#PLUTO_HOME} instead.
+ *
+ * The lock file names the process holding the lock and is deleted when the
+ * lock is released. A process which acquired the lock of a file that was
+ * deleted meanwhile retries on the current file.
+ *
+ * The lease registry in {@link Builder#PLUTO_HOME} names the lock files each
+ * process waits for. A process does not wait for a lock if the holder
+ * transitively waits for a lock of the waiting process, but executes the
+ * builder without lock instead.
+ */
+class UnitLeases {
+
+  static class Lease {
+    private final File lockFile;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final boolean waited;
+
+    private Lease(File lockFile, FileChannel channel, FileLock lock, boolean waited) {
+      this.lockFile = lockFile;
+      this.channel = channel;
+      this.lock = lock;
+      this.waited = waited;
+    }
+
+    /**
+     * @return true if another process held the lock before, and thus may have
+     *         built the unit meanwhile.
+     */
+    boolean waited() {
+      return waited;
+    }
+  }
+
+  private static final long MAX_POLL_MILLIS = 100;
+
+  /**
+   * The locked region lies behind the name of the holder, such that other
+   * processes can read the name even where locks are mandatory.
+   */
+  private static final long LOCK_POSITION = Long.MAX_VALUE - 1;
+
+  static final File REGISTRY = new File(Builder.PLUTO_HOME, "leases");
+
+  static final File LOCKS = new File(Builder.PLUTO_HOME, "locks");
+
+  static final String PROCESS = ManagementFactory.getRuntimeMXBean().getName().replaceAll("[^A-Za-z0-9.@-]", "_");
+
+  private static final AtomicLong leases = new AtomicLong();
+
+  // guarded by waits
+  private static final List<String> waits = new ArrayList<>();
+  private static boolean deleteOnExit;
+
+  private UnitLeases() {
+  }
+
+  static File lockFile(File dep) {
+    String path = dep.getAbsolutePath();
+    if (PersistableEntity.getSummaryStore() instanceof FileSummaryStore)
+      return new File(path + ".lock");
+    return new File(LOCKS, UUID.nameUUIDFromBytes(path.getBytes(StandardCharsets.UTF_8)) + ".lock");
+  }
+
+  /**
+   * Locks the unit with the given persistent path for this process. Waits
+   * while another process holds the lock.
+   *
+   * @return the lease, which needs to be released after the builder was
+   *         executed, or null if the unit could not be locked.
+   */
+  static Lease acquire(File dep) {
+    File lockFile = lockFile(dep);
+    boolean waited = false;
+    while (true) {
+      FileChannel channel = null;
+      try {
+        lockFile.getParentFile().mkdirs();
+        channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock = channel.tryLock(LOCK_POSITION, 1, false);
+        if (lock == null) {
+          waited = true;
+          lock = await(channel, lockFile);
+          // The other process changed the summary, which may be stamped already
+          StampCache.invalidate(dep);
+        }
+        if (lock == null) {
+          channel.close();
+          return null;
+        }
+
+        // The holder deletes the file before releasing the lock, hence the
+        // lock is only valid if the file is still in place, as shown by the
+        // unique name written to it
+        byte[] holder = (PROCESS + "#" + leases.incrementAndGet()).getBytes(StandardCharsets.UTF_8);
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(holder), 0);
+        channel.force(false);
+        if (Arrays.equals(holder, readBytes(lockFile)))
+          return new Lease(lockFile, channel, lock, waited);
+        closeQuietly(channel);
+      } catch (IOException | OverlappingFileLockException e) {
+        // Locking is advisory, build without lock
+        closeQuietly(channel);
+        return null;
+      }
+    }
+  }
+
+  static void release(Lease lease) {
+    if (lease == null)
+      return;
+    try {
+      Files.deleteIfExists(lease.lockFile.toPath());
+    } catch (IOException e) {
+      // Waiting processes retry on the existing file
+    }
+    try {
+      lease.lock.release();
+    } catch (IOException e) {
+      // Closing the channel releases the lock anyways
+    }
+    closeQuietly(lease.channel);
+  }
+
+  private static byte[] readBytes(File file) {
+    try {
+      return Files.readAllBytes(file.toPath());
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    if (channel != null)
+      try {
+        channel.close();
+      } catch (IOException e) {
+      }
+  }
+
+  private static FileLock await(final FileChannel channel, File lockFile) throws IOException {
+    final String path = lockFile.getAbsolutePath();
+    registerWait(path);
+    try {
+      final FileLock[] lock = new FileLock[1];
+      ForkJoinPool.managedBlock(new ManagedBlocker() {
+        long pollMillis = 1;
+
+        @Override
+        public boolean block() throws InterruptedException {
+          while (!isReleasable()) {
+            if (waitsForThisProcess(path))
+              return true;
+            Thread.sleep(pollMillis);
+            pollMillis = Math.min(2 * pollMillis, MAX_POLL_MILLIS);
+          }
+          return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+          if (lock[0] == null)
+            try {
+              lock[0] = channel.tryLock(LOCK_POSITION, 1, false);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          return lock[0] != null;
+        }
+      });
+      return lock[0];
+    } catch (InterruptedException e) {
+      // The interrupt is handled by the build manager
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (RuntimeException e) {
+      if (e.getCause() instanceof IOException)
+        throw (IOException) e.getCause();
+      throw e;
+    } finally {
+      unregisterWait(path);
+    }
+  }
+
+  /**
+   * @return true if the holder of the given lock file transitively waits for a
+   *         lock held by this process.
+   */
+  private static boolean waitsForThisProcess(String lockPath) {
+    Set<String> seen = new HashSet<>();
+    Deque<String> lockPaths = new ArrayDeque<>();
+    lockPaths.add(lockPath);
+    while (!lockPaths.isEmpty()) {
+      String holder = readHolder(lockPaths.remove());
+      if (holder == null || !seen.add(holder))
+        continue;
+      if (holder.equals(PROCESS))
+        return true;
+      lockPaths.addAll(readWaits(holder));
+    }
+    return false;
+  }
+
+  private static String readHolder(String lockPath) {
+    byte[] bytes = readBytes(new File(lockPath));
+    if (bytes == null || bytes.length == 0)
+      return null;
+    String holder = new String(bytes, StandardCharsets.UTF_8);
+    int lease = holder.indexOf('#');
+    return lease < 0 ? holder : holder.substring(0, lease);
+  }
+
+  private static List<String> readWaits(String process) {
+    try {
+      return Files.readAllLines(new File(REGISTRY, process).toPath(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      return new ArrayList<>();
+    }
+  }
+
+  private static void registerWait(String lockPath) throws IOException {
+    synchronized (waits) {
+      waits.add(lockPath);
+      writeWaits();
+    }
+  }
+
+  private static void unregisterWait(String lockPath) throws IOException {
+    synchronized (waits) {
+      waits.remove(lockPath);
+      writeWaits();
+    }
+  }
+
+  private static void writeWaits() throws IOException {
+    File file = new File(REGISTRY, PROCESS);
+    if (waits.isEmpty()) {
+      Files.deleteIfExists(file.toPath());
+      return;
+    }
+    REGISTRY.mkdirs();
+    if (!deleteOnExit) {
+      file.deleteOnExit();
+      deleteOnExit = true;
+    }
+    File tmp = new File(REGISTRY, PROCESS + ".tmp");
+    Files.write(tmp.toPath(), waits, StandardCharsets.UTF_8);
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+}
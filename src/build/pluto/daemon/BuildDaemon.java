@@ -0,0 +1,198 @@
+package build.pluto.daemon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.Builder;
+import build.pluto.output.Output;
+import build.pluto.stamp.FileChangeJournal;
+import build.pluto.util.IReporting;
+import build.pluto.util.LogReporting;
+import build.pluto.util.TraceReporting;
+
+/**
+ * A long-lived build process, which keeps a {@link BuildManager} with its
+ * dynamic analysis, the in-memory cache of build units and the loaded builder
+ * classes alive between builds. Clients send requests through a
+ * {@link BuildDaemonClient} over a socket on the loopback interface.
+ *
+ * The daemon announces its port and an access token in a file next to the
+ * database of its build manager. Only clients which can read that file can
+ * send requests. Requests are handled one after another.
+ */
+public class BuildDaemon implements Runnable, AutoCloseable {
+
+  /**
+   * Whether new daemons install a {@link FileChangeJournal}, such that
+   * unchanged files are not stamped again by later builds. The journal only
+   * remembers stamps if the platform's watch service delivers events in order.
+   */
+  public static boolean WATCH_FILES = true;
+
+  private final IReporting report;
+  private final BuildManager manager;
+  private final ServerSocket socket;
+  private final File portFile;
+  private final String token;
+  private volatile boolean closed;
+
+  public BuildDaemon(String path) throws IOException {
+    this(new TraceReporting(new LogReporting()), path);
+  }
+
+  public BuildDaemon(IReporting report, String path) throws IOException {
+    this.report = report;
+    this.manager = new BuildManager(report, path);
+    this.socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    this.portFile = portFile(path);
+    this.token = Long.toHexString(new SecureRandom().nextLong());
+    if (WATCH_FILES)
+      FileChangeJournal.install(new File(Builder.PLUTO_HOME, path + ".journal"));
+    writePortFile();
+  }
+
+  static File portFile(String path) {
+    return new File(Builder.PLUTO_HOME, path + ".daemon");
+  }
+
+  private void writePortFile() throws IOException {
+    FileCommands.createFile(portFile.toPath());
+    try {
+      Files.setPosixFilePermissions(portFile.toPath(), PosixFilePermissions.fromString("rw-------"));
+    } catch (UnsupportedOperationException e) {
+      // no POSIX file system, rely on the permissions of the pluto home
+    }
+    FileCommands.writeToFile(portFile, socket.getLocalPort() + " " + token);
+  }
+
+  public int getPort() {
+    return socket.getLocalPort();
+  }
+
+  public BuildManager getManager() {
+    return manager;
+  }
+
+  @Override
+  public void run() {
+    report.messageFromSystem("Build daemon listening on port " + getPort(), false, 0);
+    while (!closed) {
+      try (Socket client = socket.accept()) {
+        serve(client);
+      } catch (IOException e) {
+        if (!closed)
+          report.messageFromSystem("Build daemon failed to serve client: " + e.getMessage(), true, 0);
+      }
+    }
+  }
+
+  private void serve(Socket client) throws IOException {
+    ObjectInputStream in = new ObjectInputStream(client.getInputStream());
+    // Check the token before deserializing any object of the client
+    if (!token.equals(in.readUTF()))
+      throw new IOException("Client sent wrong access token");
+
+    DaemonResponse response;
+    try {
+      response = handle((DaemonRequest) in.readObject());
+    } catch (ClassNotFoundException e) {
+      response = new DaemonResponse(null, null, e);
+    }
+    client.getOutputStream().write(serialize(response));
+    client.getOutputStream().flush();
+
+    if (closed)
+      shutdown();
+  }
+
+  private DaemonResponse handle(DaemonRequest request) {
+    try {
+      switch (request.kind) {
+      case SHUTDOWN:
+        closed = true;
+        return new DaemonResponse(null, null, null);
+      case BUILD_CHANGED:
+        try {
+          manager.resetSession();
+          Set<File> affected = manager.requireChanged(request.changedFiles);
+          return new DaemonResponse(null, affected, null);
+        } finally {
+          // Do not keep the units of this build in memory until the next one
+          manager.resetSession();
+        }
+      case BUILD:
+        try {
+          manager.resetSession();
+          List<Output> outputs = new ArrayList<>();
+          for (BuildRequest<?, ?, ?, ?> buildReq : request.buildReqs)
+            outputs.add(manager.requireInitiallyResult(buildReq));
+          return new DaemonResponse(outputs, null, null);
+        } finally {
+          manager.resetSession();
+        }
+      default:
+        throw new IllegalArgumentException("Unknown request " + request.kind);
+      }
+    } catch (Throwable e) {
+      return new DaemonResponse(null, null, e);
+    }
+  }
+
+  /**
+   * Serializes the response up front, such that a response which cannot be
+   * serialized can be replaced by a plain failure.
+   */
+  private byte[] serialize(DaemonResponse response) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(response);
+    } catch (IOException e) {
+      String message = response.failure != null ? response.failure.toString() : e.toString();
+      bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(new DaemonResponse(null, null, new IOException("Build daemon could not send result: " + message)));
+      }
+    }
+    return bytes.toByteArray();
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    shutdown();
+  }
+
+  private synchronized void shutdown() throws IOException {
+    if (socket.isClosed())
+      return;
+    socket.close();
+    Files.deleteIfExists(portFile.toPath());
+    if (WATCH_FILES)
+      FileChangeJournal.uninstall();
+    manager.close();
+    report.messageFromSystem("Build daemon stopped", false, 0);
+  }
+
+  public static void main(String[] args) throws IOException {
+    String path = args.length > 0 ? args[0] : null;
+    try (BuildDaemon daemon = new BuildDaemon(path)) {
+      daemon.run();
+    }
+  }
+}
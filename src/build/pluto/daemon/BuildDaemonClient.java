@@ -0,0 +1,88 @@
+package build.pluto.daemon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.output.Output;
+
+/**
+ * Sends build requests to a running {@link BuildDaemon}. The builders of the
+ * requests must be available on the class path of the daemon.
+ */
+public class BuildDaemonClient {
+
+  private final int port;
+  private final String token;
+
+  private BuildDaemonClient(int port, String token) {
+    this.port = port;
+    this.token = token;
+  }
+
+  /**
+   * @return true if a daemon announced itself for the given build manager
+   *         path.
+   */
+  public static boolean isRunning(String path) {
+    return BuildDaemon.portFile(path).exists();
+  }
+
+  /**
+   * Connects to the daemon of the given build manager path (see
+   * {@link BuildDaemon#BuildDaemon(String)}).
+   */
+  public static BuildDaemonClient connect(String path) throws IOException {
+    File portFile = BuildDaemon.portFile(path);
+    if (!portFile.exists())
+      throw new IOException("No build daemon running for " + path);
+    String[] announcement = FileCommands.readFileAsString(portFile).trim().split(" ");
+    return new BuildDaemonClient(Integer.parseInt(announcement[0]), announcement[1]);
+  }
+
+  public <Out extends Output> Out build(BuildRequest<?, Out, ?, ?> buildReq) throws Throwable {
+    return buildAll(Collections.singletonList(buildReq)).get(0);
+  }
+
+  @SuppressWarnings("unchecked")
+  public <Out extends Output> List<Out> buildAll(List<? extends BuildRequest<?, Out, ?, ?>> buildReqs) throws Throwable {
+    return (List<Out>) send(DaemonRequest.build(buildReqs)).outputs;
+  }
+
+  /**
+   * @see build.pluto.builder.BuildManager#requireChanged(Collection)
+   */
+  public Set<File> buildChanged(Collection<File> changedFiles) throws Throwable {
+    return send(DaemonRequest.buildChanged(changedFiles)).affectedUnits;
+  }
+
+  public void shutdown() throws Throwable {
+    send(DaemonRequest.shutdown());
+  }
+
+  private DaemonResponse send(DaemonRequest request) throws Throwable {
+    DaemonResponse response;
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+      out.writeUTF(token);
+      out.writeObject(request);
+      out.flush();
+
+      ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+      response = (DaemonResponse) in.readObject();
+    }
+    if (response.failure != null)
+      throw response.failure;
+    return response;
+  }
+}
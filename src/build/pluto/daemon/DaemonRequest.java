@@ -0,0 +1,42 @@
+package build.pluto.daemon;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import build.pluto.builder.BuildRequest;
+
+/**
+ * A request sent from a {@link BuildDaemonClient} to a {@link BuildDaemon}.
+ */
+public class DaemonRequest implements Serializable {
+  private static final long serialVersionUID = -5287730547917163522L;
+
+  public static enum Kind {
+    BUILD, BUILD_CHANGED, SHUTDOWN
+  }
+
+  public final Kind kind;
+  public final List<BuildRequest<?, ?, ?, ?>> buildReqs;
+  public final List<File> changedFiles;
+
+  private DaemonRequest(Kind kind, List<BuildRequest<?, ?, ?, ?>> buildReqs, List<File> changedFiles) {
+    this.kind = kind;
+    this.buildReqs = buildReqs;
+    this.changedFiles = changedFiles;
+  }
+
+  public static DaemonRequest build(Collection<? extends BuildRequest<?, ?, ?, ?>> buildReqs) {
+    return new DaemonRequest(Kind.BUILD, new ArrayList<BuildRequest<?, ?, ?, ?>>(buildReqs), null);
+  }
+
+  public static DaemonRequest buildChanged(Collection<File> changedFiles) {
+    return new DaemonRequest(Kind.BUILD_CHANGED, null, new ArrayList<>(changedFiles));
+  }
+
+  public static DaemonRequest shutdown() {
+    return new DaemonRequest(Kind.SHUTDOWN, null, null);
+  }
+}
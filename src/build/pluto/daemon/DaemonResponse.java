@@ -0,0 +1,26 @@
+package build.pluto.daemon;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Set;
+
+import build.pluto.output.Output;
+
+/**
+ * The answer of a {@link BuildDaemon} to a {@link DaemonRequest}. Either
+ * contains the results of the request or the exception the build failed with.
+ */
+public class DaemonResponse implements Serializable {
+  private static final long serialVersionUID = 1944466251036766434L;
+
+  public final List<Output> outputs;
+  public final Set<File> affectedUnits;
+  public final Throwable failure;
+
+  public DaemonResponse(List<Output> outputs, Set<File> affectedUnits, Throwable failure) {
+    this.outputs = outputs;
+    this.affectedUnits = affectedUnits;
+    this.failure = failure;
+  }
+}
@@ -9,6 +9,7 @@ import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
 import java.util.Objects;
 
 import build.pluto.BuildUnit;
@@ -19,17 +20,41 @@ import build.pluto.output.Output;
 import build.pluto.output.OutputPersisted;
 import build.pluto.output.OutputStamp;
 
+/**
+ * A requirement on the output of another build unit. A deserialized
+ * requirement reads the required unit only on demand (see {@link #getUnit()}),
+ * such that reading a unit does not read the transitive units it requires.
+ *
+ * In compact summaries, the request is referenced by its digest (see
+ * {@link #fromDigest(File, boolean, byte[], OutputStamp)}) and recovered from
+ * the summary of the required unit.
+ */
 public class BuildRequirement<Out extends Output> implements Requirement, Externalizable {
 
   private static final long serialVersionUID = -5059819155907677962L;
   
-  private BuildUnit<Out> unit;
+  private File unitPath;
+  private volatile BuildUnit<Out> unit;
   private boolean hasFailed;
-  private BuildRequest<?, Out, ?, ?> req;
+  private volatile BuildRequest<?, Out, ?, ?> req;
+  private byte[] requestDigest;
   private OutputStamp stamp;
 
   public BuildRequirement() { }
 
+  /**
+   * @return a requirement whose request is recovered from the required unit
+   *         on demand, if the request of the unit has the given digest.
+   */
+  public static BuildRequirement<?> fromDigest(File unitPath, boolean hasFailed, byte[] requestDigest, OutputStamp stamp) {
+    BuildRequirement<?> req = new BuildRequirement<>();
+    req.unitPath = unitPath;
+    req.hasFailed = hasFailed;
+    req.requestDigest = requestDigest;
+    req.stamp = stamp;
+    return req;
+  }
+
   public BuildRequirement(BuildUnit<Out> unit, BuildRequest<?, Out, ?, ?> req) {
     this(
         Objects.requireNonNull(unit, "unit"), 
@@ -42,6 +67,7 @@ public class BuildRequirement<Out extends Output> implements Requirement, Extern
   
   public BuildRequirement(BuildUnit<Out> unit, BuildRequest<?, Out, ?, ?> req, OutputStamp stamp) {
     this.unit = Objects.requireNonNull(unit, "unit");
+    this.unitPath = unit.getPersistentPath();
     this.req = Objects.requireNonNull(req, "request");
     this.stamp = stamp;
   }
@@ -64,21 +90,26 @@ public class BuildRequirement<Out extends Output> implements Requirement, Extern
     }
   }
 
-  protected boolean isHasFailed() {
+  public boolean isHasFailed() {
     return hasFailed;
   }
 
-  protected OutputStamp getStamp() {
+  public OutputStamp getStamp() {
     return stamp;
   }
 
   @Override
   public boolean isConsistent() {
+    BuildUnit<Out> unit = getUnit();
+    BuildRequest<?, Out, ?, ?> req = getRequest();
+    if (unit == null || req == null)
+      return false;
+
     boolean reqsEqual = unit.getGeneratedBy().deepEquals(req);
     if (!reqsEqual)
       return false;
     
-    boolean stampOK = stamp == null || stamp.equals(stamp.getStamper().stampOf(this.unit.getBuildResult()));
+    boolean stampOK = stamp == null || stamp.equals(stamp.getStamper().stampOf(unit.getBuildResult()));
     if (!stampOK)
       return false;
     
@@ -87,8 +118,13 @@ public class BuildRequirement<Out extends Output> implements Requirement, Extern
   
   @Override
   public boolean tryMakeConsistent(BuildUnitProvider manager) throws IOException {
+    BuildUnit<Out> unit = getUnit();
+    BuildRequest<?, Out, ?, ?> req = getRequest();
+    // The required unit was built for another request since
+    if (req == null)
+      return false;
     boolean wasFailed = hasFailed || unit != null && unit.hasFailed();
-    BuildUnit<Out> newUnit = manager.require(this.req, false).getUnit();
+    BuildUnit<Out> newUnit = manager.require(req, false).getUnit();
     hasFailed = newUnit.hasFailed();
 
     if (wasFailed && !hasFailed)
@@ -104,13 +140,17 @@ public class BuildRequirement<Out extends Output> implements Requirement, Extern
 
   @Override
   public String toString() {
-    return req.toString();
+    BuildRequest<?, Out, ?, ?> req = getRequest();
+    return req == null ? "BuildReq(" + unitPath + ")" : req.toString();
   }
 
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
-    out.writeObject(unit.getPersistentPath());
+    out.writeObject(unitPath);
     out.writeBoolean(hasFailed);
+    BuildRequest<?, Out, ?, ?> req = getRequest();
+    if (req == null)
+      throw new IOException("Cannot write requirement on " + unitPath + ", its request is unknown");
     out.writeObject(req);
     out.writeObject(stamp);
   }
@@ -118,20 +158,54 @@ public class BuildRequirement<Out extends Output> implements Requirement, Extern
   @Override
   @SuppressWarnings("unchecked")
   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-    File unitPath = (File) in.readObject();
-    unit = BuildUnit.read(unitPath);
-    if (unit == null)
-      throw new IOException("Could not read build unit " + unitPath);
+    unitPath = (File) in.readObject();
     hasFailed = in.readBoolean();
     req = (BuildRequest<?, Out, ?, ?>) in.readObject();
     stamp = (OutputStamp) in.readObject();
   }
 
+  /**
+   * @return the required unit, which is read on first access after
+   *         deserialization, or null if it cannot be read.
+   */
   public BuildUnit<Out> getUnit() {
+    BuildUnit<Out> unit = this.unit;
+    if (unit == null && unitPath != null)
+      try {
+        unit = BuildUnit.read(unitPath);
+        this.unit = unit;
+      } catch (IOException e) {
+        return null;
+      }
     return unit;
   }
 
+  public File getUnitPath() {
+    return unitPath;
+  }
+
+  /**
+   * @return the request of the required unit, or null if it was referenced by
+   *         a digest and the required unit has no summary or was built for
+   *         another request since.
+   */
   public BuildRequest<?, Out, ?, ?> getRequest() {
+    BuildRequest<?, Out, ?, ?> req = this.req;
+    if (req == null && requestDigest != null) {
+      BuildUnit<Out> unit = getUnit();
+      BuildRequest<?, Out, ?, ?> generatedBy = unit == null ? null : unit.getGeneratedBy();
+      if (generatedBy != null && Arrays.equals(requestDigest, generatedBy.digest()))
+        this.req = req = generatedBy;
+    }
     return req;
   }
+
+  /**
+   * @return the digest of the request (see {@link BuildRequest#digest()}).
+   */
+  public byte[] getRequestDigest() {
+    if (requestDigest == null)
+      requestDigest = req.digest();
+    return requestDigest;
+  }
 }
@@ -4,6 +4,8 @@ import java.io.File;
 
 import build.pluto.builder.BuildUnitProvider;
 import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
+import build.pluto.util.PathTable;
 
 public class FileRequirement implements Requirement {
   private static final long serialVersionUID = -8539311813637744518L;
@@ -12,13 +14,13 @@ public class FileRequirement implements Requirement {
   public final Stamp stamp;
   
   public FileRequirement(File file, Stamp stamp) {
-    this.file = file.getAbsoluteFile();
+    this.file = PathTable.intern(file);
     this.stamp = stamp;
   }
   
   @Override
   public boolean isConsistent() {
-    return stamp.equals(stamp.getStamper().stampOf(file));
+    return stamp.equals(StampCache.stampOf(stamp.getStamper(), file));
   }
   
   @Override
@@ -4,7 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import build.pluto.builder.Builder;
 import jetbrains.exodus.ByteIterable;
@@ -22,8 +24,28 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
   private final ComparableBinding keyBinding;
   private final ComparableBinding valBinding;
 
+  /**
+   * An environment can be opened only once per process, hence all databases
+   * with the same name share their environment and store.
+   */
+  private static class SharedEnvironment {
+    final String name;
+    final Environment env;
+    volatile Store store;
+    // guarded by environments
+    int users;
+
+    SharedEnvironment(String name, Environment env) {
+      this.name = name;
+      this.env = env;
+    }
+  }
+
+  private static final Map<String, SharedEnvironment> environments = new HashMap<>();
+
+  private final SharedEnvironment shared;
   private final Environment env;
-  private Store store;
+  private boolean closed;
 
   public static XodusDatabase<File, File> createFileDatabase(String path) {
     return new XodusDatabase<File, File>(path, FileByteIterableBinding.BINDING, FileByteIterableBinding.BINDING);
@@ -33,9 +55,18 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
     this.keyBinding = keyBinding;
     this.valBinding = valBinding;
 
-    final EnvironmentConfig config = new EnvironmentConfig();
-    this.env = Environments.newInstance(Builder.PLUTO_HOME + "/" + envName, config);
-    this.store = makeStore();
+    synchronized (environments) {
+      SharedEnvironment shared = environments.get(envName);
+      if (shared == null) {
+        final EnvironmentConfig config = new EnvironmentConfig();
+        shared = new SharedEnvironment(envName, Environments.newInstance(Builder.PLUTO_HOME + "/" + envName, config));
+        shared.store = makeStore(shared.env);
+        environments.put(envName, shared);
+      }
+      shared.users++;
+      this.shared = shared;
+      this.env = shared.env;
+    }
   }
 
   @Override
@@ -43,7 +74,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
     env.executeInTransaction(new TransactionalExecutable() {
       @Override
       public void execute(Transaction txn) {
-        store.add(txn, keyBinding.objectToEntry(key), valBinding.objectToEntry(val));
+        shared.store.add(txn, keyBinding.objectToEntry(key), valBinding.objectToEntry(val));
       }
     });
   }
@@ -54,7 +85,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
       @Override
       public void execute(Transaction txn) {
         for (V val : vals) {
-          store.add(txn, keyBinding.objectToEntry(key), valBinding.objectToEntry(val));
+          shared.store.add(txn, keyBinding.objectToEntry(key), valBinding.objectToEntry(val));
         }
       }
     });
@@ -66,7 +97,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
       @Override
       public void execute(Transaction txn) {
         for (K key : keys) {
-          store.add(txn, keyBinding.objectToEntry(key), valBinding.objectToEntry(val));
+          shared.store.add(txn, keyBinding.objectToEntry(key), valBinding.objectToEntry(val));
         }
       }
     });
@@ -76,7 +107,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
   public boolean contains(K key, V val) throws IOException {
     final Transaction txn = env.beginReadonlyTransaction();
     try {
-      return store.get(txn, keyBinding.objectToEntry(key)) != null;
+      return shared.store.get(txn, keyBinding.objectToEntry(key)) != null;
     } finally {
       abortIfNotFinished(txn);
     }
@@ -88,7 +119,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
     final Transaction txn = env.beginReadonlyTransaction();
     try {
       List<V> result = new ArrayList<>();
-      try (Cursor cursor = store.openCursor(txn)) {
+      try (Cursor cursor = shared.store.openCursor(txn)) {
         final ByteIterable v = cursor.getSearchKey(keyBinding.objectToEntry(key));
         if (v != null) {
           result.add((V) valBinding.entryToObject(v));
@@ -108,7 +139,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
     env.executeInTransaction(new TransactionalExecutable() {
       @Override
       public void execute(Transaction txn) {
-        try (Cursor cursor = store.openCursor(txn)) {
+        try (Cursor cursor = shared.store.openCursor(txn)) {
           if (cursor.getSearchBoth(keyBinding.objectToEntry(key), valBinding.objectToEntry(val))) {
             cursor.deleteCurrent();
           }
@@ -122,7 +153,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
     env.executeInTransaction(new TransactionalExecutable() {
       @Override
       public void execute(Transaction txn) {
-        store.delete(txn, keyBinding.objectToEntry(key));
+        shared.store.delete(txn, keyBinding.objectToEntry(key));
       }
     });
   }
@@ -133,7 +164,7 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
     env.executeInTransaction(new TransactionalExecutable() {
       @Override
       public void execute(Transaction txn) {
-        try (Cursor cursor = store.openCursor(txn)) {
+        try (Cursor cursor = shared.store.openCursor(txn)) {
           for (K key : keys) {
             if (cursor.getSearchBoth(keyBinding.objectToEntry(key), valBytes)) {
               cursor.deleteCurrent();
@@ -146,16 +177,26 @@ public class XodusDatabase<K extends Comparable<K>, V extends Comparable<V>> imp
 
   @Override
   public void clear() throws IOException {
-    env.clear();
-    this.store = makeStore();
+    synchronized (shared) {
+      env.clear();
+      shared.store = makeStore(env);
+    }
   }
 
   @Override
   public void close() {
-    env.close();
+    synchronized (environments) {
+      if (closed)
+        return;
+      closed = true;
+      if (--shared.users == 0) {
+        environments.remove(shared.name);
+        env.close();
+      }
+    }
   }
 
-  private Store makeStore() {
+  private static Store makeStore(Environment env) {
     final Transaction transaction = env.beginTransaction();
     try {
       return env.openStore("pluto", StoreConfig.WITH_DUPLICATES_WITH_PREFIXING, transaction);
@@ -0,0 +1,205 @@
+package build.pluto.dependency.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import build.pluto.PersistableEntity;
+import build.pluto.SummaryStore;
+import build.pluto.builder.Builder;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.Stamper;
+import build.pluto.stamp.ValueStamp;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.bindings.LongBinding;
+import jetbrains.exodus.bindings.StringBinding;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.EnvironmentConfig;
+import jetbrains.exodus.env.Environments;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.StoreConfig;
+import jetbrains.exodus.env.Transaction;
+import jetbrains.exodus.env.TransactionalExecutable;
+
+/**
+ * Packs all summaries into a single Xodus environment in
+ * {@link Builder#PLUTO_HOME} instead of one file per summary. Summaries are
+ * keyed by the absolute persistent path and are versioned by a counter of the
+ * store instead of a file modification time.
+ *
+ * Written summaries are buffered and committed in batches of
+ * {@link #COMMIT_BATCH} summaries by a single transaction, and when the last
+ * build of this process ends (see {@link #flush()}). Buffered summaries are
+ * read from the buffer. Since the counter starts at a new epoch every time the
+ * store is opened, versions of summaries which were lost before their commit
+ * are never reused.
+ *
+ * An environment can be opened by a single process only.
+ */
+public class XodusSummaryStore implements SummaryStore, AutoCloseable {
+
+  /**
+   * Number of buffered summaries which are committed together.
+   */
+  public static int COMMIT_BATCH = 256;
+
+  private static final ByteIterable EPOCH_KEY = StringBinding.stringToEntry("");
+
+  /**
+   * Stamps summaries by their version in the current summary store.
+   */
+  public static class VersionStamper implements Stamper {
+    private static final long serialVersionUID = -7446309531627468346L;
+
+    public static final VersionStamper instance = new VersionStamper();
+
+    private VersionStamper() {
+    }
+
+    @Override
+    public Stamp stampOf(File p) {
+      SummaryStore store = PersistableEntity.getSummaryStore();
+      Long version = store instanceof XodusSummaryStore ? ((XodusSummaryStore) store).version(p) : null;
+      return new ValueStamp<>(this, version);
+    }
+
+    private Object readResolve() {
+      return instance;
+    }
+  }
+
+  private final Environment env;
+  private final Store summaries;
+  private final Store versions;
+
+  // guarded by this
+  private long version;
+  private final Map<String, byte[]> pendingSummaries = new LinkedHashMap<>();
+  private final Map<String, Long> pendingVersions = new LinkedHashMap<>();
+
+  public XodusSummaryStore(String name) {
+    this.env = Environments.newInstance(Builder.PLUTO_HOME + "/" + name, new EnvironmentConfig());
+    Transaction txn = env.beginTransaction();
+    try {
+      summaries = env.openStore("summaries", StoreConfig.WITHOUT_DUPLICATES, txn);
+      versions = env.openStore("versions", StoreConfig.WITHOUT_DUPLICATES, txn);
+      ByteIterable epoch = versions.get(txn, EPOCH_KEY);
+      long nextEpoch = epoch == null ? 1 : LongBinding.entryToLong(epoch) + 1;
+      versions.put(txn, EPOCH_KEY, LongBinding.longToEntry(nextEpoch));
+      version = nextEpoch << 32;
+    } finally {
+      txn.commit();
+    }
+  }
+
+  @Override
+  public boolean contains(File p) {
+    return version(p) != null;
+  }
+
+  @Override
+  public InputStream read(File p) throws IOException {
+    String key = key(p);
+    synchronized (this) {
+      if (pendingVersions.containsKey(key)) {
+        byte[] summary = pendingSummaries.get(key);
+        return summary == null ? null : new ByteArrayInputStream(summary);
+      }
+    }
+    Transaction txn = env.beginReadonlyTransaction();
+    try {
+      ByteIterable summary = summaries.get(txn, StringBinding.stringToEntry(key));
+      if (summary == null)
+        return null;
+      return new ByteArrayInputStream(Arrays.copyOf(summary.getBytesUnsafe(), summary.getLength()));
+    } finally {
+      txn.abort();
+    }
+  }
+
+  @Override
+  public void write(File p, byte[] summary) throws IOException {
+    buffer(key(p), summary);
+  }
+
+  @Override
+  public void delete(File p) throws IOException {
+    buffer(key(p), null);
+  }
+
+  private void buffer(String key, byte[] summary) {
+    boolean commit;
+    synchronized (this) {
+      pendingSummaries.put(key, summary);
+      pendingVersions.put(key, summary == null ? null : ++version);
+      commit = pendingVersions.size() >= COMMIT_BATCH;
+    }
+    if (commit)
+      flush();
+  }
+
+  /**
+   * @return the version of the summary at the given persistent path, or null
+   *         if there is no summary.
+   */
+  public Long version(File p) {
+    String key = key(p);
+    synchronized (this) {
+      if (pendingVersions.containsKey(key))
+        return pendingVersions.get(key);
+    }
+    Transaction txn = env.beginReadonlyTransaction();
+    try {
+      ByteIterable version = versions.get(txn, StringBinding.stringToEntry(key));
+      return version == null ? null : LongBinding.entryToLong(version);
+    } finally {
+      txn.abort();
+    }
+  }
+
+  @Override
+  public Stamper versionStamper(Stamper stamper) {
+    return VersionStamper.instance;
+  }
+
+  /**
+   * Commits all buffered summaries by a single transaction.
+   */
+  @Override
+  public synchronized void flush() {
+    if (pendingVersions.isEmpty())
+      return;
+    env.executeInTransaction(new TransactionalExecutable() {
+      @Override
+      public void execute(Transaction txn) {
+        for (Map.Entry<String, Long> e : pendingVersions.entrySet()) {
+          ByteIterable key = StringBinding.stringToEntry(e.getKey());
+          if (e.getValue() == null) {
+            summaries.delete(txn, key);
+            versions.delete(txn, key);
+          } else {
+            summaries.put(txn, key, new ArrayByteIterable(pendingSummaries.get(e.getKey())));
+            versions.put(txn, key, LongBinding.longToEntry(e.getValue()));
+          }
+        }
+      }
+    });
+    pendingSummaries.clear();
+    pendingVersions.clear();
+  }
+
+  @Override
+  public void close() {
+    flush();
+    env.close();
+  }
+
+  private static String key(File p) {
+    return p.getAbsolutePath();
+  }
+}
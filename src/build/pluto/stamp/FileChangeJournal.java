@@ -0,0 +1,282 @@
+package build.pluto.stamp;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.sugarj.common.Log;
+
+/**
+ * A journal of file changes based on a {@link WatchService}. The journal
+ * remembers the stamps of files, whose directory it watches, and reuses them
+ * until an event for the file is observed. Thus, files without events since
+ * the last build are not stamped again.
+ *
+ * The journal is only useful in long-lived processes, such as a build daemon,
+ * and only sound if the watch service of the platform reports all changes.
+ * Events are collected by {@link #pollEvents()} at the start of each build;
+ * changes made during a build are only recognized by the next build, except
+ * for files provided by builders, which are invalidated immediately.
+ *
+ * To know that all events before a build have been delivered, the journal
+ * creates a cookie file and waits for its event. This requires the watch
+ * service to deliver the events of all watched directories in the order of
+ * the changes, as the native services of Linux (inotify) and Windows do. Other
+ * watch services, notably the polling service used on macOS, scan each
+ * directory independently and may report the cookie before earlier changes.
+ * With such a service, the journal remembers no stamps and every file is
+ * stamped again. Changes on network file systems may not be reported by any
+ * watch service; do not install the journal for such files.
+ */
+public class FileChangeJournal implements AutoCloseable {
+
+  /**
+   * Time to wait until the watch service delivered all events of changes,
+   * which happened before a build started. If events take longer, all stamps
+   * are forgotten.
+   */
+  public static long SYNC_TIMEOUT_MILLIS = 2000;
+
+  /**
+   * Classes of the watch services known to deliver events in order.
+   */
+  private static final Set<String> ORDERED_WATCH_SERVICES = new HashSet<>(Arrays.asList("sun.nio.fs.LinuxWatchService", "sun.nio.fs.WindowsWatchService"));
+
+  private static volatile FileChangeJournal installed;
+
+  private static final Map<Class<?>, Boolean> statelessStampers = new ConcurrentHashMap<>();
+
+  private final WatchService watcher;
+  private final boolean ordered;
+  private final Path cookieDir;
+  private final Map<Path, WatchKey> watchedDirs = new ConcurrentHashMap<>();
+  private final Map<Path, Map<Class<?>, Stamp>> stamps = new ConcurrentHashMap<>();
+  private volatile long epoch;
+  private long cookies;
+
+  private FileChangeJournal(Path cookieDir) throws IOException {
+    this.watcher = FileSystems.getDefault().newWatchService();
+    this.ordered = ORDERED_WATCH_SERVICES.contains(watcher.getClass().getName());
+    if (!ordered)
+      Log.log.log("File change journal cannot synchronize with " + watcher.getClass().getName() + ", do not remember stamps", Log.DETAIL);
+    this.cookieDir = cookieDir;
+    Files.createDirectories(cookieDir);
+    cookieDir.register(watcher, ENTRY_CREATE);
+  }
+
+  /**
+   * Installs a journal for the current process, unless one is installed
+   * already.
+   *
+   * @param cookieDir
+   *          directory for temporary files used to synchronize with the watch
+   *          service.
+   */
+  public static synchronized FileChangeJournal install(File cookieDir) throws IOException {
+    if (installed == null)
+      installed = new FileChangeJournal(cookieDir.toPath().toAbsolutePath());
+    return installed;
+  }
+
+  public static synchronized void uninstall() throws IOException {
+    if (installed != null) {
+      installed.close();
+      installed = null;
+    }
+  }
+
+  public static FileChangeJournal installed() {
+    return installed;
+  }
+
+  /**
+   * @return whether this journal remembers stamps, which requires a watch
+   *         service that delivers events in order.
+   */
+  public boolean isRemembering() {
+    return ordered;
+  }
+
+  /**
+   * Stamps the given file with the given stamper, reusing the stamp of an
+   * earlier build if the installed journal observed no change of the file
+   * since.
+   */
+  public static Stamp stampOf(Stamper stamper, File file) {
+    FileChangeJournal journal = installed;
+    if (journal == null)
+      return stamper.stampOf(file);
+    return journal.journaledStampOf(stamper, file);
+  }
+
+  /**
+   * Forgets the stamps of the given file, which a builder just generated.
+   */
+  public static void invalidate(File file) {
+    FileChangeJournal journal = installed;
+    if (journal != null)
+      journal.stamps.remove(file.toPath().toAbsolutePath());
+  }
+
+  /**
+   * Forgets the stamps of all files changed since the last call. Called at the
+   * start of each build.
+   */
+  public static void pollEvents() {
+    FileChangeJournal journal = installed;
+    if (journal != null)
+      journal.poll();
+  }
+
+  private Stamp journaledStampOf(Stamper stamper, File file) {
+    Class<?> stamperClass = stamper.getClass();
+    if (!ordered || !isStateless(stamperClass))
+      return stamper.stampOf(file);
+
+    Path path = file.toPath().toAbsolutePath();
+    Map<Class<?>, Stamp> known = stamps.get(path);
+    Stamp stamp = known == null ? null : known.get(stamperClass);
+    if (stamp != null)
+      return stamp;
+
+    // Watch before stamping, such that later changes cause an event
+    long stampEpoch = epoch;
+    boolean watched = watch(path.getParent());
+    stamp = stamper.stampOf(file);
+    if (watched && !Files.isDirectory(path))
+      synchronized (this) {
+        if (stampEpoch == epoch) {
+          known = stamps.get(path);
+          if (known == null) {
+            known = new ConcurrentHashMap<>();
+            stamps.put(path, known);
+          }
+          known.put(stamperClass, stamp);
+        }
+      }
+    return stamp;
+  }
+
+  /**
+   * Stamps of stampers with state depend on that state; only stateless
+   * stampers are identified by their class.
+   */
+  static boolean isStateless(Class<?> stamperClass) {
+    Boolean stateless = statelessStampers.get(stamperClass);
+    if (stateless == null) {
+      stateless = true;
+      for (Class<?> c = stamperClass; c != null; c = c.getSuperclass())
+        for (Field f : c.getDeclaredFields())
+          if (!Modifier.isStatic(f.getModifiers()))
+            stateless = false;
+      statelessStampers.put(stamperClass, stateless);
+    }
+    return stateless;
+  }
+
+  private boolean watch(Path dir) {
+    if (dir == null)
+      return false;
+    if (watchedDirs.containsKey(dir))
+      return true;
+    try {
+      watchedDirs.put(dir, dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private synchronized void poll() {
+    if (!ordered)
+      return;
+    epoch++;
+    Path cookie = cookieDir.resolve("cookie-" + (cookies++));
+    try {
+      // All events before the creation of the cookie are delivered before the
+      // event of the cookie
+      Files.createFile(cookie);
+      long deadline = System.currentTimeMillis() + SYNC_TIMEOUT_MILLIS;
+      boolean synced = false;
+      while (!synced) {
+        WatchKey key = watcher.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        if (key == null) {
+          Log.log.log("File change journal did not receive events in time, forget all stamps", Log.DETAIL);
+          stamps.clear();
+          break;
+        }
+        synced = process(key, cookie);
+      }
+
+      WatchKey key;
+      while ((key = watcher.poll()) != null)
+        process(key, cookie);
+    } catch (IOException e) {
+      stamps.clear();
+    } catch (InterruptedException e) {
+      stamps.clear();
+      Thread.currentThread().interrupt();
+    } finally {
+      try {
+        Files.deleteIfExists(cookie);
+      } catch (IOException e) {
+        // the cookie is not needed anymore
+      }
+    }
+  }
+
+  /**
+   * Forgets the stamps of all files with events.
+   *
+   * @return true if the event of the given cookie was observed.
+   */
+  private boolean process(WatchKey key, Path cookie) {
+    Path dir = (Path) key.watchable();
+    boolean synced = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW)
+        forgetDirectory(dir);
+      else if (dir.equals(cookieDir))
+        synced |= cookie.getFileName().equals(event.context());
+      else
+        stamps.remove(dir.resolve((Path) event.context()));
+    }
+    if (!key.reset()) {
+      watchedDirs.remove(dir);
+      forgetDirectory(dir);
+    }
+    return synced;
+  }
+
+  private void forgetDirectory(Path dir) {
+    for (Iterator<Path> it = stamps.keySet().iterator(); it.hasNext();)
+      if (dir.equals(it.next().getParent()))
+        it.remove();
+  }
+
+  @Override
+  public void close() throws IOException {
+    watcher.close();
+    stamps.clear();
+    watchedDirs.clear();
+  }
+}
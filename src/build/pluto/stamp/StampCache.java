@@ -0,0 +1,236 @@
+package build.pluto.stamp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Memoizes the stamps of files during a build session, such that each file is
+ * stamped at most once per build, even if many units require it. Stamps are
+ * keyed by the stamper class and the absolute path of the file; only
+ * stateless stampers are memoized. Files provided by builders are
+ * invalidated.
+ *
+ * Last-modified stamps are filled in batches: when a second file of the same
+ * directory is stamped, the whole directory is scanned at once.
+ *
+ * Outside of a build session, files are stamped directly (or through the
+ * installed {@link FileChangeJournal}).
+ *
+ * Many files can be stamped up front on a bounded pool of I/O threads (see
+ * {@link #prestamp(List, List)}).
+ */
+public class StampCache {
+
+  private static final AtomicInteger sessions = new AtomicInteger();
+
+  private static final Map<Path, Map<Class<?>, Stamp>> stamps = new ConcurrentHashMap<>();
+  private static final Map<Path, AtomicInteger> directoryMisses = new ConcurrentHashMap<>();
+  /**
+   * Scanned directories with the entries the scan skipped.
+   */
+  private static final Map<Path, Set<Path>> scannedDirectories = new ConcurrentHashMap<>();
+
+  /**
+   * Number of files stamped sequentially by a single prestamp task.
+   */
+  private static final int PRESTAMP_BATCH = 16;
+
+  private static final int IO_PARALLELISM = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  private static volatile ForkJoinPool ioPool;
+
+  private StampCache() {
+  }
+
+  /**
+   * Starts a build session. Sessions may be nested or run concurrently; the
+   * stamps are forgotten when the first session starts and when the last
+   * session ends.
+   */
+  public static void beginSession() {
+    if (sessions.getAndIncrement() == 0)
+      clear();
+  }
+
+  public static void endSession() {
+    if (sessions.decrementAndGet() == 0)
+      clear();
+  }
+
+  private static void clear() {
+    stamps.clear();
+    directoryMisses.clear();
+    scannedDirectories.clear();
+  }
+
+  public static Stamp stampOf(Stamper stamper, File file) {
+    Class<?> stamperClass = stamper.getClass();
+    if (sessions.get() == 0 || !FileChangeJournal.isStateless(stamperClass))
+      return FileChangeJournal.stampOf(stamper, file);
+
+    Path path = file.toPath().toAbsolutePath();
+    Stamp stamp = lookup(path, stamperClass);
+    if (stamp != null)
+      return stamp;
+
+    Path dir = path.getParent();
+    if (stamperClass == LastModifiedStamper.class && dir != null) {
+      Set<Path> skipped = scannedDirectories.get(dir);
+      if (skipped == null && countMiss(dir) == 2 && scan(dir, stamper)) {
+        stamp = lookup(path, stamperClass);
+        if (stamp != null)
+          return stamp;
+        skipped = scannedDirectories.get(dir);
+      }
+      if (skipped != null && !skipped.contains(path))
+        // The file did not exist when the directory was scanned
+        return new ValueStamp<>(stamper, 0l);
+    }
+
+    stamp = FileChangeJournal.stampOf(stamper, file);
+    remember(path, stamperClass, stamp);
+    return stamp;
+  }
+
+  /**
+   * Stamps the given files concurrently with the stamper of the same index,
+   * such that subsequent calls of {@link #stampOf(Stamper, File)} during the
+   * current session find the stamps. Outside of a session and for stateful
+   * stampers, nothing is memoized and thus nothing is stamped.
+   */
+  public static void prestamp(List<File> files, List<Stamper> stampers) {
+    if (sessions.get() == 0)
+      return;
+    List<File> todo = new ArrayList<>(files.size());
+    List<Stamper> todoStampers = new ArrayList<>(files.size());
+    for (int i = 0; i < files.size(); i++) {
+      Stamper stamper = stampers.get(i);
+      Class<?> stamperClass = stamper.getClass();
+      if (FileChangeJournal.isStateless(stamperClass) && lookup(files.get(i).toPath().toAbsolutePath(), stamperClass) == null) {
+        todo.add(files.get(i));
+        todoStampers.add(stamper);
+      }
+    }
+    if (todo.size() <= PRESTAMP_BATCH)
+      return;
+    ioPool().invoke(new Prestamp(todo, todoStampers, 0, todo.size()));
+  }
+
+  private static ForkJoinPool ioPool() {
+    ForkJoinPool pool = ioPool;
+    if (pool == null)
+      synchronized (StampCache.class) {
+        pool = ioPool;
+        if (pool == null)
+          ioPool = pool = new ForkJoinPool(IO_PARALLELISM);
+      }
+    return pool;
+  }
+
+  private static class Prestamp extends RecursiveAction {
+    private static final long serialVersionUID = 5471391873340957725L;
+
+    private final List<File> files;
+    private final List<Stamper> stampers;
+    private final int from;
+    private final int to;
+
+    Prestamp(List<File> files, List<Stamper> stampers, int from, int to) {
+      this.files = files;
+      this.stampers = stampers;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= PRESTAMP_BATCH) {
+        for (int i = from; i < to; i++)
+          stampOf(stampers.get(i), files.get(i));
+        return;
+      }
+      int mid = (from + to) >>> 1;
+      invokeAll(new Prestamp(files, stampers, from, mid), new Prestamp(files, stampers, mid, to));
+    }
+  }
+
+  /**
+   * Forgets the stamps of the given file, which has just been written.
+   */
+  public static void invalidate(File file) {
+    Path path = file.toPath().toAbsolutePath();
+    stamps.remove(path);
+    if (path.getParent() != null)
+      scannedDirectories.remove(path.getParent());
+    FileChangeJournal.invalidate(file);
+  }
+
+  private static Stamp lookup(Path path, Class<?> stamperClass) {
+    Map<Class<?>, Stamp> known = stamps.get(path);
+    return known == null ? null : known.get(stamperClass);
+  }
+
+  private static void remember(Path path, Class<?> stamperClass, Stamp stamp) {
+    Map<Class<?>, Stamp> known = stamps.get(path);
+    if (known == null) {
+      known = new ConcurrentHashMap<>();
+      Map<Class<?>, Stamp> other = stamps.putIfAbsent(path, known);
+      if (other != null)
+        known = other;
+    }
+    known.put(stamperClass, stamp);
+  }
+
+  private static int countMiss(Path dir) {
+    AtomicInteger misses = directoryMisses.get(dir);
+    if (misses == null) {
+      misses = new AtomicInteger();
+      AtomicInteger other = directoryMisses.putIfAbsent(dir, misses);
+      if (other != null)
+        misses = other;
+    }
+    return misses.incrementAndGet();
+  }
+
+  /**
+   * Stamps all files of the given directory by their last modification time.
+   * Subdirectories are stamped recursively by the stamper, hence they are
+   * skipped and stamped on demand, like entries which could not be read.
+   */
+  private static boolean scan(Path dir, Stamper stamper) {
+    Set<Path> skipped = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+      for (Path entry : entries) {
+        Path path = entry.toAbsolutePath();
+        BasicFileAttributes attrs;
+        try {
+          attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+        } catch (IOException e) {
+          skipped.add(path);
+          continue;
+        }
+        if (attrs.isRegularFile())
+          remember(path, LastModifiedStamper.class, new ValueStamp<>(stamper, attrs.lastModifiedTime().toMillis()));
+        else
+          skipped.add(path);
+      }
+    } catch (IOException e) {
+      return false;
+    }
+    scannedDirectories.put(dir, skipped);
+    return true;
+  }
+}
@@ -1,5 +1,6 @@
 package build.pluto.util;
 
+import java.util.List;
 import java.util.Set;
 
 import build.pluto.BuildUnit;
@@ -44,6 +45,9 @@ public interface IReporting {
   public <O extends Output> void canceledBuilderInterrupt(BuildRequest<?, O, ?, ?> req, BuildUnit<O> unit);
   public <O extends Output> void canceledBuilderRequiredBuilderFailed(BuildRequest<?, O, ?, ?> req, BuildUnit<O> unit, RequiredBuilderFailed e);
 
+  public void startedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs);
+  public void finishedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs);
+
   public void startBuildCycle(BuildCycle cycle, CycleHandler cycleSupport);
   public void finishedBuildCycle(BuildCycle cycle, CycleHandler cycleSupport, Set<BuildUnit<?>> units);
   public void cancelledBuildCycleException(BuildCycle cycle, CycleHandler cycleSupport, Throwable t);
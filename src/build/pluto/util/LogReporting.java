@@ -1,5 +1,6 @@
 package build.pluto.util;
 
+import java.util.List;
 import java.util.Set;
 
 import org.sugarj.common.Log;
@@ -35,6 +36,16 @@ public class LogReporting implements IReporting {
     // nothing
   }
   
+  @Override
+  public void startedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    log.log("Require " + reqs.size() + " requests in parallel", Log.DETAIL);
+  }
+
+  @Override
+  public void finishedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    log.log("Finished " + reqs.size() + " parallel requests", Log.DETAIL);
+  }
+
   @Override
   public void inconsistentRequirement(Requirement req) {
     log.log("Requirement is inconsistent: " + req, Log.DETAIL);
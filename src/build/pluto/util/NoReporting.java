@@ -1,5 +1,6 @@
 package build.pluto.util;
 
+import java.util.List;
 import java.util.Set;
 
 import build.pluto.BuildUnit;
@@ -34,6 +35,14 @@ public class NoReporting implements IReporting {
   public <O extends Output> void skippedBuilder(BuildRequest<?, O, ?, ?> req, BuildUnit<O> unit) {
   }
 
+  @Override
+  public void startedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+  }
+
+  @Override
+  public void finishedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+  }
+
   @Override
   public <O extends Output> void canceledBuilderFailure(BuildRequest<?, O, ?, ?> req, BuildUnit<O> unit) {
   }
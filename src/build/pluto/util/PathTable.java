@@ -0,0 +1,67 @@
+package build.pluto.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares a single absolute {@link File} per path between the requirements and
+ * summaries of all units read or built by the process, such that a path
+ * required by many units is held in memory once. Each path has an int id,
+ * by which units store their file requirements (see {@link #id(File)}). Ids
+ * are never reused, hence the table is never cleared; it grows with the
+ * distinct paths of the process.
+ */
+public class PathTable {
+
+  private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+  // written while holding the class, published by the volatile write
+  private static volatile File[] files = new File[1024];
+  private static int size;
+
+  private PathTable() {
+  }
+
+  /**
+   * @return the id of the path of the given file.
+   */
+  public static int id(File file) {
+    File absolute = file.isAbsolute() ? file : file.getAbsoluteFile();
+    String path = absolute.getPath();
+    Integer id = ids.get(path);
+    if (id != null)
+      return id;
+    synchronized (PathTable.class) {
+      id = ids.get(path);
+      if (id != null)
+        return id;
+      File[] table = files;
+      if (size == table.length)
+        table = Arrays.copyOf(table, 2 * table.length);
+      table[size] = absolute;
+      files = table;
+      ids.put(path, size);
+      return size++;
+    }
+  }
+
+  /**
+   * @return the shared absolute file of the given id.
+   */
+  public static File file(int id) {
+    return files[id];
+  }
+
+  /**
+   * @return the shared absolute file of the given file.
+   */
+  public static File intern(File file) {
+    return file(id(file));
+  }
+
+  public static int size() {
+    return ids.size();
+  }
+}
@@ -0,0 +1,177 @@
+package build.pluto.util;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A digest of the structure of an object graph, in the sense of
+ * {@link com.cedarsoftware.util.DeepEquals}: objects are digested by their
+ * class and their non-transient fields, and the elements of sets and the
+ * entries of maps are digested independent of their iteration order. Hence,
+ * unlike a digest of the serialized object, the digest of an object and of its
+ * deserialized copy agree, even if they contain hash sets of objects with
+ * identity hash codes.
+ */
+public class StructuralDigest {
+
+  private static final Comparator<byte[]> BYTES_ORDER = new Comparator<byte[]>() {
+    @Override
+    public int compare(byte[] a, byte[] b) {
+      for (int i = 0; i < Math.min(a.length, b.length); i++)
+        if (a[i] != b[i])
+          return (a[i] & 0xff) - (b[i] & 0xff);
+      return a.length - b.length;
+    }
+  };
+
+  private final Map<Object, Integer> visited = new IdentityHashMap<>();
+  private final List<Object> visitOrder = new ArrayList<>();
+
+  private StructuralDigest() {
+  }
+
+  /**
+   * @return the SHA-1 digest of the structure of the given object.
+   */
+  public static byte[] of(Object o) {
+    return new StructuralDigest().digest(o);
+  }
+
+  private byte[] digest(Object o) {
+    MessageDigest md = newDigest();
+    update(md, o);
+    return md.digest();
+  }
+
+  private void update(MessageDigest md, Object o) {
+    if (o == null) {
+      md.update((byte) 'N');
+      return;
+    }
+
+    Class<?> c = o.getClass();
+    if (o instanceof String || o instanceof Number || o instanceof Boolean || o instanceof Character) {
+      update(md, 'V', c.getName());
+      update(md, 'V', o.toString());
+      return;
+    }
+    if (o instanceof File) {
+      update(md, 'F', ((File) o).getPath());
+      return;
+    }
+    if (o instanceof Enum<?>) {
+      update(md, 'E', ((Enum<?>) o).getDeclaringClass().getName());
+      update(md, 'E', ((Enum<?>) o).name());
+      return;
+    }
+    if (o instanceof Class<?>) {
+      update(md, 'C', ((Class<?>) o).getName());
+      return;
+    }
+
+    Integer ref = visited.get(o);
+    if (ref != null) {
+      update(md, 'R', ref.toString());
+      return;
+    }
+    visited.put(o, visitOrder.size());
+    visitOrder.add(o);
+
+    if (c.isArray()) {
+      update(md, 'A', c.getName());
+      int length = Array.getLength(o);
+      update(md, 'A', Integer.toString(length));
+      for (int i = 0; i < length; i++)
+        update(md, Array.get(o, i));
+    } else if (o instanceof Set<?>) {
+      update(md, 'S', "");
+      updateUnordered(md, (Set<?>) o);
+    } else if (o instanceof Map<?, ?>) {
+      update(md, 'M', "");
+      updateUnordered(md, ((Map<?, ?>) o).entrySet());
+    } else if (o instanceof Map.Entry<?, ?>) {
+      update(md, ((Map.Entry<?, ?>) o).getKey());
+      update(md, ((Map.Entry<?, ?>) o).getValue());
+    } else if (o instanceof Collection<?>) {
+      update(md, 'L', "");
+      for (Object e : (Collection<?>) o)
+        update(md, e);
+    } else {
+      update(md, 'O', c.getName());
+      for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass())
+        for (Field f : sortedFields(k))
+          try {
+            f.setAccessible(true);
+            update(md, f.get(o));
+          } catch (IllegalAccessException | RuntimeException e) {
+            // Inaccessible state, fall back to the hash code of the object
+            update(md, 'H', Integer.toString(o.hashCode()));
+            return;
+          }
+    }
+  }
+
+  /**
+   * Digests each element on its own and the sorted digests of the elements,
+   * such that the iteration order does not matter.
+   */
+  private void updateUnordered(MessageDigest md, Collection<?> elements) {
+    List<byte[]> digests = new ArrayList<>(elements.size());
+    int mark = visitOrder.size();
+    for (Object e : elements) {
+      MessageDigest element = newDigest();
+      update(element, e);
+      digests.add(element.digest());
+      // Objects first visited by one element are digested again by others
+      while (visitOrder.size() > mark)
+        visited.remove(visitOrder.remove(visitOrder.size() - 1));
+    }
+    digests.sort(BYTES_ORDER);
+    for (byte[] d : digests)
+      md.update(d);
+  }
+
+  private static List<Field> sortedFields(Class<?> c) {
+    List<Field> fields = new ArrayList<>();
+    for (Field f : c.getDeclaredFields())
+      if (!Modifier.isStatic(f.getModifiers()) && !Modifier.isTransient(f.getModifiers()))
+        fields.add(f);
+    fields.sort(new Comparator<Field>() {
+      @Override
+      public int compare(Field a, Field b) {
+        return a.getName().compareTo(b.getName());
+      }
+    });
+    return fields;
+  }
+
+  private static void update(MessageDigest md, char tag, String s) {
+    md.update((byte) tag);
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    md.update((byte) (bytes.length >>> 24));
+    md.update((byte) (bytes.length >>> 16));
+    md.update((byte) (bytes.length >>> 8));
+    md.update((byte) bytes.length);
+    md.update(bytes);
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
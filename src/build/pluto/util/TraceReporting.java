@@ -1,6 +1,7 @@
 package build.pluto.util;
 
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 import build.pluto.BuildUnit;
@@ -30,7 +31,13 @@ public class TraceReporting implements IReporting {
   
   private final IReporting report;
   
-  private LinkedList<FrameData> stack = new LinkedList<>();
+  // Builders of parallel build strands run on different threads
+  private final ThreadLocal<LinkedList<FrameData>> stacks = new ThreadLocal<LinkedList<FrameData>>() {
+    @Override
+    protected LinkedList<FrameData> initialValue() {
+      return new LinkedList<>();
+    }
+  };
   
   public TraceReporting(IReporting report) {
     this.report = report;
@@ -51,6 +58,7 @@ public class TraceReporting implements IReporting {
     long endTime = System.currentTimeMillis();
     report.startedBuilder(req, b, oldUnit, reasons);
     
+    LinkedList<FrameData> stack = stacks.get();
     FrameData frame = stack.peek();
     if (frame != null)
       frame.localDuration += endTime - frame.lastStart;
@@ -64,6 +72,7 @@ public class TraceReporting implements IReporting {
     report.finishedBuilder(req, unit);
     long endTime = System.currentTimeMillis();
     
+    LinkedList<FrameData> stack = stacks.get();
     FrameData frame = stack.pop();
     int localDuration = frame.localDuration + (int) (endTime - frame.lastStart);
     int totalDuration = (int) (endTime - frame.initialStart);
@@ -148,6 +157,26 @@ public class TraceReporting implements IReporting {
     report.canceledBuilderRequiredBuilderFailed(req, unit, e);
   }
 
+  @Override
+  public void startedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    long endTime = System.currentTimeMillis();
+    report.startedParallelRequirements(reqs);
+
+    // Time spent waiting for parallel strands is not local to the builder
+    FrameData frame = stacks.get().peek();
+    if (frame != null)
+      frame.localDuration += endTime - frame.lastStart;
+  }
+
+  @Override
+  public void finishedParallelRequirements(List<? extends BuildRequest<?, ?, ?, ?>> reqs) {
+    report.finishedParallelRequirements(reqs);
+    
+    FrameData frame = stacks.get().peek();
+    if (frame != null)
+      frame.lastStart = System.currentTimeMillis();
+  }
+
   @Override
   public void startBuildCycle(BuildCycle cycle, CycleHandler cycleSupport) {
     report.startBuildCycle(cycle, cycleSupport);
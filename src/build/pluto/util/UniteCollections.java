@@ -29,6 +29,11 @@ public class UniteCollections<T, C extends Collection<T>> {
     return repSetsMap.get(key);
   }
   
+  public void clear() {
+    repSetsMap.clear();
+    setMembership.clear();
+  }
+
   public Key createSet(T initial) {
     Key key = new Key();
     repSetsMap.put(key, collectionBuilder.get());
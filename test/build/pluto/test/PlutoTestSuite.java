@@ -8,14 +8,36 @@ import org.sugarj.common.Log;
 import build.pluto.test.build.BuildFailureTest;
 import build.pluto.test.build.BuildInterruptTest;
 import build.pluto.test.build.BuildManagerCycleDetectionTest;
+import build.pluto.test.build.ChangeDrivenBuildTest;
+import build.pluto.test.build.InterningTest;
+import build.pluto.test.build.KeepGoingTest;
+import build.pluto.test.build.LazyLoadingTest;
+import build.pluto.test.build.NoOpManifestTest;
 import build.pluto.test.build.RebuildInconsistentTest;
+import build.pluto.test.build.RebuildQueryTest;
+import build.pluto.test.build.batch.BatchBuildTest;
+import build.pluto.test.build.changeset.ChangeSetTest;
+import build.pluto.test.build.concurrent.ConcurrentBuildTest;
+import build.pluto.test.build.concurrent.CrossProcessBuildTest;
+import build.pluto.test.build.concurrent.SpeculativePrebuildTest;
 import build.pluto.test.build.cycle.fixpoint.test.FixpointCycleTestSuite;
 import build.pluto.test.build.cycle.once.test.CycleAtOnceBuilderTest;
 import build.pluto.test.build.cycle.once.test.NestedCycleAtOnceTest;
+import build.pluto.test.build.deep.DeepChainTest;
 import build.pluto.test.build.latexlike.LatexlikeTest;
 import build.pluto.test.build.output.OutputPersistedTest;
 import build.pluto.test.build.output.OutputTransientTest;
+import build.pluto.test.build.parallel.ParallelBuildTest;
+import build.pluto.test.build.restat.RestatTest;
+import build.pluto.test.build.summary.EntityCacheTest;
+import build.pluto.test.build.summary.PackedSummaryTest;
+import build.pluto.test.build.summary.SummaryCodecTest;
+import build.pluto.test.build.summary.SummaryWriteTest;
+import build.pluto.test.build.summary.WriteBehindSummaryTest;
+import build.pluto.test.daemon.BuildDaemonTest;
 import build.pluto.test.dependency.RemoteRequirementTest;
+import build.pluto.test.stamp.FileChangeJournalTest;
+import build.pluto.test.stamp.StampCacheTest;
 
 @RunWith(Suite.class)
 @SuiteClasses({
@@ -23,14 +45,36 @@ import build.pluto.test.dependency.RemoteRequirementTest;
   BuildFailureTest.class,
   BuildInterruptTest.class,
   BuildManagerCycleDetectionTest.class, 
+  ChangeDrivenBuildTest.class,
+  NoOpManifestTest.class,
   CycleAtOnceBuilderTest.class, 
   RebuildInconsistentTest.class, 
   FixpointCycleTestSuite.class,
   NestedCycleAtOnceTest.class,
+  DeepChainTest.class,
   LatexlikeTest.class,
   OutputPersistedTest.class,
   OutputTransientTest.class,
-  RemoteRequirementTest.class})
+  ParallelBuildTest.class,
+  ConcurrentBuildTest.class,
+  CrossProcessBuildTest.class,
+  SpeculativePrebuildTest.class,
+  RestatTest.class,
+  ChangeSetTest.class,
+  BatchBuildTest.class,
+  KeepGoingTest.class,
+  RemoteRequirementTest.class,
+  BuildDaemonTest.class,
+  FileChangeJournalTest.class,
+  StampCacheTest.class,
+  RebuildQueryTest.class,
+  SummaryWriteTest.class,
+  PackedSummaryTest.class,
+  LazyLoadingTest.class,
+  SummaryCodecTest.class,
+  WriteBehindSummaryTest.class,
+  EntityCacheTest.class,
+  InterningTest.class})
 public class PlutoTestSuite {
   static {
     Log.log.setLoggingLevel(Log.ALWAYS);
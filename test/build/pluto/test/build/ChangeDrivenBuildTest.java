@@ -0,0 +1,117 @@
+package build.pluto.test.build;
+
+import static build.pluto.test.build.Validators.executedFilesOf;
+import static build.pluto.test.build.Validators.requiredFilesOf;
+import static build.pluto.test.build.Validators.validateThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.dependency.database.MemoryDatabase;
+import build.pluto.dependency.database.MultiMapDatabase;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.test.build.once.SimpleRequirement;
+
+public class ChangeDrivenBuildTest extends SimpleBuildTest {
+
+  @Override
+  protected BuildRequest<?, ?, ?, ?> requirementForInput(TestBuilderInput input) {
+    return new SimpleRequirement(SimpleBuilder.factory, input);
+  }
+
+  /**
+   * Counts the transactions which add values for several keys, as used to
+   * index units.
+   */
+  private static class CountingDatabase extends MemoryDatabase<File, File> {
+    int writes;
+
+    @Override
+    public void addForEach(Collection<? extends File> keys, File val) throws IOException {
+      writes++;
+      super.addForEach(keys, val);
+    }
+  }
+
+  private MultiMapDatabase<File, File> genBy;
+  private CountingDatabase requiredBy;
+
+  private File mainFile;
+  private File dep1File;
+  private File dep2File;
+
+  @Before
+  public void makeConsistentState() throws IOException {
+    mainFile = getRelativeFile("main.txt");
+    dep1File = getRelativeFile("dep1.txt");
+    dep2File = getRelativeFile("dep2.txt");
+
+    genBy = new MemoryDatabase<>();
+    requiredBy = new CountingDatabase();
+    buildMainFile(new TrackingBuildManager(genBy, requiredBy));
+  }
+
+  @Test
+  public void testRebuildChangedOnly() throws Throwable {
+    FileCommands.writeToFile(dep2File, "Changed Content Dep 2");
+
+    TrackingBuildManager manager = new TrackingBuildManager(genBy, requiredBy);
+    manager.requireChanged(Collections.singleton(dep2File));
+
+    validateThat(executedFilesOf(manager).containsSameElements(dep2File));
+  }
+
+  @Test
+  public void testRebuildDependents() throws Throwable {
+    FileCommands.writeToFile(dep1File, "Content Dep 1\nDep:dep2.txt");
+
+    TrackingBuildManager manager = new TrackingBuildManager(genBy, requiredBy);
+    manager.requireChanged(Collections.singleton(dep1File));
+    validateThat(executedFilesOf(manager).containsSameElements(dep1File));
+
+    // dep1 requires dep2 now, hence changes of dep2 affect dep1 too
+    FileCommands.writeToFile(dep2File, "Changed Content Dep 2");
+    manager = new TrackingBuildManager(genBy, requiredBy);
+    manager.requireChanged(Collections.singleton(dep2File));
+    validateThat(executedFilesOf(manager).containsSameElements(dep2File));
+    validateThat(requiredFilesOf(manager).containsAll(mainFile, dep1File, dep2File));
+  }
+
+  @Test
+  public void testNoChanges() throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager(genBy, requiredBy);
+    manager.requireChanged(Collections.<File> emptySet());
+    validateThat(requiredFilesOf(manager).isEmpty());
+  }
+
+  @Test
+  public void testNoOpBuildKeepsIndex() throws Throwable {
+    // The first no-op build indexes the consistent units
+    buildMainFile(new TrackingBuildManager(genBy, requiredBy));
+
+    requiredBy.writes = 0;
+    TrackingBuildManager manager = new TrackingBuildManager(genBy, requiredBy);
+    buildMainFile(manager);
+    validateThat(executedFilesOf(manager).isEmpty());
+    assertEquals(0, requiredBy.writes);
+
+    // Only the rebuilt units are indexed again
+    FileCommands.writeToFile(dep2File, "Changed Content Dep 2");
+    manager = buildMainFile(new TrackingBuildManager(genBy, requiredBy));
+    int rebuilt = manager.getExecutedInputs().size();
+    requiredBy.writes = 0;
+    buildMainFile(new TrackingBuildManager(genBy, requiredBy));
+    assertEquals(rebuilt, requiredBy.writes);
+    assertTrue(rebuilt < manager.getRequiredInputs().size());
+  }
+}
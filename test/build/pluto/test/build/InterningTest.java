@@ -0,0 +1,122 @@
+package build.pluto.test.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import build.pluto.BuildUnit;
+import build.pluto.BuildUnit.InconsistenyReason;
+import build.pluto.PersistableEntity;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.output.None;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.Stamp;
+import build.pluto.util.PathTable;
+
+public class InterningTest extends SummaryBuildTest {
+
+  @Test
+  public void testPathsShared() throws Throwable {
+    build();
+    PersistableEntity.cleanCache();
+
+    BuildUnit<?> main = BuildUnit.read(summary("main.txt"));
+    for (Requirement req : main.getRequirements())
+      if (req instanceof BuildRequirement<?>) {
+        BuildRequirement<?> breq = (BuildRequirement<?>) req;
+        assertSame(breq.getUnitPath(), breq.getUnit().getPersistentPath());
+        for (FileRequirement freq : breq.getUnit().getRequiredFiles())
+          assertSame(freq.file, new FileRequirement(new File(freq.file.getPath()), freq.stamp).file);
+      }
+  }
+
+  @Test
+  public void testPathIds() throws Throwable {
+    File a = getRelativeFile("a.txt");
+    int id = PathTable.id(a);
+    assertEquals(id, PathTable.id(new File(a.getPath())));
+    assertSame(PathTable.intern(a), PathTable.file(id));
+    assertNotEquals(id, PathTable.id(getRelativeFile("b.txt")));
+  }
+
+  @Test
+  public void testRequirementsKeepOrder() throws Throwable {
+    BuildUnit<None> unit = BuildUnit.create(summary("unit.txt"), null);
+    File a = getRelativeFile("a.txt");
+    File b = getRelativeFile("b.txt");
+    Stamp stampOfA = LastModifiedStamper.instance.stampOf(a);
+    Stamp stampOfB = FileHashStamper.instance.stampOf(b);
+    unit.requires(a, stampOfA);
+    unit.requireOther(Requirement.FALSE);
+    unit.requires(b, stampOfB);
+    unit.setState(BuildUnit.State.SUCCESS);
+    unit.write();
+    PersistableEntity.cleanCache();
+
+    for (BuildUnit<?> u : new BuildUnit<?>[] { unit, BuildUnit.read(summary("unit.txt")) }) {
+      List<Requirement> reqs = u.getRequirements();
+      assertEquals(3, reqs.size());
+      assertSame(PathTable.intern(a), ((FileRequirement) reqs.get(0)).file);
+      assertEquals(stampOfA, ((FileRequirement) reqs.get(0)).stamp);
+      assertEquals(Requirement.FALSE.toString(), reqs.get(1).toString());
+      assertSame(PathTable.intern(b), ((FileRequirement) reqs.get(2)).file);
+      assertEquals(stampOfB, ((FileRequirement) reqs.get(2)).stamp);
+    }
+  }
+
+  @Test
+  public void testFileRequirementsChecked() throws Throwable {
+    BuildUnit<None> unit = BuildUnit.create(summary("unit.txt"), null);
+    File a = getRelativeFile("a.txt");
+    File b = getRelativeFile("b.txt");
+    unit.requires(a, LastModifiedStamper.instance.stampOf(a));
+    unit.requires(b, FileHashStamper.instance.stampOf(b));
+    unit.setState(BuildUnit.State.SUCCESS);
+    assertEquals(InconsistenyReason.NO_REASON, unit.isConsistentShallowReason());
+
+    assertTrue(a.setLastModified(a.lastModified() - 10000));
+    assertEquals(InconsistenyReason.FILES_INCONSISTENT, unit.isConsistentShallowReason());
+  }
+
+  @Test
+  public void testDuplicateFileRequirementsCollapsed() throws Throwable {
+    BuildUnit<None> unit = BuildUnit.create(summary("unit.txt"), null);
+    File input = getRelativeFile("a.txt");
+    unit.requires(input, LastModifiedStamper.instance.stampOf(input));
+    unit.requires(getRelativeFile("b.txt"), LastModifiedStamper.instance.stampOf(getRelativeFile("b.txt")));
+    unit.requires(input, LastModifiedStamper.instance.stampOf(input));
+    assertEquals(2, unit.getRequirements().size());
+
+    // A file which changed in the meantime is checked again
+    assertTrue(input.setLastModified(input.lastModified() - 10000));
+    unit.requires(input, LastModifiedStamper.instance.stampOf(input));
+    assertEquals(3, unit.getRequirements().size());
+    assertEquals(3, unit.getRequiredFiles().size());
+  }
+
+  @Test
+  public void testFileSetsReused() throws Throwable {
+    BuildUnit<None> unit = BuildUnit.create(summary("unit.txt"), null);
+    File output = getRelativeFile("a.txt");
+    unit.generates(output, LastModifiedStamper.instance.stampOf(output));
+    assertSame(unit.getGeneratedFiles(), unit.getGeneratedFiles());
+    assertSame(unit.getRequiredFiles(), unit.getRequiredFiles());
+
+    File other = getRelativeFile("b.txt");
+    Set<File> before = unit.getGeneratedFiles();
+    unit.generates(other, LastModifiedStamper.instance.stampOf(other));
+    assertNotSame(before, unit.getGeneratedFiles());
+    assertEquals(2, unit.getGeneratedFiles().size());
+  }
+}
@@ -0,0 +1,125 @@
+package build.pluto.test.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.RequiredBuilderFailed;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.output.None;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.test.build.parallel.ParallelBuilder;
+
+public class KeepGoingTest extends ScopedBuildTest {
+
+  private boolean keepGoing;
+
+  @Before
+  public void enableKeepGoing() {
+    keepGoing = BuildManager.KEEP_GOING;
+    BuildManager.KEEP_GOING = true;
+  }
+
+  @After
+  public void restoreKeepGoing() {
+    BuildManager.KEEP_GOING = keepGoing;
+  }
+
+  private TestBuilderInput input(String name) {
+    return new TestBuilderInput(testBasePath.toFile(), getRelativeFile(name));
+  }
+
+  private boolean contains(List<? extends Serializable> inputs, String name) {
+    for (Serializable input : inputs)
+      if (((TestBuilderInput) input).getInputPath().equals(getRelativeFile(name)))
+        return true;
+    return false;
+  }
+
+  private TrackingBuildManager build(BuilderFactory<TestBuilderInput, None, ?> factory, boolean expectFailure) throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    try {
+      manager.requireInitially(new BuildRequest<>(factory, input("main.txt")));
+      if (expectFailure)
+        fail("Build should fail");
+    } catch (RuntimeException e) {
+      if (!expectFailure)
+        throw e;
+      assertTrue(e.getMessage().contains("#fail detected in source file"));
+    } finally {
+      manager.close();
+    }
+    return manager;
+  }
+
+  private void failIn(String name) throws IOException {
+    File file = getRelativeFile(name);
+    FileCommands.writeToFile(file, "#fail\n" + FileCommands.readFileAsString(file));
+  }
+
+  private void assertFailedUnits(TrackingBuildManager manager, String... names) {
+    List<RequiredBuilderFailed> failures = manager.getFailures();
+    assertEquals(names.length, failures.size());
+    for (int i = 0; i < names.length; i++)
+      assertEquals(getRelativeFile(names[i]), ((TestBuilderInput) failures.get(i).getBuilders().get(0).getRequest().input).getInputPath());
+  }
+
+  @Test
+  public void testIndependentRequestsAreBuilt() throws Throwable {
+    failIn("a.txt");
+    TrackingBuildManager manager = build(ParallelBuilder.parallelFactory, true);
+
+    assertTrue(contains(manager.getSuccessfullyExecutedInputs(), "b.txt"));
+    assertTrue(contains(manager.getSuccessfullyExecutedInputs(), "c.txt"));
+    assertFalse(contains(manager.getSuccessfullyExecutedInputs(), "main.txt"));
+    assertFailedUnits(manager, "a.txt");
+  }
+
+  @Test
+  public void testIndependentRequirementsAreBuilt() throws Throwable {
+    build(SimpleBuilder.factory, false);
+    failIn("a.txt");
+    FileCommands.writeToFile(getRelativeFile("c.txt"), "Changed c\n");
+
+    TrackingBuildManager manager = build(SimpleBuilder.factory, true);
+    assertTrue(contains(manager.getSuccessfullyExecutedInputs(), "c.txt"));
+    assertFalse(contains(manager.getExecutedInputs(), "main.txt"));
+    assertFailedUnits(manager, "a.txt");
+  }
+
+  @Test
+  public void testStopAtFirstFailureByDefault() throws Throwable {
+    BuildManager.KEEP_GOING = false;
+    build(SimpleBuilder.factory, false);
+    failIn("a.txt");
+    FileCommands.writeToFile(getRelativeFile("c.txt"), "Changed c\n");
+
+    TrackingBuildManager manager = build(SimpleBuilder.factory, true);
+    assertFalse(contains(manager.getExecutedInputs(), "c.txt"));
+  }
+
+  @Test
+  public void testAllFailuresAreReported() throws Throwable {
+    failIn("a.txt");
+    failIn("c.txt");
+    TrackingBuildManager manager = build(ParallelBuilder.parallelFactory, true);
+
+    // b depends on the failed c and is skipped
+    assertFalse(contains(manager.getSuccessfullyExecutedInputs(), "b.txt"));
+    assertFailedUnits(manager, "a.txt", "c.txt");
+  }
+}
@@ -0,0 +1,57 @@
+package build.pluto.test.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import build.pluto.BuildUnit;
+import build.pluto.PersistableEntity;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+public class LazyLoadingTest extends SummaryBuildTest {
+
+  private BuildRequirement<?> requirementOn(BuildUnit<?> unit, String name) {
+    for (Requirement req : unit.getRequirements())
+      if (req instanceof BuildRequirement<?> && ((BuildRequirement<?>) req).getUnitPath().equals(summary(name).getAbsoluteFile()))
+        return (BuildRequirement<?>) req;
+    throw new AssertionError("No requirement on " + name);
+  }
+
+  @Test
+  public void testRequiredUnitReadOnDemand() throws Throwable {
+    build();
+    PersistableEntity.cleanCache();
+
+    // Required summaries are not read with the requiring summary
+    Files.delete(summary("c.txt").toPath());
+    BuildUnit<?> main = BuildUnit.read(summary("main.txt"));
+    assertNotNull(main);
+    BuildUnit<?> b = requirementOn(main, "b.txt").getUnit();
+    assertNotNull(b);
+    assertSame(b, BuildUnit.read(summary("b.txt")));
+    assertNull(requirementOn(b, "c.txt").getUnit());
+    assertFalse(requirementOn(b, "c.txt").isConsistent());
+  }
+
+  @Test
+  public void testMissingRequiredSummary() throws Throwable {
+    build();
+    PersistableEntity.cleanCache();
+    Files.delete(summary("c.txt").toPath());
+
+    // The request of the unit without summary is only known by digest, hence
+    // the unit requiring it is rebuilt as well, but not the units above
+    TrackingBuildManager manager = build();
+    assertEquals(2, manager.getExecutedInputs().size());
+    assertEquals(getRelativeFile("b.txt"), ((TestBuilderInput) manager.getExecutedInputs().get(0)).getInputPath());
+    assertEquals(getRelativeFile("c.txt"), ((TestBuilderInput) manager.getExecutedInputs().get(1)).getInputPath());
+  }
+}
@@ -0,0 +1,63 @@
+package build.pluto.test.build;
+
+import static build.pluto.test.build.Validators.executedFilesOf;
+import static build.pluto.test.build.Validators.requiredFilesOf;
+import static build.pluto.test.build.Validators.validateThat;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.test.build.once.SimpleRequirement;
+
+public class NoOpManifestTest extends ScopedBuildTest {
+
+  private SimpleRequirement mainRequest;
+  private File dep2File;
+
+  @Before
+  public void makeConsistentState() throws Throwable {
+    mainRequest = new SimpleRequirement(SimpleBuilder.factory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile("main.txt")));
+    dep2File = getRelativeFile("dep2.txt");
+    new TrackingBuildManager().requireInitially(mainRequest);
+  }
+
+  @Test
+  public void testNoOpSkipsGraph() throws Throwable {
+    assertTrue(getRelativeFile("main.txt.dep.manifest").exists());
+
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.requireInitiallyResult(mainRequest);
+    validateThat(requiredFilesOf(manager).isEmpty());
+  }
+
+  @Test
+  public void testChangedFileRebuilds() throws Throwable {
+    FileCommands.writeToFile(dep2File, "Changed Content Dep 2");
+
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.requireInitiallyResult(mainRequest);
+    validateThat(executedFilesOf(manager).containsSameElements(dep2File));
+
+    // the rebuild wrote a new manifest
+    manager = new TrackingBuildManager();
+    manager.requireInitiallyResult(mainRequest);
+    validateThat(requiredFilesOf(manager).isEmpty());
+  }
+
+  @Test
+  public void testChangedSummaryRebuilds() throws Throwable {
+    FileCommands.writeToFile(dep2File, "Changed Content Dep 2");
+    new TrackingBuildManager().requireInitially(new SimpleRequirement(SimpleBuilder.factory, new TestBuilderInput(testBasePath.toFile(), dep2File)));
+
+    // the summary of dep2 changed, the consistent build of main is not a no-op
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.requireInitiallyResult(mainRequest);
+    validateThat(requiredFilesOf(manager).containsAll(getRelativeFile("main.txt"), dep2File));
+  }
+}
@@ -0,0 +1,99 @@
+package build.pluto.test.build;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.util.IReporting.BuildReason;
+
+public class RebuildQueryTest extends ScopedBuildTest {
+
+  private BuildRequest<?, ?, ?, ?> request() {
+    return new BuildRequest<>(SimpleBuilder.factory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile("main.txt")));
+  }
+
+  private void build() throws Throwable {
+    try (TrackingBuildManager manager = new TrackingBuildManager()) {
+      manager.requireInitially(request());
+    }
+  }
+
+  private Map<File, Set<BuildReason>> query() throws IOException {
+    try (TrackingBuildManager manager = new TrackingBuildManager()) {
+      Map<File, Set<BuildReason>> result = manager.wouldRebuild(request());
+      assertTrue("Query executed builders", manager.getExecutedInputs().isEmpty());
+      return result;
+    }
+  }
+
+  private File unit(String name) {
+    return FileCommands.addExtension(getRelativeFile(name).toPath(), "dep").toFile().getAbsoluteFile();
+  }
+
+  @Test
+  public void testNoSummary() throws IOException {
+    Map<File, Set<BuildReason>> result = query();
+    assertEquals(Collections.singleton(unit("main.txt")), absolute(result).keySet());
+    assertEquals(Collections.singleton(BuildReason.NoBuildSummary), result.values().iterator().next());
+    assertFalse(unit("main.txt").exists());
+  }
+
+  @Test
+  public void testConsistent() throws Throwable {
+    build();
+    assertTrue(query().isEmpty());
+  }
+
+  @Test
+  public void testChangedFile() throws Throwable {
+    build();
+    File c = getRelativeFile("c.txt");
+    FileCommands.writeToFile(c, FileCommands.readFileAsString(c) + "More content\n");
+    long summaryModified = unit("c.txt").lastModified();
+
+    Map<File, Set<BuildReason>> result = absolute(query());
+    assertEquals(Collections.singleton(unit("c.txt")), result.keySet());
+    assertEquals(Collections.singleton(BuildReason.InconsistentRequirement), result.get(unit("c.txt")));
+    assertEquals(summaryModified, unit("c.txt").lastModified());
+
+    // The query agrees with the build
+    TrackingBuildManager manager = new TrackingBuildManager();
+    try {
+      manager.requireInitially(request());
+    } finally {
+      manager.close();
+    }
+    assertEquals(1, manager.getSuccessfullyExecutedInputs().size());
+    assertEquals(getRelativeFile("c.txt"), ((TestBuilderInput) manager.getSuccessfullyExecutedInputs().get(0)).getInputPath());
+  }
+
+  @Test
+  public void testDeletedGeneratedFile() throws Throwable {
+    build();
+    FileCommands.delete(FileCommands.addExtension(getRelativeFile("b.txt").toPath(), "gen"));
+
+    Map<File, Set<BuildReason>> result = absolute(query());
+    assertEquals(Collections.singleton(unit("b.txt")), result.keySet());
+    assertEquals(Collections.singleton(BuildReason.InconsistentProvidedFiles), result.get(unit("b.txt")));
+  }
+
+  private static Map<File, Set<BuildReason>> absolute(Map<File, Set<BuildReason>> result) {
+    Map<File, Set<BuildReason>> absolute = new LinkedHashMap<>();
+    for (Map.Entry<File, Set<BuildReason>> e : result.entrySet())
+      absolute.put(e.getKey().getAbsoluteFile(), e.getValue());
+    return absolute;
+  }
+}
@@ -0,0 +1,36 @@
+package build.pluto.test.build;
+
+import java.io.File;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+/**
+ * Builds main.txt with the {@link SimpleBuilder}, where main.txt requires
+ * a.txt and b.txt, and b.txt requires c.txt. Tests of build summaries share
+ * this test data.
+ */
+public abstract class SummaryBuildTest extends ScopedBuildTest {
+
+  @Override
+  protected String getTestFolderName() {
+    return "SummaryBuildTest";
+  }
+
+  protected TrackingBuildManager build() throws Throwable {
+    try (TrackingBuildManager manager = new TrackingBuildManager()) {
+      manager.requireInitially(new BuildRequest<>(SimpleBuilder.factory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile("main.txt"))));
+      return manager;
+    }
+  }
+
+  /**
+   * @return the summary of the unit built for the given file.
+   */
+  protected File summary(String name) {
+    return FileCommands.addExtension(getRelativeFile(name).toPath(), "dep").toFile();
+  }
+}
@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -16,6 +17,7 @@ import build.pluto.builder.Builder;
 import build.pluto.builder.factory.BuilderFactory;
 import build.pluto.dependency.BuildRequirement;
 import build.pluto.dependency.database.MemoryDatabase;
+import build.pluto.dependency.database.MultiMapDatabase;
 import build.pluto.output.Output;
 import build.pluto.util.IReporting;
 import build.pluto.util.IReporting.BuildReason;
@@ -23,10 +25,10 @@ import build.pluto.util.LogReporting;
 
 public class TrackingBuildManager extends BuildManager {
 
-  private List<Serializable> requiredInputs = new ArrayList<>();
-  private List<Serializable> executedInputs = new ArrayList<>();
-  private List<Serializable> successfullyExecutedInputs = new ArrayList<>();
-  private List<BuilderFactory<?, ?, ?>> executedTools = new ArrayList<>();
+  private List<Serializable> requiredInputs = Collections.synchronizedList(new ArrayList<Serializable>());
+  private List<Serializable> executedInputs = Collections.synchronizedList(new ArrayList<Serializable>());
+  private List<Serializable> successfullyExecutedInputs = Collections.synchronizedList(new ArrayList<Serializable>());
+  private List<BuilderFactory<?, ?, ?>> executedTools = Collections.synchronizedList(new ArrayList<BuilderFactory<?, ?, ?>>());
 
   public TrackingBuildManager() {
     super(new LogReporting(), new MemoryDatabase<File, File>());
@@ -36,6 +38,10 @@ public class TrackingBuildManager extends BuildManager {
     super(reporting, new MemoryDatabase<File, File>());
   }
 
+  public TrackingBuildManager(MultiMapDatabase<File, File> genBy, MultiMapDatabase<File, File> requiredBy) {
+    super(new LogReporting(), genBy, requiredBy);
+  }
+
   public <In extends Serializable, Out extends Output, B extends Builder<In, Out>, F extends BuilderFactory<In, Out, B>> BuildRequirement<Out> require(F factory, In input) throws IOException {
     return require(factory, input, true);
   }
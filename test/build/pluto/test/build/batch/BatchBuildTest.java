@@ -0,0 +1,175 @@
+package build.pluto.test.build.batch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.RequiredBuilderFailed;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+
+public class BatchBuildTest extends ScopedBuildTest {
+
+  private boolean keepGoing;
+
+  @Before
+  public void forgetBatches() {
+    UpperCaseCompiler.batches.clear();
+    keepGoing = BuildManager.KEEP_GOING;
+  }
+
+  @After
+  public void restoreKeepGoing() {
+    BuildManager.KEEP_GOING = keepGoing;
+  }
+
+  /**
+   * @return the failures of the failed build.
+   */
+  private List<RequiredBuilderFailed> buildFailing() throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    try {
+      manager.requireInitially(new BuildRequest<>(ProjectBuilder.factory, getRelativeFile("files.txt")));
+      fail("Build should fail");
+    } catch (RequiredBuilderFailed e) {
+      assertTrue(e.getMessage().contains("#fail detected"));
+    } finally {
+      manager.close();
+    }
+    return manager.getFailures();
+  }
+
+  private List<File> failedInputs(List<RequiredBuilderFailed> failures) {
+    List<File> inputs = new ArrayList<>();
+    for (RequiredBuilderFailed e : failures)
+      inputs.add((File) e.getBuilders().get(0).getRequest().input);
+    return inputs;
+  }
+
+  private BuildUnit.State stateOf(String name) throws IOException {
+    File file = getRelativeFile(name);
+    return BuildUnit.read(new UpperCaseCompiler(file).persistentPath(file)).getState();
+  }
+
+  private void build(int parallelism) throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.setParallelism(parallelism);
+    try {
+      manager.requireInitially(new BuildRequest<>(ProjectBuilder.factory, getRelativeFile("files.txt")));
+    } finally {
+      manager.close();
+    }
+  }
+
+  @Test
+  public void testInconsistentRequestsAreBuiltAtOnce() throws Throwable {
+    build(1);
+    assertEquals(Collections.singletonList(Arrays.asList(getRelativeFile("a.txt"), getRelativeFile("b.txt"), getRelativeFile("c.txt"))), UpperCaseCompiler.batches);
+    assertEquals("CONTENT OF B", FileCommands.readFileAsString(UpperCaseCompiler.outputOf(getRelativeFile("b.txt"))).trim());
+
+    UpperCaseCompiler.batches.clear();
+    FileCommands.writeToFile(getRelativeFile("a.txt"), "Changed a");
+    FileCommands.writeToFile(getRelativeFile("c.txt"), "Changed c");
+    build(1);
+    assertEquals(Collections.singletonList(Arrays.asList(getRelativeFile("a.txt"), getRelativeFile("c.txt"))), UpperCaseCompiler.batches);
+    assertEquals("CHANGED C", FileCommands.readFileAsString(UpperCaseCompiler.outputOf(getRelativeFile("c.txt"))).trim());
+
+    UpperCaseCompiler.batches.clear();
+    build(1);
+    assertTrue(UpperCaseCompiler.batches.isEmpty());
+  }
+
+  @Test
+  public void testRequirementsPerInput() throws Throwable {
+    build(1);
+    File b = getRelativeFile("b.txt");
+    BuildUnit<?> unit = BuildUnit.read(new UpperCaseCompiler(b).persistentPath(b));
+    assertEquals(Collections.singleton(UpperCaseCompiler.outputOf(b)), unit.getGeneratedFiles());
+    for (FileRequirement req : unit.getRequiredFiles())
+      assertFalse(req.file.equals(getRelativeFile("a.txt")) || req.file.equals(getRelativeFile("c.txt")));
+
+    // Only the unit of b is inconsistent
+    UpperCaseCompiler.batches.clear();
+    FileCommands.writeToFile(b, "Changed b");
+    build(1);
+    assertEquals(Collections.singletonList(Collections.singletonList(b)), UpperCaseCompiler.batches);
+  }
+
+  @Test
+  public void testFailedBatchFailsAllMembers() throws Throwable {
+    FileCommands.writeToFile(getRelativeFile("b.txt"), "#fail");
+    List<RequiredBuilderFailed> failures = buildFailing();
+    assertEquals(Arrays.asList(getRelativeFile("a.txt"), getRelativeFile("b.txt"), getRelativeFile("c.txt")), failedInputs(failures));
+    for (String name : Arrays.asList("a.txt", "b.txt", "c.txt"))
+      assertEquals(BuildUnit.State.FAILURE, stateOf(name));
+  }
+
+  @Test
+  public void testFailedRequirementOfMember() throws Throwable {
+    BuildManager.KEEP_GOING = true;
+    FileCommands.writeToFile(getRelativeFile("c.txt"), "#require d.txt");
+    FileCommands.writeToFile(getRelativeFile("d.txt"), "#fail");
+    TrackingBuildManager manager = new TrackingBuildManager();
+    try {
+      manager.requireInitially(new BuildRequest<>(ProjectBuilder.factory, getRelativeFile("files.txt")));
+      fail("Build should fail");
+    } catch (RequiredBuilderFailed e) {
+      // The member which required the failed build is blamed
+      List<BuildRequirement<?>> builders = e.getBuilders();
+      assertEquals(getRelativeFile("d.txt"), builders.get(0).getRequest().input);
+      assertEquals(getRelativeFile("c.txt"), builders.get(1).getRequest().input);
+    } finally {
+      manager.close();
+    }
+
+    // d failed, a and b were aborted, c was skipped because of d
+    assertEquals(Arrays.asList(getRelativeFile("d.txt"), getRelativeFile("a.txt"), getRelativeFile("b.txt")), failedInputs(manager.getFailures()));
+    BuildUnit<?> c = BuildUnit.read(new UpperCaseCompiler(getRelativeFile("c.txt")).persistentPath(getRelativeFile("c.txt")));
+    assertEquals(BuildUnit.State.FAILURE, c.getState());
+    boolean requiresD = false;
+    for (Requirement req : c.getRequirements())
+      requiresD |= req instanceof BuildRequirement<?> && ((BuildRequirement<?>) req).getRequest().input.equals(getRelativeFile("d.txt"));
+    assertTrue(requiresD);
+  }
+
+  @Test
+  public void testCyclicBatchIsBuiltOneAtATime() throws Throwable {
+    // c requires a, which is built in the same batch
+    FileCommands.writeToFile(getRelativeFile("c.txt"), "#require a.txt");
+    build(1);
+
+    File a = getRelativeFile("a.txt");
+    File b = getRelativeFile("b.txt");
+    File c = getRelativeFile("c.txt");
+    assertEquals(Arrays.asList(Arrays.asList(a, b, c), Collections.singletonList(a), Collections.singletonList(b), Collections.singletonList(c)), UpperCaseCompiler.batches);
+    for (String name : Arrays.asList("a.txt", "b.txt", "c.txt"))
+      assertEquals(BuildUnit.State.SUCCESS, stateOf(name));
+    assertTrue(UpperCaseCompiler.outputOf(c).exists());
+  }
+
+  @Test
+  public void testParallelBuild() throws Throwable {
+    build(4);
+    assertEquals(1, UpperCaseCompiler.batches.size());
+    assertEquals(3, UpperCaseCompiler.batches.get(0).size());
+  }
+}
@@ -0,0 +1,53 @@
+package build.pluto.test.build.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.Builder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+
+/**
+ * Compiles all files listed in its input file together and requires their
+ * outputs.
+ */
+public class ProjectBuilder extends Builder<File, None> {
+
+  public static BuilderFactory<File, None, ProjectBuilder> factory = BuilderFactoryFactory.of(ProjectBuilder.class, File.class);
+
+  public ProjectBuilder(File input) {
+    super(input);
+  }
+
+  @Override
+  protected String description(File input) {
+    return "Build project " + input.getName();
+  }
+
+  @Override
+  public File persistentPath(File input) {
+    return FileCommands.addExtension(input.toPath(), "dep").toFile();
+  }
+
+  @Override
+  protected None build(File input) throws IOException {
+    require(input);
+    List<BuildRequest<?, ?, ?, ?>> reqs = new ArrayList<>();
+    List<File> files = new ArrayList<>();
+    for (String line : FileCommands.readFileLines(input)) {
+      File file = new File(input.getParentFile(), line);
+      files.add(file);
+      reqs.add(new BuildRequest<>(UpperCaseCompiler.factory, file));
+    }
+    requireBuildAll(reqs);
+    for (File file : files)
+      require(UpperCaseCompiler.outputOf(file));
+    return None.val;
+  }
+}
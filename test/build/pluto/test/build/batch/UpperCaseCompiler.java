@@ -0,0 +1,65 @@
+package build.pluto.test.build.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BatchBuilder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+
+/**
+ * Writes the upper case content of each input file next to it and remembers
+ * the inputs of each batch. An input file starting with {@code #fail} fails
+ * the batch, an input file starting with {@code #require <file>} requires the
+ * upper case compilation of the given file first.
+ */
+public class UpperCaseCompiler extends BatchBuilder<File, None> {
+
+  public static BuilderFactory<File, None, UpperCaseCompiler> factory = BuilderFactoryFactory.of(UpperCaseCompiler.class, File.class);
+
+  public static final List<List<File>> batches = Collections.synchronizedList(new ArrayList<List<File>>());
+
+  public static File outputOf(File input) {
+    return FileCommands.addExtension(input.toPath(), "upper").toFile();
+  }
+
+  public UpperCaseCompiler(File input) {
+    super(input);
+  }
+
+  @Override
+  protected String description(File input) {
+    return "Upper case " + input.getName();
+  }
+
+  @Override
+  public File persistentPath(File input) {
+    return FileCommands.addExtension(input.toPath(), "dep").toFile();
+  }
+
+  @Override
+  protected List<None> buildBatch(List<File> inputs) throws Throwable {
+    batches.add(new ArrayList<>(inputs));
+    List<None> outs = new ArrayList<>(inputs.size());
+    for (int i = 0; i < inputs.size(); i++) {
+      File input = inputs.get(i);
+      member(i).require(input);
+      String content = FileCommands.readFileAsString(input);
+      if (content.startsWith("#fail"))
+        throw new IOException("#fail detected in " + input.getName());
+      if (content.startsWith("#require "))
+        member(i).requireBuild(factory, new File(input.getParentFile(), content.substring("#require ".length()).trim()));
+      File output = outputOf(input);
+      FileCommands.writeToFile(output, content.toUpperCase());
+      member(i).provide(output);
+      outs.add(None.val);
+    }
+    return outs;
+  }
+}
@@ -0,0 +1,49 @@
+package build.pluto.test.build.changeset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.ChangeSet;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.util.IReporting.BuildReason;
+
+public class ChangeSetTest extends ScopedBuildTest {
+
+  private ChangeSet build() throws Throwable {
+    IncrementalBuilder.lastChangeSet = null;
+    new TrackingBuildManager().requireInitially(new BuildRequest<>(IncrementalBuilder.factory, getRelativeFile("files.txt")));
+    return IncrementalBuilder.lastChangeSet;
+  }
+
+  @Test
+  public void testFirstBuildIsNotIncremental() throws Throwable {
+    ChangeSet changes = build();
+    assertFalse(changes.hasPreviousBuild());
+    assertFalse(changes.isIncremental());
+    assertTrue(changes.getFileChanges().isEmpty());
+  }
+
+  @Test
+  public void testChangedFiles() throws Throwable {
+    build();
+    FileCommands.writeToFile(getRelativeFile("b.txt"), "Changed b");
+    FileCommands.writeToFile(getRelativeFile("c.txt"), "Changed c");
+
+    ChangeSet changes = build();
+    assertTrue(changes.isIncremental());
+    assertEquals(Collections.singleton(BuildReason.InconsistentRequirement), changes.getReasons());
+    assertEquals(2, changes.getFileChanges().size());
+    assertEquals(getRelativeFile("b.txt"), changes.getFileChanges().get(0).file);
+    assertEquals(getRelativeFile("c.txt"), changes.getFileChanges().get(1).file);
+    assertEquals(FileHashStamper.instance.stampOf(getRelativeFile("b.txt")), changes.getFileChanges().get(0).currentStamp);
+  }
+}
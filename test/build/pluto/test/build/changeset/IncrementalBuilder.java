@@ -0,0 +1,53 @@
+package build.pluto.test.build.changeset;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.Builder;
+import build.pluto.builder.ChangeSet;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.Stamper;
+
+/**
+ * Requires all files listed in its input file and remembers the change set of
+ * its last build.
+ */
+public class IncrementalBuilder extends Builder<File, None> {
+
+  public static BuilderFactory<File, None, IncrementalBuilder> factory = BuilderFactoryFactory.of(IncrementalBuilder.class, File.class);
+
+  public static ChangeSet lastChangeSet;
+
+  public IncrementalBuilder(File input) {
+    super(input);
+  }
+
+  @Override
+  protected String description(File input) {
+    return "Incrementally build " + input;
+  }
+
+  @Override
+  public File persistentPath(File input) {
+    return FileCommands.addExtension(input.toPath(), "dep").toFile();
+  }
+
+  @Override
+  protected Stamper defaultStamper() {
+    return FileHashStamper.instance;
+  }
+
+  @Override
+  protected None build(File input) throws IOException {
+    require(input);
+    for (String line : FileCommands.readFileLines(input))
+      require(new File(input.getParentFile(), line));
+    lastChangeSet = getChangeSet();
+    return None.val;
+  }
+}
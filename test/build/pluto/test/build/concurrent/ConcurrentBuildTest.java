@@ -0,0 +1,72 @@
+package build.pluto.test.build.concurrent;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.concurrent.CyclicBarrier;
+
+import org.junit.Test;
+
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.util.NoReporting;
+
+public class ConcurrentBuildTest extends ScopedBuildTest {
+
+  private BuildRequest<?, ?, ?, ?> mainRequest() {
+    return new BuildRequest<>(SlowBuilder.slowFactory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile("main.txt")));
+  }
+
+  private class BuildThread extends Thread {
+    final TrackingBuildManager manager = new TrackingBuildManager();
+    final CyclicBarrier start;
+    Throwable failure;
+
+    BuildThread(CyclicBarrier start) {
+      this.start = start;
+    }
+
+    @Override
+    public void run() {
+      try {
+        start.await();
+        manager.requireInitially(mainRequest());
+      } catch (Throwable e) {
+        failure = e;
+      }
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testOverlappingBuildsExecuteOnce() throws Throwable {
+    CyclicBarrier start = new CyclicBarrier(2);
+    BuildThread first = new BuildThread(start);
+    BuildThread second = new BuildThread(start);
+    first.start();
+    second.start();
+    first.join();
+    second.join();
+    if (first.failure != null)
+      throw first.failure;
+    if (second.failure != null)
+      throw second.failure;
+
+    int executions = first.manager.getExecutedInputs().size() + second.manager.getExecutedInputs().size();
+    assertEquals("main and dep are built once by either build", 2, executions);
+  }
+
+  @Test(timeout = 20000)
+  public void testManagersShareDatabase() throws Throwable {
+    try (BuildManager first = new BuildManager(new NoReporting(), "concurrent-test");
+        BuildManager second = new BuildManager(new NoReporting(), "concurrent-test")) {
+      second.requireInitially(mainRequest());
+      first.requireInitially(mainRequest());
+    }
+    // the database can be opened again after all managers closed it
+    new BuildManager(new NoReporting(), "concurrent-test").close();
+    assertEquals(true, new File(getRelativeFile("main.txt").getPath() + ".gen").exists());
+  }
+}
@@ -0,0 +1,99 @@
+package build.pluto.test.build.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+public class CrossProcessBuildTest extends ScopedBuildTest {
+
+  private boolean locks;
+
+  @Before
+  public void enableLocks() {
+    locks = BuildManager.CROSS_PROCESS_LOCKS;
+    BuildManager.CROSS_PROCESS_LOCKS = true;
+  }
+
+  @After
+  public void restoreLocks() {
+    BuildManager.CROSS_PROCESS_LOCKS = locks;
+  }
+
+  private BuildRequest<?, ?, ?, ?> request() {
+    return new BuildRequest<>(SimpleBuilder.factory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile("main.txt")));
+  }
+
+  private File lockFile() {
+    return new File(getRelativeFile("main.txt.dep").getPath() + ".lock");
+  }
+
+  @Test(timeout = 20000)
+  public void testWaitForOtherProcess() throws Throwable {
+    final BuildRequest<?, ?, ?, ?> request = request();
+    Process holder = LockHolder.start(lockFile());
+    try {
+      BufferedReader out = new BufferedReader(new InputStreamReader(holder.getInputStream()));
+      assertEquals("locked", out.readLine());
+
+      final TrackingBuildManager manager = new TrackingBuildManager();
+      final Throwable[] failure = new Throwable[1];
+      Thread build = new Thread() {
+        @Override
+        public void run() {
+          try {
+            manager.requireInitially(request);
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        }
+      };
+      build.start();
+      build.join(500);
+      assertTrue("build waits for the other process", build.isAlive());
+      assertEquals(0, manager.getExecutedInputs().size());
+
+      holder.getOutputStream().close();
+      build.join();
+      if (failure[0] != null)
+        throw failure[0];
+      assertEquals(1, manager.getExecutedInputs().size());
+      assertFalse(lockFile().exists());
+    } finally {
+      holder.destroy();
+    }
+  }
+
+  @Test(timeout = 20000)
+  public void testConsistentUnitNotLeased() throws Throwable {
+    new TrackingBuildManager().requireInitially(request());
+    assertFalse(lockFile().exists());
+
+    Process holder = LockHolder.start(lockFile());
+    try {
+      BufferedReader out = new BufferedReader(new InputStreamReader(holder.getInputStream()));
+      assertEquals("locked", out.readLine());
+
+      // The unit is consistent, hence the build does not wait for the lock
+      TrackingBuildManager manager = new TrackingBuildManager();
+      manager.requireInitially(request());
+      assertEquals(0, manager.getExecutedInputs().size());
+    } finally {
+      holder.destroy();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+package build.pluto.test.build.concurrent;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Holds the lock of a unit in a separate process until its standard input is
+ * closed.
+ */
+public class LockHolder {
+
+  public static void main(String[] args) throws Exception {
+    File lockFile = new File(args[0]);
+    try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      FileLock lock = channel.lock(Long.MAX_VALUE - 1, 1, false);
+      System.out.println("locked");
+      System.out.flush();
+      while (System.in.read() >= 0)
+        ;
+      lock.release();
+    }
+  }
+
+  /**
+   * Starts a process that holds the lock of the given file.
+   */
+  public static Process start(File lockFile) throws Exception {
+    String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath();
+    ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), LockHolder.class.getName(), lockFile.getAbsolutePath());
+    builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+    return builder.start();
+  }
+}
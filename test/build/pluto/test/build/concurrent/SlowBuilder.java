@@ -0,0 +1,51 @@
+package build.pluto.test.build.concurrent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+/**
+ * Like the {@link SimpleBuilder} but takes some time, such that concurrent
+ * builds overlap. Dependencies are built by slow builders too.
+ */
+public class SlowBuilder extends SimpleBuilder {
+
+  public static long SLEEP_MILLIS = 300;
+
+  public static BuilderFactory<TestBuilderInput, None, SlowBuilder> slowFactory = BuilderFactoryFactory.of(SlowBuilder.class, TestBuilderInput.class);
+
+  public SlowBuilder(TestBuilderInput input) {
+    super(input);
+  }
+
+  @Override
+  protected None build(TestBuilderInput input) throws IOException {
+    try {
+      Thread.sleep(SLEEP_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    require(input.getInputPath());
+    List<String> contentLines = new ArrayList<String>();
+    for (String line : FileCommands.readFileLines(input.getInputPath()))
+      if (line.startsWith("Dep:"))
+        requireBuild(slowFactory, new TestBuilderInput(input.getBasePath(), new File(input.getBasePath(), line.substring(4))));
+      else
+        contentLines.add(line);
+
+    File generatedFile = FileCommands.addExtension(input.getInputPath().toPath(), "gen").toFile();
+    FileCommands.writeLinesFile(generatedFile, contentLines);
+    provide(generatedFile);
+    return None.val;
+  }
+}
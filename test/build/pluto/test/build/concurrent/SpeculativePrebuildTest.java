@@ -0,0 +1,88 @@
+package build.pluto.test.build.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+public class SpeculativePrebuildTest extends ScopedBuildTest {
+
+  private boolean speculativePrebuilds;
+
+  @Before
+  public void enableSpeculation() {
+    speculativePrebuilds = BuildManager.SPECULATIVE_PREBUILDS;
+    BuildManager.SPECULATIVE_PREBUILDS = true;
+  }
+
+  @After
+  public void restoreSpeculation() {
+    BuildManager.SPECULATIVE_PREBUILDS = speculativePrebuilds;
+  }
+
+  private BuildRequest<?, ?, ?, ?> request(String file) {
+    return new BuildRequest<>(SlowBuilder.slowFactory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile(file)));
+  }
+
+  private BuildUnit<?> build() throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.setParallelism(4);
+    try {
+      return manager.requireInitially(request("root.txt"));
+    } finally {
+      manager.close();
+    }
+  }
+
+  private void change(String file, String content) throws Exception {
+    FileCommands.writeToFile(getRelativeFile(file), content);
+  }
+
+  @Test(timeout = 20000)
+  public void testPrebuildPreviousDependencies() throws Throwable {
+    build();
+
+    change("root.txt", "Root changed\nDep:a.txt\nDep:b.txt\nDep:c.txt\n");
+    for (String dep : new String[] { "a.txt", "b.txt", "c.txt" })
+      change(dep, "Changed " + dep);
+
+    long start = System.currentTimeMillis();
+    build();
+    long duration = System.currentTimeMillis() - start;
+
+    // Sequentially, the four builders would sleep one after the other
+    assertTrue("dependencies were built in the background, took " + duration + "ms", duration < 3 * SlowBuilder.SLEEP_MILLIS);
+  }
+
+  @Test(timeout = 20000)
+  public void testDiscardUnrequiredSpeculation() throws Throwable {
+    build();
+
+    change("root.txt", "Root changed\nDep:a.txt\n");
+    change("b.txt", "Changed b");
+
+    BuildUnit<?> root = build();
+    Set<File> required = new HashSet<>();
+    for (Requirement req : root.getRequirements())
+      if (req instanceof BuildRequirement<?>)
+        required.add(((BuildRequirement<?>) req).getUnit().getPersistentPath());
+    assertEquals(1, required.size());
+    assertTrue(required.contains(getRelativeFile("a.txt.dep")));
+  }
+}
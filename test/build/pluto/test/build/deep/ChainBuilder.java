@@ -0,0 +1,71 @@
+package build.pluto.test.build.deep;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.Builder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.Stamper;
+
+/**
+ * Builds a linear chain of units: unit n requires unit n-1, and unit 0
+ * requires the file chain.txt.
+ */
+public class ChainBuilder extends Builder<ChainBuilder.ChainInput, None> {
+
+  public static BuilderFactory<ChainInput, None, ChainBuilder> factory = BuilderFactoryFactory.of(ChainBuilder.class, ChainInput.class);
+
+  public static class ChainInput implements Serializable {
+    private static final long serialVersionUID = -4511932040622287096L;
+
+    public final File dir;
+    public final int index;
+
+    public ChainInput(File dir, int index) {
+      this.dir = dir;
+      this.index = index;
+    }
+
+    @Override
+    public String toString() {
+      return "chain-" + index;
+    }
+  }
+
+  public static BuildRequest<ChainInput, None, ChainBuilder, BuilderFactory<ChainInput, None, ChainBuilder>> request(File dir, int index) {
+    return new BuildRequest<>(factory, new ChainInput(dir, index));
+  }
+
+  public ChainBuilder(ChainInput input) {
+    super(input);
+  }
+
+  @Override
+  protected String description(ChainInput input) {
+    return "Chain " + input.index;
+  }
+
+  @Override
+  public File persistentPath(ChainInput input) {
+    return new File(input.dir, "chain-" + input.index + ".dep");
+  }
+
+  @Override
+  protected Stamper defaultStamper() {
+    return FileHashStamper.instance;
+  }
+
+  @Override
+  protected None build(ChainInput input) throws IOException {
+    if (input.index == 0)
+      require(new File(input.dir, "chain.txt"));
+    else
+      requireBuild(request(input.dir, input.index - 1));
+    return None.val;
+  }
+}
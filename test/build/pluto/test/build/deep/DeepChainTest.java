@@ -0,0 +1,69 @@
+package build.pluto.test.build.deep;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.PersistableEntity;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+
+public class DeepChainTest extends ScopedBuildTest {
+
+  private static final int LENGTH = 1500;
+
+  /**
+   * Builds the chain on a thread whose stack is far too small to hold the
+   * chain.
+   */
+  private TrackingBuildManager buildChain() throws Throwable {
+    final TrackingBuildManager manager = new TrackingBuildManager();
+    onSmallStack(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        manager.require(ChainBuilder.request(testBasePath.toFile(), LENGTH - 1), false);
+        return null;
+      }
+    });
+    return manager;
+  }
+
+  private void onSmallStack(final Callable<Void> call) throws Throwable {
+    final Throwable[] failure = new Throwable[1];
+    Thread thread = new Thread(null, new Runnable() {
+      @Override
+      public void run() {
+        try {
+          call.call();
+        } catch (Throwable e) {
+          failure[0] = e;
+        }
+      }
+    }, "small-stack", 512 * 1024);
+    thread.start();
+    thread.join();
+    if (failure[0] != null)
+      throw failure[0];
+  }
+
+  @Test(timeout = 120000)
+  public void testDeepChain() throws Throwable {
+    TrackingBuildManager manager = buildChain();
+    assertEquals(LENGTH, manager.getExecutedInputs().size());
+
+    // Read the chain from disk again
+    PersistableEntity.cleanCache();
+    manager = buildChain();
+    assertEquals(0, manager.getExecutedInputs().size());
+
+    // The output of the end of the chain does not change, hence the rest of
+    // the chain is consistent
+    FileCommands.writeToFile(getRelativeFile("chain.txt"), "Changed chain end");
+    PersistableEntity.cleanCache();
+    manager = buildChain();
+    assertEquals(1, manager.getExecutedInputs().size());
+  }
+}
@@ -0,0 +1,78 @@
+package build.pluto.test.build.parallel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.AsyncBuilder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.Stamper;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+/**
+ * Like the {@link SimpleBuilder} but requires all dependencies of a file
+ * asynchronously and writes the generated file once all of them are built.
+ */
+public class AsyncParallelBuilder extends AsyncBuilder<TestBuilderInput, None> {
+
+  public static BuilderFactory<TestBuilderInput, None, AsyncParallelBuilder> asyncFactory = BuilderFactoryFactory.of(AsyncParallelBuilder.class, TestBuilderInput.class);
+
+  public AsyncParallelBuilder(TestBuilderInput input) {
+    super(input);
+  }
+
+  @Override
+  protected String description(TestBuilderInput input) {
+    return "Async Test Builder for " + input.getInputPath();
+  }
+
+  @Override
+  public File persistentPath(TestBuilderInput input) {
+    return FileCommands.addExtension(input.getInputPath().toPath(), "dep").toFile();
+  }
+
+  @Override
+  protected Stamper defaultStamper() {
+    return FileHashStamper.instance;
+  }
+
+  @Override
+  protected CompletableFuture<None> buildAsync(final TestBuilderInput input) throws IOException {
+    require(input.getInputPath());
+    List<String> allLines = FileCommands.readFileLines(input.getInputPath());
+
+    List<CompletableFuture<None>> deps = new ArrayList<>();
+    final List<String> contentLines = new ArrayList<String>();
+    for (String line : allLines) {
+      if (line.startsWith("Dep:")) {
+        TestBuilderInput depInput = new TestBuilderInput(input.getBasePath(), new File(input.getBasePath(), line.substring(4)));
+        deps.add(requireBuildAsync(asyncFactory, depInput));
+      } else {
+        contentLines.add(line);
+      }
+    }
+
+    return CompletableFuture.allOf(deps.toArray(new CompletableFuture<?>[deps.size()])).thenApply(new Function<Void, None>() {
+      @Override
+      public None apply(Void v) {
+        File generatedFile = FileCommands.addExtension(input.getInputPath().toPath(), "gen").toFile();
+        try {
+          FileCommands.writeLinesFile(generatedFile, contentLines);
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        provide(generatedFile);
+        return None.val;
+      }
+    });
+  }
+}
@@ -0,0 +1,159 @@
+package build.pluto.test.build.parallel;
+
+import static build.pluto.test.build.Validators.executedFilesOf;
+import static build.pluto.test.build.once.SimpleBuildUtilities.inputToFileList;
+import static build.pluto.test.build.Validators.validateThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.builder.BuildCycleException;
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.RequiredBuilderFailed;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.test.build.SimpleBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.util.TraceData;
+
+public class ParallelBuildTest extends SimpleBuildTest {
+
+  @Override
+  protected BuildRequest<?, ?, ?, ?> requirementForInput(TestBuilderInput input) {
+    return new BuildRequest<>(ParallelBuilder.parallelFactory, input);
+  }
+
+  private TrackingBuildManager parallelManager() {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.setParallelism(4);
+    return manager;
+  }
+
+  @Test(timeout = 10000)
+  public void testSharedDependencyBuiltOnce() throws IOException {
+    File main = getRelativeFile("main.txt");
+    File a = getRelativeFile("a.txt");
+    File b = getRelativeFile("b.txt");
+    File c = getRelativeFile("c.txt");
+
+    TrackingBuildManager manager = buildMainFile(parallelManager());
+    validateThat(executedFilesOf(manager).containsSameElements(main, a, b, c));
+    validateThat(executedFilesOf(manager).hasSize(4));
+
+    manager = buildMainFile(parallelManager());
+    validateThat(executedFilesOf(manager).isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void testCycleBetweenStrands() throws IOException {
+    try {
+      buildFile(getRelativeFile("cycle.txt"), parallelManager());
+      fail("Expected the cycle between x and y to fail");
+    } catch (RequiredBuilderFailed e) {
+      assertTrue("Expected a build cycle but got " + e.getRootCause(), e.getRootCause() instanceof BuildCycleException);
+    }
+  }
+
+  private void setTotalDuration(File dep, int totalDuration) throws IOException {
+    BuildUnit<?> unit = BuildUnit.read(dep);
+    unit.setTrace(new TraceData(1, totalDuration, 0, totalDuration, 0));
+    unit.write();
+  }
+
+  @Test(timeout = 10000)
+  public void testLongestCriticalPathFirst() throws IOException {
+    File fanout = getRelativeFile("fanout.txt");
+    File s1 = getRelativeFile("short1.txt");
+    File s2 = getRelativeFile("short2.txt");
+    File l = getRelativeFile("long.txt");
+
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.setParallelism(2);
+    buildFile(fanout, manager);
+
+    setTotalDuration(getRelativeFile("short1.txt.dep"), 10);
+    setTotalDuration(getRelativeFile("short2.txt.dep"), 10);
+    setTotalDuration(getRelativeFile("long.txt.dep"), 60000);
+    FileCommands.writeToFile(fanout, "Changed Fanout\nDep:short1.txt\nDep:short2.txt\nDep:long.txt");
+    for (File file : new File[] { s1, s2, l })
+      FileCommands.writeToFile(file, "Changed " + file.getName());
+
+    manager = new TrackingBuildManager();
+    manager.setParallelism(2);
+    buildFile(fanout, manager);
+    List<File> executed = inputToFileList(manager.getExecutedInputs());
+    assertEquals(4, executed.size());
+    assertTrue("long.txt is started before a short file: " + executed, executed.indexOf(l) < 3);
+  }
+
+  private TrackingBuildManager buildAsync(File file, int parallelism) throws IOException {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.setParallelism(parallelism);
+    manager.require(AsyncParallelBuilder.asyncFactory, new TestBuilderInput(testBasePath.toFile(), file));
+    return manager;
+  }
+
+  @Test(timeout = 10000)
+  public void testAsyncRequirements() throws IOException {
+    File main = getRelativeFile("main.txt");
+    File a = getRelativeFile("a.txt");
+    File b = getRelativeFile("b.txt");
+    File c = getRelativeFile("c.txt");
+
+    TrackingBuildManager manager = buildAsync(main, 4);
+    validateThat(executedFilesOf(manager).containsSameElements(main, a, b, c));
+    validateThat(executedFilesOf(manager).hasSize(4));
+    assertEquals("Content A", FileCommands.readFileAsString(getRelativeFile("a.txt.gen")).trim());
+
+    List<File> required = new ArrayList<>();
+    for (Requirement req : BuildUnit.read(getRelativeFile("main.txt.dep")).getRequirements())
+      if (req instanceof BuildRequirement<?>)
+        required.add(((BuildRequirement<?>) req).getUnit().getPersistentPath());
+    assertEquals(Arrays.asList(getRelativeFile("a.txt.dep"), getRelativeFile("b.txt.dep")), required);
+
+    manager = buildAsync(main, 4);
+    validateThat(executedFilesOf(manager).isEmpty());
+  }
+
+  @Test(timeout = 10000)
+  public void testAsyncRequirementsSequentially() throws IOException {
+    TrackingBuildManager manager = buildAsync(getRelativeFile("main.txt"), 1);
+    validateThat(executedFilesOf(manager).hasSize(4));
+  }
+
+  @Test(timeout = 10000)
+  public void testAsyncRequirementsWithoutCompensation() throws IOException {
+    int maxCompensatedWaits = BuildManager.MAX_COMPENSATED_WAITS;
+    BuildManager.MAX_COMPENSATED_WAITS = 0;
+    try {
+      // The waiting builders occupy three of the four workers
+      TrackingBuildManager manager = buildAsync(getRelativeFile("main.txt"), 4);
+      validateThat(executedFilesOf(manager).hasSize(4));
+    } finally {
+      BuildManager.MAX_COMPENSATED_WAITS = maxCompensatedWaits;
+    }
+  }
+
+  @Test(timeout = 10000)
+  public void testAsyncCycleBetweenStrands() throws IOException {
+    try {
+      buildAsync(getRelativeFile("cycle.txt"), 4);
+      fail("Expected the cycle between x and y to fail");
+    } catch (RequiredBuilderFailed e) {
+      // Depending on which strand detects the cycle, the other strand finds
+      // the failed unit of the cycle
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package build.pluto.test.build.parallel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.builder.BuildRequest;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+/**
+ * Like the {@link SimpleBuilder} but requires all dependencies of a file at
+ * once, such that they may be built in parallel.
+ */
+public class ParallelBuilder extends SimpleBuilder {
+
+  public static BuilderFactory<TestBuilderInput, None, ParallelBuilder> parallelFactory = BuilderFactoryFactory.of(ParallelBuilder.class, TestBuilderInput.class);
+
+  public ParallelBuilder(TestBuilderInput input) {
+    super(input);
+  }
+
+  @Override
+  protected None build(TestBuilderInput input) throws IOException {
+    require(input.getInputPath());
+    List<String> allLines = FileCommands.readFileLines(input.getInputPath());
+    if (!allLines.isEmpty() && allLines.get(0).equals("#fail"))
+      throw new RuntimeException("#fail detected in source file");
+
+    List<BuildRequest<?, ?, ?, ?>> deps = new ArrayList<>();
+    List<String> contentLines = new ArrayList<String>();
+    for (String line : allLines) {
+      if (line.startsWith("Dep:")) {
+        TestBuilderInput depInput = new TestBuilderInput(input.getBasePath(), new File(input.getBasePath(), line.substring(4)));
+        deps.add(new BuildRequest<>(parallelFactory, depInput));
+      } else {
+        contentLines.add(line);
+      }
+    }
+    requireBuildAll(deps);
+
+    File generatedFile = FileCommands.addExtension(input.getInputPath().toPath(), "gen").toFile();
+    FileCommands.writeLinesFile(generatedFile, contentLines);
+    provide(generatedFile);
+    setState(BuildUnit.State.finished(true));
+    return None.val;
+  }
+
+}
@@ -0,0 +1,45 @@
+package build.pluto.test.build.restat;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.Builder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+
+/**
+ * Copies the file generated by the {@link LowerCaseBuilder}, which it requires
+ * by last modification time.
+ */
+public class ConsumerBuilder extends Builder<File, None> {
+
+  public static BuilderFactory<File, None, ConsumerBuilder> factory = BuilderFactoryFactory.of(ConsumerBuilder.class, File.class);
+
+  public ConsumerBuilder(File input) {
+    super(input);
+  }
+
+  @Override
+  protected String description(File input) {
+    return "Consume " + input;
+  }
+
+  @Override
+  public File persistentPath(File input) {
+    return FileCommands.addExtension(input.toPath(), "consumer.dep").toFile();
+  }
+
+  @Override
+  protected None build(File input) throws IOException {
+    requireBuild(LowerCaseBuilder.factory, input);
+    File lower = LowerCaseBuilder.generatedFile(input);
+    require(lower);
+    File out = FileCommands.addExtension(input.toPath(), "copy").toFile();
+    FileCommands.writeToFile(out, FileCommands.readFileAsString(lower));
+    provide(out);
+    return None.val;
+  }
+}
@@ -0,0 +1,54 @@
+package build.pluto.test.build.restat;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.Builder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.Stamper;
+
+/**
+ * Generates the lower case content of its input file, which is unchanged if
+ * only the case of the input changes.
+ */
+public class LowerCaseBuilder extends Builder<File, None> {
+
+  public static BuilderFactory<File, None, LowerCaseBuilder> factory = BuilderFactoryFactory.of(LowerCaseBuilder.class, File.class);
+
+  public LowerCaseBuilder(File input) {
+    super(input);
+  }
+
+  public static File generatedFile(File input) {
+    return FileCommands.addExtension(input.toPath(), "lower").toFile();
+  }
+
+  @Override
+  protected String description(File input) {
+    return "Lower case " + input;
+  }
+
+  @Override
+  public File persistentPath(File input) {
+    return FileCommands.addExtension(input.toPath(), "lower.dep").toFile();
+  }
+
+  @Override
+  protected Stamper defaultStamper() {
+    return FileHashStamper.instance;
+  }
+
+  @Override
+  protected None build(File input) throws IOException {
+    require(input);
+    File out = generatedFile(input);
+    FileCommands.writeToFile(out, FileCommands.readFileAsString(input).toLowerCase());
+    provide(out);
+    return None.val;
+  }
+}
@@ -0,0 +1,66 @@
+package build.pluto.test.build.restat;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+
+public class RestatTest extends ScopedBuildTest {
+
+  private boolean restat;
+
+  @Before
+  public void enableRestat() {
+    restat = BuildManager.RESTAT_GENERATED_FILES;
+    BuildManager.RESTAT_GENERATED_FILES = true;
+  }
+
+  @After
+  public void restoreRestat() {
+    BuildManager.RESTAT_GENERATED_FILES = restat;
+  }
+
+  private TrackingBuildManager build() throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.requireInitially(new BuildRequest<>(ConsumerBuilder.factory, getRelativeFile("input.txt")));
+    return manager;
+  }
+
+  @Test
+  public void testUnchangedOutputStopsRebuild() throws Throwable {
+    File input = getRelativeFile("input.txt");
+    File lower = LowerCaseBuilder.generatedFile(input);
+    build();
+    long lastModified = lower.lastModified();
+
+    FileCommands.writeToFile(input, "HELLO\n");
+    // Ensure the regenerated file would get a different modification time
+    Thread.sleep(20);
+    TrackingBuildManager manager = build();
+
+    assertEquals(1, manager.getExecutedInputs().size());
+    assertEquals(lastModified, lower.lastModified());
+  }
+
+  @Test
+  public void testChangedOutputRebuilds() throws Throwable {
+    File input = getRelativeFile("input.txt");
+    build();
+
+    FileCommands.writeToFile(input, "Goodbye\n");
+    Thread.sleep(20);
+    TrackingBuildManager manager = build();
+
+    assertEquals(2, manager.getExecutedInputs().size());
+    assertEquals("goodbye\n", FileCommands.readFileAsString(getRelativeFile("input.txt.copy")));
+  }
+}
@@ -0,0 +1,54 @@
+package build.pluto.test.build.summary;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.Builder;
+import build.pluto.builder.factory.BuilderFactory;
+import build.pluto.builder.factory.BuilderFactoryFactory;
+import build.pluto.output.None;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.Stamper;
+
+/**
+ * Copies its input file and provides the copy by its content hash, such that
+ * regenerating the copy does not change the summary.
+ */
+public class CopyBuilder extends Builder<File, None> {
+
+  public static BuilderFactory<File, None, CopyBuilder> factory = BuilderFactoryFactory.of(CopyBuilder.class, File.class);
+
+  public CopyBuilder(File input) {
+    super(input);
+  }
+
+  public static File generatedFile(File input) {
+    return FileCommands.addExtension(input.toPath(), "copy").toFile();
+  }
+
+  @Override
+  protected String description(File input) {
+    return "Copy " + input;
+  }
+
+  @Override
+  public File persistentPath(File input) {
+    return FileCommands.addExtension(input.toPath(), "copy.dep").toFile();
+  }
+
+  @Override
+  protected Stamper defaultStamper() {
+    return FileHashStamper.instance;
+  }
+
+  @Override
+  protected None build(File input) throws IOException {
+    require(input);
+    File out = generatedFile(input);
+    FileCommands.writeToFile(out, FileCommands.readFileAsString(input));
+    provide(out, FileHashStamper.instance);
+    return None.val;
+  }
+}
@@ -0,0 +1,84 @@
+package build.pluto.test.build.summary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import build.pluto.BuildUnit;
+import build.pluto.EntityCache;
+import build.pluto.LRUEntityCache;
+import build.pluto.PersistableEntity;
+import build.pluto.test.build.SummaryBuildTest;
+
+public class EntityCacheTest extends SummaryBuildTest {
+
+  private EntityCache previousCache;
+
+  @Before
+  public void saveCache() {
+    previousCache = PersistableEntity.getEntityCache();
+  }
+
+  @After
+  public void restoreCache() {
+    PersistableEntity.setEntityCache(previousCache);
+  }
+
+  @Test
+  public void testEntryBound() throws Throwable {
+    LRUEntityCache cache = new LRUEntityCache(1, Long.MAX_VALUE);
+    PersistableEntity.setEntityCache(cache);
+
+    assertEquals(4, build().getExecutedInputs().size());
+    assertEquals(1, cache.size());
+    assertEquals(3, cache.getEvictions());
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+
+  @Test
+  public void testWeightBound() throws Throwable {
+    LRUEntityCache cache = new LRUEntityCache(100, 1);
+    PersistableEntity.setEntityCache(cache);
+
+    build();
+    assertEquals(0, cache.size());
+    assertEquals(4, cache.getEvictions());
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+
+  @Test
+  public void testEvictedUnitsRecovered() throws Throwable {
+    LRUEntityCache cache = new LRUEntityCache(1, Long.MAX_VALUE);
+    PersistableEntity.setEntityCache(cache);
+    build();
+
+    // The main unit keeps the other units reachable, hence they are recovered
+    // without reading their summaries
+    long misses = cache.getMisses();
+    BuildUnit<?> main = BuildUnit.read(summary("main.txt"));
+    assertNotNull(main);
+    for (BuildUnit<?> unit : main.getModuleDependencies())
+      assertSame(unit, BuildUnit.read(unit.getPersistentPath()));
+    assertEquals(misses, cache.getMisses());
+  }
+
+  @Test
+  public void testHitsAndMisses() throws Throwable {
+    build();
+    PersistableEntity.cleanCache();
+    EntityCache cache = PersistableEntity.getEntityCache();
+
+    long hits = cache.getHits();
+    long misses = cache.getMisses();
+    BuildUnit<?> unit = BuildUnit.read(summary("a.txt"));
+    assertEquals(misses + 1, cache.getMisses());
+    assertSame(unit, BuildUnit.read(summary("a.txt")));
+    assertEquals(hits + 1, cache.getHits());
+  }
+}
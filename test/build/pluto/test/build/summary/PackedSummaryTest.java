@@ -0,0 +1,99 @@
+package build.pluto.test.build.summary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.PersistableEntity;
+import build.pluto.SummaryStore;
+import build.pluto.builder.Builder;
+import build.pluto.dependency.database.XodusSummaryStore;
+import build.pluto.test.build.SummaryBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+
+public class PackedSummaryTest extends SummaryBuildTest {
+
+  private SummaryStore previousStore;
+  private XodusSummaryStore store;
+
+  @Before
+  public void installStore() throws IOException {
+    previousStore = PersistableEntity.getSummaryStore();
+    FileCommands.delete(new File(Builder.PLUTO_HOME, storeName()).toPath());
+    store = new XodusSummaryStore(storeName());
+    PersistableEntity.setSummaryStore(store);
+  }
+
+  @After
+  public void restoreStore() {
+    PersistableEntity.setSummaryStore(previousStore);
+    store.close();
+  }
+
+  private String storeName() {
+    return "summaries-" + testBasePath.getFileName();
+  }
+
+  @Test
+  public void testNoSummaryFiles() throws Throwable {
+    assertEquals(4, build().getExecutedInputs().size());
+    for (String name : new String[] { "main.txt", "a.txt", "b.txt", "c.txt" }) {
+      assertFalse(summary(name).exists());
+      assertTrue(store.contains(summary(name)));
+    }
+
+    // Summaries are read from the store after they left the memory
+    PersistableEntity.cleanCache();
+    BuildUnit<?> unit = BuildUnit.read(summary("b.txt"));
+    assertNotNull(unit);
+    assertTrue(unit.isConsistent());
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+
+  @Test
+  public void testVersions() throws Throwable {
+    build();
+    Long versionA = store.version(summary("a.txt"));
+    Long versionC = store.version(summary("c.txt"));
+
+    File c = getRelativeFile("c.txt");
+    FileCommands.writeToFile(c, FileCommands.readFileAsString(c) + "More content\n");
+    PersistableEntity.cleanCache();
+    TrackingBuildManager manager = build();
+
+    assertEquals(1, manager.getExecutedInputs().size());
+    assertEquals(versionA, store.version(summary("a.txt")));
+    assertNotEquals(versionC, store.version(summary("c.txt")));
+    assertFalse(BuildUnit.read(summary("c.txt")).hasPersistentVersionChanged());
+  }
+
+  @Test
+  public void testBatchedCommits() throws Throwable {
+    int batch = XodusSummaryStore.COMMIT_BATCH;
+    XodusSummaryStore.COMMIT_BATCH = 2;
+    try {
+      build();
+    } finally {
+      XodusSummaryStore.COMMIT_BATCH = batch;
+    }
+
+    // A new store sees all committed summaries with their versions
+    Long version = store.version(summary("main.txt"));
+    store.close();
+    store = new XodusSummaryStore(storeName());
+    PersistableEntity.setSummaryStore(store);
+    assertEquals(version, store.version(summary("main.txt")));
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+}
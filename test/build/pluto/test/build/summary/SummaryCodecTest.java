@@ -0,0 +1,211 @@
+package build.pluto.test.build.summary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.BuildUnit;
+import build.pluto.PersistableEntity;
+import build.pluto.builder.BuildManager;
+import build.pluto.builder.BuildRequest;
+import build.pluto.dependency.BuildRequirement;
+import build.pluto.dependency.FileRequirement;
+import build.pluto.dependency.Requirement;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.ValueStamp;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.util.StructuralDigest;
+
+public class SummaryCodecTest extends ScopedBuildTest {
+
+  private boolean compress;
+
+  @Before
+  public void saveFlag() {
+    compress = BuildManager.COMPRESS_SUMMARIES;
+  }
+
+  @After
+  public void restoreFlag() {
+    BuildManager.COMPRESS_SUMMARIES = compress;
+  }
+
+  private BuildRequest<?, ?, ?, ?> request(File basePath, String name) {
+    return new BuildRequest<>(SimpleBuilder.factory, new TestBuilderInput(basePath, getRelativeFile(name)));
+  }
+
+  private TrackingBuildManager build(BuildRequest<?, ?, ?, ?> request) throws Throwable {
+    try (TrackingBuildManager manager = new TrackingBuildManager()) {
+      manager.requireInitially(request);
+      return manager;
+    }
+  }
+
+  private File summary(String name) {
+    return FileCommands.addExtension(getRelativeFile(name).toPath(), "dep").toFile();
+  }
+
+  private List<BuildRequirement<?>> buildRequirements(BuildUnit<?> unit) {
+    List<BuildRequirement<?>> reqs = new ArrayList<>();
+    for (Requirement req : unit.getRequirements())
+      if (req instanceof BuildRequirement<?>)
+        reqs.add((BuildRequirement<?>) req);
+    return reqs;
+  }
+
+  private void assertRoundTrip() throws Throwable {
+    BuildRequest<?, ?, ?, ?> main = request(testBasePath.toFile(), "main.txt");
+    build(main);
+    PersistableEntity.cleanCache();
+
+    BuildUnit<?> unit = BuildUnit.read(summary("main.txt"));
+    assertNotNull(unit);
+    assertTrue(unit.isConsistent());
+    assertEquals(2, buildRequirements(unit).size());
+    for (BuildRequirement<?> req : buildRequirements(unit)) {
+      // Requests of required units are recovered from their summaries
+      assertNotNull(req.getRequest());
+      assertEquals(req.getUnit().getGeneratedBy(), req.getRequest());
+    }
+    assertTrue(build(main).getExecutedInputs().isEmpty());
+  }
+
+  @Test
+  public void testRoundTrip() throws Throwable {
+    BuildManager.COMPRESS_SUMMARIES = false;
+    assertRoundTrip();
+  }
+
+  @Test
+  public void testCompressedRoundTrip() throws Throwable {
+    BuildManager.COMPRESS_SUMMARIES = true;
+    assertRoundTrip();
+  }
+
+  @Test
+  public void testSmallerThanJavaSerialization() throws Throwable {
+    build(request(testBasePath.toFile(), "main.txt"));
+    PersistableEntity.cleanCache();
+    BuildUnit<?> unit = BuildUnit.read(summary("main.txt"));
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(unit.getState());
+      out.writeObject(unit.getRequirements());
+      out.writeObject(unit.getGeneratedFileRequirements());
+      out.writeObject(unit.getGeneratedBy());
+      out.writeObject(unit.getBuildResult());
+      out.writeObject(unit.getTrace());
+    }
+    assertTrue(summary("main.txt").length() < bytes.size());
+  }
+
+  @Test
+  public void testChangedRequestOfRequiredUnit() throws Throwable {
+    BuildRequest<?, ?, ?, ?> main = request(testBasePath.toFile(), "main.txt");
+    build(main);
+
+    // Another request builds a.txt into the same summary
+    build(request(testBasePath.toFile().getParentFile(), "a.txt"));
+    PersistableEntity.cleanCache();
+
+    BuildUnit<?> unit = BuildUnit.read(summary("main.txt"));
+    BuildRequirement<?> reqA = null;
+    for (BuildRequirement<?> req : buildRequirements(unit))
+      if (req.getUnitPath().equals(summary("a.txt").getAbsoluteFile()))
+        reqA = req;
+    assertNotNull(reqA);
+    assertNull(reqA.getRequest());
+
+    TrackingBuildManager manager = build(main);
+    assertTrue(manager.getExecutedInputs().size() >= 2);
+    assertEquals(getRelativeFile("main.txt"), ((TestBuilderInput) manager.getExecutedInputs().get(0)).getInputPath());
+  }
+
+  private static class Key implements Serializable {
+    private static final long serialVersionUID = 1L;
+    final int id;
+
+    Key(int id) {
+      this.id = id;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T copy(T o) throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(o);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      return (T) in.readObject();
+    }
+  }
+
+  @Test
+  public void testDigestIndependentOfSetOrder() throws Exception {
+    // Keys with identity hash codes are ordered differently in the copy
+    HashSet<Key> keys = new HashSet<>();
+    for (int i = 0; i < 100; i++)
+      keys.add(new Key(i));
+    HashSet<Key> copy = copy(keys);
+    assertArrayEquals(StructuralDigest.of(keys), StructuralDigest.of(copy));
+
+    copy.add(new Key(100));
+    assertFalse(Arrays.equals(StructuralDigest.of(keys), StructuralDigest.of(copy)));
+
+    BuildRequest<?, ?, ?, ?> main = request(testBasePath.toFile(), "main.txt");
+    assertArrayEquals(main.digest(), copy(main).digest());
+  }
+
+  @Test
+  public void testRootPathRoundTrip() throws Throwable {
+    File root = testBasePath.toAbsolutePath().getRoot().toFile();
+    File dep = summary("root.txt");
+    BuildUnit<?> unit = BuildUnit.create(dep, request(testBasePath.toFile(), "main.txt"));
+    unit.requires(root, new ValueStamp<>(LastModifiedStamper.instance, 0l));
+    unit.setState(BuildUnit.State.SUCCESS);
+    unit.write();
+    PersistableEntity.cleanCache();
+
+    Set<FileRequirement> required = BuildUnit.read(dep).getRequiredFiles();
+    assertEquals(1, required.size());
+    assertEquals(root, required.iterator().next().file);
+  }
+
+  @Test(expected = IOException.class)
+  public void testUnknownRequestNotWritten() throws Throwable {
+    build(request(testBasePath.toFile(), "main.txt"));
+    build(request(testBasePath.toFile().getParentFile(), "a.txt"));
+    PersistableEntity.cleanCache();
+
+    BuildUnit<?> unit = BuildUnit.read(summary("main.txt"));
+    try (ObjectOutputStream out = new ObjectOutputStream(new ByteArrayOutputStream())) {
+      out.writeObject(buildRequirements(unit).get(0));
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package build.pluto.test.build.summary;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.builder.BuildRequest;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+
+public class SummaryWriteTest extends ScopedBuildTest {
+
+  private TrackingBuildManager build() throws Throwable {
+    TrackingBuildManager manager = new TrackingBuildManager();
+    manager.requireInitially(new BuildRequest<>(CopyBuilder.factory, getRelativeFile("input.txt")));
+    return manager;
+  }
+
+  private File summary() {
+    File input = getRelativeFile("input.txt");
+    return new CopyBuilder(input).persistentPath(input);
+  }
+
+  /**
+   * Moves the summary into the past, such that a rewrite is observable.
+   */
+  private long backdateSummary() {
+    long modified = summary().lastModified() - 10000;
+    assertTrue(summary().setLastModified(modified));
+    return modified;
+  }
+
+  @Test
+  public void testUnchangedSummaryKept() throws Throwable {
+    File input = getRelativeFile("input.txt");
+    build();
+    long modified = backdateSummary();
+
+    FileCommands.delete(CopyBuilder.generatedFile(input).toPath());
+    TrackingBuildManager manager = build();
+
+    assertEquals(1, manager.getExecutedInputs().size());
+    assertTrue(CopyBuilder.generatedFile(input).exists());
+    assertEquals(modified, summary().lastModified());
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+
+  @Test
+  public void testChangedSummaryWritten() throws Throwable {
+    File input = getRelativeFile("input.txt");
+    build();
+    long modified = backdateSummary();
+
+    FileCommands.writeToFile(input, "Goodbye\n");
+    TrackingBuildManager manager = build();
+
+    assertEquals(1, manager.getExecutedInputs().size());
+    assertNotEquals(modified, summary().lastModified());
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+}
@@ -0,0 +1,173 @@
+package build.pluto.test.build.summary;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.FileSummaryStore;
+import build.pluto.PersistableEntity;
+import build.pluto.SummaryStore;
+import build.pluto.WriteBehindSummaryStore;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.Stamper;
+import build.pluto.test.build.SummaryBuildTest;
+import build.pluto.test.build.TrackingBuildManager;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+
+public class WriteBehindSummaryTest extends SummaryBuildTest {
+
+  /**
+   * Writes files once opened.
+   */
+  private static class GatedStore implements SummaryStore {
+    final CountDownLatch gate = new CountDownLatch(1);
+
+    @Override
+    public boolean contains(File p) {
+      return FileSummaryStore.instance.contains(p);
+    }
+
+    @Override
+    public InputStream read(File p) throws IOException {
+      return FileSummaryStore.instance.read(p);
+    }
+
+    @Override
+    public void write(File p, byte[] summary) throws IOException {
+      try {
+        gate.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      FileSummaryStore.instance.write(p, summary);
+    }
+
+    @Override
+    public void delete(File p) throws IOException {
+      FileSummaryStore.instance.delete(p);
+    }
+
+    @Override
+    public Stamper versionStamper(Stamper stamper) {
+      return stamper;
+    }
+
+    @Override
+    public void flush() {
+    }
+  }
+
+  private SummaryStore previousStore;
+  private GatedStore files;
+  private WriteBehindSummaryStore store;
+
+  @Before
+  public void installStore() throws IOException {
+    previousStore = PersistableEntity.getSummaryStore();
+    files = new GatedStore();
+    store = new WriteBehindSummaryStore(files, journal());
+    PersistableEntity.setSummaryStore(store);
+  }
+
+  @After
+  public void restoreStore() throws IOException {
+    PersistableEntity.setSummaryStore(previousStore);
+    files.gate.countDown();
+    store.close();
+  }
+
+  private File journal() {
+    return getRelativeFile("summaries.journal");
+  }
+
+  private List<File> executed(TrackingBuildManager manager) {
+    List<File> inputs = new ArrayList<>();
+    for (Object input : manager.getExecutedInputs())
+      inputs.add(((TestBuilderInput) input).getInputPath());
+    return inputs;
+  }
+
+  @Test
+  public void testQueuedSummaryReadFromMemory() throws Throwable {
+    File p = summary("a.txt");
+    byte[] summary = new byte[] { 1, 2, 3 };
+    store.write(p, summary);
+
+    assertTrue(store.contains(p));
+    try (InputStream in = store.read(p)) {
+      ByteArrayOutputStream read = new ByteArrayOutputStream();
+      for (int b = in.read(); b >= 0; b = in.read())
+        read.write(b);
+      assertArrayEquals(summary, read.toByteArray());
+    }
+    assertFalse(p.exists());
+
+    files.gate.countDown();
+    store.flush();
+    assertArrayEquals(summary, Files.readAllBytes(p.toPath()));
+    assertEquals(0, journal().length());
+  }
+
+  @Test
+  public void testSummariesWrittenWhenBuildEnds() throws Throwable {
+    files.gate.countDown();
+    assertEquals(4, build().getExecutedInputs().size());
+    for (String name : new String[] { "main.txt", "a.txt", "b.txt", "c.txt" })
+      assertTrue(summary(name).exists());
+
+    // Written summaries keep their versions
+    assertTrue(build().getExecutedInputs().isEmpty());
+    PersistableEntity.cleanCache();
+    assertTrue(build().getExecutedInputs().isEmpty());
+  }
+
+  @Test
+  public void testInterruptedWriteRebuilt() throws Throwable {
+    files.gate.countDown();
+    build();
+    store.close();
+
+    // The process died while writing the summary of a.txt
+    FileCommands.writeToFile(journal(), summary("a.txt").getAbsolutePath() + "\n");
+    store = new WriteBehindSummaryStore(files, journal());
+    PersistableEntity.setSummaryStore(store);
+    assertFalse(summary("a.txt").exists());
+    assertEquals(0, journal().length());
+
+    TrackingBuildManager manager = build();
+    assertTrue(executed(manager).contains(getRelativeFile("a.txt")));
+    assertFalse(executed(manager).contains(getRelativeFile("b.txt")));
+  }
+
+  @Test
+  public void testVersionsBounded() throws Throwable {
+    store.close();
+    store = new WriteBehindSummaryStore(files, journal(), 1);
+    PersistableEntity.setSummaryStore(store);
+    files.gate.countDown();
+
+    store.write(summary("a.txt"), new byte[] { 1 });
+    store.write(summary("b.txt"), new byte[] { 2 });
+    store.flush();
+
+    // The version of a.txt was dropped in favor of the one of b.txt
+    Stamper stamper = new WriteBehindSummaryStore.VersionStamper(LastModifiedStamper.instance);
+    assertEquals(LastModifiedStamper.instance, stamper.stampOf(summary("a.txt")).getStamper());
+    assertEquals(stamper, stamper.stampOf(summary("b.txt")).getStamper());
+  }
+}
@@ -0,0 +1,81 @@
+package build.pluto.test.daemon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.daemon.BuildDaemon;
+import build.pluto.daemon.BuildDaemonClient;
+import build.pluto.test.build.ScopedBuildTest;
+import build.pluto.test.build.once.SimpleBuilder;
+import build.pluto.test.build.once.SimpleBuilder.TestBuilderInput;
+import build.pluto.test.build.once.SimpleRequirement;
+import build.pluto.util.NoReporting;
+
+public class BuildDaemonTest extends ScopedBuildTest {
+
+  private static final String PATH = "daemon-test";
+
+  private BuildDaemon daemon;
+  private Thread daemonThread;
+
+  @Before
+  public void startDaemon() throws IOException {
+    daemon = new BuildDaemon(new NoReporting(), PATH);
+    daemonThread = new Thread(daemon);
+    daemonThread.start();
+  }
+
+  @After
+  public void stopDaemon() throws Exception {
+    daemon.close();
+    daemonThread.join(10000);
+  }
+
+  private SimpleRequirement mainRequest() {
+    return new SimpleRequirement(SimpleBuilder.factory, new TestBuilderInput(testBasePath.toFile(), getRelativeFile("main.txt")));
+  }
+
+  @Test(timeout = 20000)
+  public void testBuildThroughDaemon() throws Throwable {
+    assertTrue(BuildDaemonClient.isRunning(PATH));
+    BuildDaemonClient client = BuildDaemonClient.connect(PATH);
+
+    client.build(mainRequest());
+    assertEquals("Content Dep", FileCommands.readFileAsString(getRelativeFile("dep.txt.gen")).trim());
+
+    File dep = getRelativeFile("dep.txt");
+    FileCommands.writeToFile(dep, "Changed Content Dep");
+    client.buildChanged(Collections.singleton(dep));
+    assertEquals("Changed Content Dep", FileCommands.readFileAsString(getRelativeFile("dep.txt.gen")).trim());
+
+    client.shutdown();
+    daemonThread.join(10000);
+    assertFalse(BuildDaemonClient.isRunning(PATH));
+  }
+
+  @Test(timeout = 20000)
+  public void testForgetUnitsBetweenBuilds() throws Throwable {
+    BuildDaemonClient client = BuildDaemonClient.connect(PATH);
+    File dep = getRelativeFile("dep.txt");
+    for (int i = 0; i < 3; i++) {
+      FileCommands.writeToFile(dep, "Content Dep " + i);
+      client.build(mainRequest());
+      assertFalse(daemon.getManager().getDynamicAnalysis().hasSessionState());
+
+      FileCommands.writeToFile(dep, "Changed Content Dep " + i);
+      client.buildChanged(Collections.singleton(dep));
+      assertFalse(daemon.getManager().getDynamicAnalysis().hasSessionState());
+    }
+    assertEquals("Changed Content Dep 2", FileCommands.readFileAsString(getRelativeFile("dep.txt.gen")).trim());
+  }
+}
@@ -0,0 +1,68 @@
+package build.pluto.test.stamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.stamp.FileChangeJournal;
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.Stamp;
+
+public class FileChangeJournalTest {
+
+  private File dir;
+  private File file;
+
+  @Before
+  public void installJournal() throws IOException {
+    dir = Files.createTempDirectory("journal").toFile();
+    file = new File(dir, "file.txt");
+    FileCommands.writeToFile(file, "content");
+    FileChangeJournal.install(new File(dir, "cookies"));
+  }
+
+  @After
+  public void uninstallJournal() throws IOException {
+    FileChangeJournal.uninstall();
+    FileCommands.delete(dir.toPath());
+  }
+
+  @Test(timeout = 10000)
+  public void testReuseStampUntilEvent() throws IOException {
+    assumeTrue(FileChangeJournal.installed().isRemembering());
+    Stamp stamp = FileChangeJournal.stampOf(FileHashStamper.instance, file);
+    FileCommands.writeToFile(file, "changed content");
+
+    // changes during a build are recognized by the next build
+    assertEquals(stamp, FileChangeJournal.stampOf(FileHashStamper.instance, file));
+
+    FileChangeJournal.pollEvents();
+    Stamp changed = FileChangeJournal.stampOf(FileHashStamper.instance, file);
+    assertNotEquals(stamp, changed);
+    assertEquals(FileHashStamper.instance.stampOf(file), changed);
+  }
+
+  @Test
+  public void testRememberWithNativeWatchService() {
+    assumeTrue(System.getProperty("os.name").startsWith("Linux"));
+    assertTrue(FileChangeJournal.installed().isRemembering());
+  }
+
+  @Test(timeout = 10000)
+  public void testInvalidateProvidedFile() throws IOException {
+    Stamp stamp = FileChangeJournal.stampOf(FileHashStamper.instance, file);
+    FileCommands.writeToFile(file, "changed content");
+    FileChangeJournal.invalidate(file);
+    assertNotEquals(stamp, FileChangeJournal.stampOf(FileHashStamper.instance, file));
+  }
+}
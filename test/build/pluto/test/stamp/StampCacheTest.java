@@ -0,0 +1,114 @@
+package build.pluto.test.stamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sugarj.common.FileCommands;
+
+import build.pluto.stamp.FileHashStamper;
+import build.pluto.stamp.LastModifiedStamper;
+import build.pluto.stamp.Stamp;
+import build.pluto.stamp.StampCache;
+import build.pluto.stamp.Stamper;
+import build.pluto.stamp.ValueStamp;
+
+public class StampCacheTest {
+
+  private File dir;
+  private File a;
+  private File b;
+  private File c;
+
+  @Before
+  public void beginSession() throws IOException {
+    dir = Files.createTempDirectory("stamps").toFile();
+    a = new File(dir, "a.txt");
+    b = new File(dir, "b.txt");
+    c = new File(dir, "c.txt");
+    FileCommands.writeToFile(a, "a");
+    FileCommands.writeToFile(b, "b");
+    FileCommands.writeToFile(c, "c");
+    StampCache.beginSession();
+  }
+
+  @After
+  public void endSession() throws IOException {
+    StampCache.endSession();
+    FileCommands.delete(dir.toPath());
+  }
+
+  @Test
+  public void testStampOncePerSession() throws IOException {
+    Stamp stamp = StampCache.stampOf(FileHashStamper.instance, a);
+    FileCommands.writeToFile(a, "changed a");
+    assertEquals(stamp, StampCache.stampOf(FileHashStamper.instance, a));
+
+    StampCache.invalidate(a);
+    assertEquals(FileHashStamper.instance.stampOf(a), StampCache.stampOf(FileHashStamper.instance, a));
+  }
+
+  @Test
+  public void testForgetStampsAfterSession() throws IOException {
+    Stamp stamp = StampCache.stampOf(FileHashStamper.instance, a);
+    FileCommands.writeToFile(a, "changed a");
+    StampCache.endSession();
+    StampCache.beginSession();
+    assertNotEquals(stamp, StampCache.stampOf(FileHashStamper.instance, a));
+  }
+
+  @Test
+  public void testScanDirectory() throws IOException {
+    StampCache.stampOf(LastModifiedStamper.instance, a);
+    // the second file of the directory triggers a scan
+    assertEquals(LastModifiedStamper.instance.stampOf(b), StampCache.stampOf(LastModifiedStamper.instance, b));
+    assertEquals(LastModifiedStamper.instance.stampOf(c), StampCache.stampOf(LastModifiedStamper.instance, c));
+
+    File missing = new File(dir, "missing.txt");
+    assertEquals(LastModifiedStamper.instance.stampOf(missing), StampCache.stampOf(LastModifiedStamper.instance, missing));
+
+    FileCommands.writeToFile(missing, "provided");
+    missing.setLastModified(1000000l);
+    StampCache.invalidate(missing);
+    assertEquals(LastModifiedStamper.instance.stampOf(missing), StampCache.stampOf(LastModifiedStamper.instance, missing));
+  }
+
+  @Test
+  public void testSubdirectoryOfScannedDirectory() throws IOException {
+    File sub = new File(dir, "sub");
+    Files.createDirectory(sub.toPath());
+    sub.setLastModified(2000000l);
+    StampCache.stampOf(LastModifiedStamper.instance, a);
+    StampCache.stampOf(LastModifiedStamper.instance, b);
+
+    // The scan skipped the subdirectory
+    assertEquals(LastModifiedStamper.instance.stampOf(sub), StampCache.stampOf(LastModifiedStamper.instance, sub));
+    assertNotEquals(new ValueStamp<>(LastModifiedStamper.instance, 0l), StampCache.stampOf(LastModifiedStamper.instance, sub));
+  }
+
+  @Test
+  public void testPrestamp() throws IOException {
+    List<File> files = new ArrayList<>();
+    List<Stamper> stampers = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      File file = new File(dir, "file" + i + ".txt");
+      FileCommands.writeToFile(file, "content " + i);
+      files.add(file);
+      stampers.add(FileHashStamper.instance);
+    }
+    StampCache.prestamp(files, stampers);
+
+    // The stamps are memoized, hence changes without invalidation are missed
+    Stamp stamp = FileHashStamper.instance.stampOf(files.get(42));
+    FileCommands.writeToFile(files.get(42), "changed");
+    assertEquals(stamp, StampCache.stampOf(FileHashStamper.instance, files.get(42)));
+  }
+}